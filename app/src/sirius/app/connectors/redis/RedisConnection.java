@@ -10,11 +10,14 @@ package sirius.app.connectors.redis;
 
 import redis.clients.jedis.Jedis;
 import sirius.kernel.commons.Watch;
+import sirius.kernel.health.Microtiming;
 
 /**
 * Created by aha on 25.06.14.
 */
 public class RedisConnection implements AutoCloseable {
+    private static final Microtiming.Timing TIMING = Microtiming.timing("redis", "txn");
+
     private Jedis client;
     private Watch watch;
 
@@ -26,7 +29,7 @@ public class RedisConnection implements AutoCloseable {
     @Override
     public void close() throws Exception {
         RedisConnector.redisConnections.addValue(watch.elapsedMillis());
-        watch.submitMicroTiming("redis", "txn");
+        watch.submitMicroTiming(TIMING);
     }
 
     public Jedis getClient() {
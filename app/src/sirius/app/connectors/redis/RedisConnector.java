@@ -14,7 +14,7 @@ import redis.clients.jedis.JedisPool;
 import sirius.kernel.di.std.Register;
 import sirius.kernel.extensions.Extension;
 import sirius.kernel.extensions.Extensions;
-import sirius.kernel.health.Average;
+import sirius.kernel.health.Histogram;
 import sirius.kernel.health.Exceptions;
 import sirius.kernel.health.Log;
 import sirius.web.health.MetricProvider;
@@ -30,14 +30,14 @@ public class RedisConnector {
     private static Map<String, JedisPool> connections = Maps.newConcurrentMap();
 
     public static final Log LOG = Log.get("redis");
-    protected static Average redisConnections = new Average();
+    protected static Histogram redisConnections = new Histogram();
 
     @Register
     public static class RedisMetrics implements MetricProvider {
 
         @Override
         public void gather(MetricsCollector collector) {
-            collector.metric("redis-connection-duration", "Redis-ConnectionDuration", redisConnections.getAndClearAverage(), "ms");
+            collector.histogram("redis-connection-duration", "Redis-ConnectionDuration", redisConnections, "ms");
             collector.differentialMetric("redis-connections", "redis-connections", "Redis-Connections", redisConnections.getCount(), "/min");
         }
     }
@@ -15,14 +15,21 @@ import sirius.kernel.di.Lifecycle;
 import sirius.kernel.di.std.Register;
 import sirius.kernel.extensions.Extension;
 import sirius.kernel.extensions.Extensions;
+import sirius.kernel.health.Exceptions;
 import sirius.kernel.health.Log;
+import sirius.kernel.health.Microtiming;
 
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
+import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * Static helper for managing and scheduling asynchronous background tasks.
@@ -46,7 +53,21 @@ import java.util.concurrent.TimeUnit;
 public class Async {
     protected static final Log LOG = Log.get("async");
     public static final String DEFAULT = "default";
+
+    /**
+     * Contains the category of the work-stealing pool used by {@link #parallelMap(Collection, Function)} and
+     * {@link #parallelForEach(Collection, Consumer)}.
+     */
+    public static final String PARALLEL = "parallel";
+
+    /*
+     * Number of chunks created per thread of the parallel pool, so that idle threads can steal work
+     */
+    private static final int CHUNKS_PER_THREAD = 4;
+
     protected static final Map<String, AsyncExecutor> executors = Maps.newConcurrentMap();
+    private static volatile ForkJoinPool parallelPool;
+    private static volatile WheelTimer timer;
 
     // If sirius is not started yet, we still consider it running already as the intention of this flag
     // is to detect a system halt and not to check if the startup sequence has finished.
@@ -56,7 +77,9 @@ public class Async {
      * Returns the executor for the given category.
      * <p>
      * The configuration for this executor is taken from <tt>async.executor.[category]</tt>. If no config is found,
-     * the default values are used.
+     * the default values are used. If <tt>virtualThreads</tt> is enabled (and supported by the JVM), each task is
+     * executed in its own virtual thread, which is suitable for tasks which mostly block on IO
+     * (see {@link AsyncExecutor}).
      * </p>
      *
      * @param category the category of the task to be executed, which implies the executor to use.
@@ -86,9 +109,25 @@ public class Async {
                 exec = executors.get(wrapper.category);
                 if (exec == null) {
                     Extension config = Extensions.getExtension("async.executor", wrapper.category);
-                    exec = new AsyncExecutor(wrapper.category,
-                                             config.get("poolSize").asInt(10),
-                                             config.get("queueLength").asInt(0));
+                    if (config.get("virtualThreads").asBoolean(false)) {
+                        exec = AsyncExecutor.createVirtual(wrapper.category,
+                                                           config.get("maxConcurrency").asInt(10000));
+                        if (exec == null) {
+                            LOG.INFO("Virtual threads are not supported by this JVM. Executor '%s' uses its poolSize"
+                                     + " and queueLength instead...", wrapper.category);
+                        }
+                    }
+                    if (exec == null) {
+                        exec = new AsyncExecutor(wrapper.category,
+                                                 config.get("poolSize").asInt(10),
+                                                 config.get("queueLength").asInt(0));
+                        if (config.get("adaptive").asBoolean(false)) {
+                            exec.enableAdaptiveSizing(config.get("minPoolSize").asInt(1),
+                                                      config.get("maxPoolSize").asInt(10),
+                                                      config.getMilliseconds("targetQueueWait"),
+                                                      config.getMilliseconds("adaptionInterval"));
+                        }
+                    }
                     executors.put(wrapper.category, exec);
                 }
             }
@@ -126,6 +165,197 @@ public class Async {
         return result;
     }
 
+    /**
+     * Applies the given mapper to all items in parallel and returns the results in the order of the items.
+     * <p>
+     * The items are split into chunks which are processed by the work-stealing pool <tt>async.executor.parallel</tt>.
+     * This call blocks until all items are processed. Each chunk runs with the <tt>CallContext</tt> of the caller. If
+     * the {@link TaskContext} of the caller is cancelled, all remaining items are skipped and their results are
+     * <tt>null</tt>. The duration of each item is reported to the {@link sirius.kernel.health.Microtiming} framework
+     * (category <tt>PARALLEL</tt>, using the system string of the caller as key).
+     * </p>
+     * <p>
+     * Calls from within the parallel pool (nested parallel operations) are supported and share the same threads.
+     * </p>
+     *
+     * @param items  the items to process
+     * @param mapper the function to apply to each item. If it throws an exception for any item, the whole call fails.
+     * @param <T>    the type of the items
+     * @param <R>    the type of the results
+     * @return a list containing the result for each item, in the order of the given collection
+     * @throws sirius.kernel.health.HandledException if the mapper threw an exception for any item
+     */
+    @SuppressWarnings("unchecked")
+    public static <T, R> List<R> parallelMap(Collection<T> items, Function<T, R> mapper) {
+        if (items.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<T> itemList = items instanceof RandomAccess ? (List<T>) items : new ArrayList<>(items);
+        Object[] results = new Object[itemList.size()];
+        ForkJoinPool pool = getParallelPool();
+        int threshold = Math.max(1, itemList.size() / (pool.getParallelism() * CHUNKS_PER_THREAD));
+        CallContext callContext = CallContext.getCurrent();
+        ParallelTask<T, R> task = new ParallelTask<>(itemList,
+                                                     results,
+                                                     mapper,
+                                                     callContext,
+                                                     Microtiming.timing(ParallelTask.MICROTIMING_CATEGORY,
+                                                                        callContext.get(TaskContext.class)
+                                                                                   .getSystemString()),
+                                                     0,
+                                                     itemList.size(),
+                                                     threshold);
+        try {
+            // Only run the task directly if we're already within our own pool, as otherwise it would be executed
+            // by the threads of a foreign pool (e.g. the common pool used by parallel streams).
+            if (ForkJoinTask.getPool() == pool) {
+                task.invoke();
+            } else {
+                pool.invoke(task);
+            }
+        } catch (Throwable e) {
+            throw Exceptions.handle(LOG, e);
+        }
+        List<R> result = new ArrayList<>(results.length);
+        for (Object value : results) {
+            result.add((R) value);
+        }
+        return result;
+    }
+
+    /**
+     * Invokes the given consumer for all items in parallel.
+     * <p>
+     * This call blocks until all items are processed. See {@link #parallelMap(Collection, Function)} for details.
+     * </p>
+     *
+     * @param items    the items to process
+     * @param consumer the consumer to invoke for each item. If it throws an exception for any item, the whole call
+     *                 fails.
+     * @param <T>      the type of the items
+     * @throws sirius.kernel.health.HandledException if the consumer threw an exception for any item
+     */
+    public static <T> void parallelForEach(Collection<T> items, Consumer<T> consumer) {
+        parallelMap(items, item -> {
+            consumer.accept(item);
+            return null;
+        });
+    }
+
+    /*
+     * Creates the work-stealing pool on first use. Uses async.executor.parallel.poolSize threads or one per core if
+     * no size is given.
+     */
+    private static ForkJoinPool getParallelPool() {
+        if (parallelPool == null) {
+            synchronized (executors) {
+                if (parallelPool == null) {
+                    Extension config = Extensions.getExtension("async.executor", PARALLEL);
+                    int poolSize = config.get("poolSize").asInt(0);
+                    if (poolSize <= 0) {
+                        poolSize = Runtime.getRuntime().availableProcessors();
+                    }
+                    parallelPool = new ForkJoinPool(poolSize, Async::createParallelThread, null, false);
+                }
+            }
+        }
+        return parallelPool;
+    }
+
+    /**
+     * Executes the given task in the executor of the given category once the given delay has passed.
+     * <p>
+     * The current {@link CallContext} is forked, just like {@link ExecutionBuilder#fork(Runnable)} does. All delayed
+     * and periodic tasks share a single hashed wheel timer with a resolution of 10ms, which only hands due tasks to
+     * their executor. Therefore scheduling a task is cheap, even if lots of tasks are pending. If the executor is
+     * overloaded, the task is handed to it again after a short delay.
+     * </p>
+     *
+     * @param category the category of the executor which executes the task
+     * @param delay    the time to wait before the task is executed
+     * @param task     the task to execute
+     * @return a handle which can be used to cancel the task
+     */
+    public static ScheduledTask schedule(String category, Duration delay, Runnable task) {
+        return schedule(new ScheduledTask(category,
+                                          task,
+                                          CallContext.getCurrent(),
+                                          System.nanoTime() + delay.toNanos(),
+                                          0));
+    }
+
+    /**
+     * Executes the given task periodically in the executor of the given category.
+     * <p>
+     * Each execution starts with a new {@link CallContext}. The task is handed to its executor every
+     * <tt>period</tt>, no matter how long the previous execution took. Executions which cannot be started in time
+     * (e.g. due to a long GC pause or as the executor is overloaded) are skipped.
+     * </p>
+     *
+     * @param category     the category of the executor which executes the task
+     * @param initialDelay the time to wait before the task is executed for the first time
+     * @param period       the time between two executions
+     * @param task         the task to execute
+     * @return a handle which can be used to stop the periodic execution
+     */
+    public static ScheduledTask scheduleAtFixedRate(String category,
+                                                    Duration initialDelay,
+                                                    Duration period,
+                                                    Runnable task) {
+        if (period.isNegative() || period.isZero()) {
+            throw new IllegalArgumentException("period must be positive");
+        }
+        return schedule(new ScheduledTask(category,
+                                          task,
+                                          null,
+                                          System.nanoTime() + initialDelay.toNanos(),
+                                          period.toNanos()));
+    }
+
+    /*
+     * Executes the given handler in the timer thread itself (used by Promise.withTimeout and Batcher). Therefore
+     * the handler must be short and must never block.
+     */
+    static ScheduledTask scheduleTimeout(Runnable handler, long timeout, TimeUnit unit) {
+        return schedule(new ScheduledTask(null, handler, null, System.nanoTime() + unit.toNanos(timeout), 0));
+    }
+
+    /*
+     * Hands the given task to the timer. This is also used by ScheduledTask to retry a task which was dropped
+     */
+    static ScheduledTask schedule(ScheduledTask task) {
+        getTimer().schedule(task);
+        return task;
+    }
+
+    private static WheelTimer getTimer() {
+        if (timer == null) {
+            synchronized (executors) {
+                if (timer == null) {
+                    timer = new WheelTimer();
+                }
+            }
+        }
+        return timer;
+    }
+
+    /**
+     * Returns the number of tasks scheduled via {@link #schedule(String, Duration, Runnable)} or
+     * {@link #scheduleAtFixedRate(String, Duration, Duration, Runnable)} which are not executed yet.
+     *
+     * @return the number of pending scheduled tasks
+     */
+    public static int getNumScheduledTasks() {
+        WheelTimer currentTimer = timer;
+        return currentTimer == null ? 0 : currentTimer.getNumScheduled();
+    }
+
+    private static ForkJoinWorkerThread createParallelThread(ForkJoinPool pool) {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName(PARALLEL + "-" + thread.getPoolIndex());
+        return thread;
+    }
+
     /**
      * Creates a new promise of the given type.
      *
@@ -187,48 +417,29 @@ public class Async {
      * @return the promise which will complete if all promises completed or if at least on failed.
      */
     public static <V> Promise<List<V>> sequence(List<Promise<V>> list) {
-        final Promise<List<V>> result = promise();
-
-        // Create a list with the correct length
-        final List<V> resultList = new ArrayList<V>();
-        for (int i = 0; i < list.size(); i++) {
-            resultList.add(null);
-        }
-
-        // Keep track when we're finished
-        final CountDownLatch latch = new CountDownLatch(list.size());
-
-        // Iterate over all promises and create a completion handler, which either forwards a failure or which placesy
-        // a successfully computed in the created result list
-        int index = 0;
-        for (Promise<V> promise : list) {
-            final int currentIndex = index;
-            promise.onComplete(new CompletionHandler<V>() {
-                @Override
-                public void onSuccess(V value) throws Exception {
-                    if (!result.isFailed()) {
-                        // onSuccess can be called from any thread -> sync on resultList...
-                        synchronized (resultList) {
-                            resultList.set(currentIndex, value);
-                        }
-
-                        // Keep track how many results we're waiting for and forward the result when we're finished.
-                        latch.countDown();
-                        if (latch.getCount() <= 0) {
-                            result.success(resultList);
-                        }
-                    }
-                }
-
-                @Override
-                public void onFailure(Throwable throwable) throws Exception {
-                    result.fail(throwable);
-                }
-            });
-            index++;
-        }
+        return Promise.allOf(list);
+    }
 
-        return result;
+    /**
+     * Creates a batcher which collects items and processes them in batches using the executor of the given category.
+     * <p>
+     * This is useful for high frequency events which are each cheap to submit but expensive to process one by one,
+     * like writes which can be combined into a single bulk request. See {@link Batcher} for details.
+     * </p>
+     *
+     * @param category the category of the executor which processes the batches
+     * @param maxBatch the max number of items passed to the consumer at once. Once this number of items is pending,
+     *                 they are processed immediately.
+     * @param maxDelay the max time an item waits for more items to arrive before it is processed
+     * @param consumer the consumer which processes each batch
+     * @param <T>      the type of items to process
+     * @return a new batcher which can be used to submit items
+     */
+    public static <T> Batcher<T> batcher(String category,
+                                         int maxBatch,
+                                         Duration maxDelay,
+                                         Consumer<List<T>> consumer) {
+        return new Batcher<>(category, maxBatch, maxDelay.toMillis(), consumer);
     }
 
     /**
@@ -272,6 +483,15 @@ public class Async {
             for (AsyncExecutor exec : executors.values()) {
                 exec.shutdown();
             }
+            if (parallelPool != null) {
+                parallelPool.shutdown();
+            }
+            synchronized (executors) {
+                if (timer != null) {
+                    timer.stop();
+                    timer = null;
+                }
+            }
         }
 
         @Override
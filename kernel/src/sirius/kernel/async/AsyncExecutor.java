@@ -11,8 +11,11 @@ package sirius.kernel.async;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import sirius.kernel.commons.Strings;
 import sirius.kernel.health.Exceptions;
+import sirius.kernel.health.Histogram;
 
+import javax.annotation.Nullable;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Represents an executor used by sirius to schedule background tasks.
@@ -20,6 +23,24 @@ import java.util.concurrent.*;
  * Instances of this class are created and managed by {@link Async}. This class is only made public so it can be
  * accessed for statistical reasons like ({@link #getBlocked()} or {@link #getDropped()}.
  * </p>
+ * <p>
+ * An executor either uses a fixed number of threads along with a queue, or it starts a new virtual thread per task
+ * (up to a given limit) if <tt>virtualThreads</tt> is enabled for its category. As virtual threads require Java 21,
+ * such categories use a fixed number of threads along with a queue on older JVMs.
+ * </p>
+ * <p>
+ * For each executor, the time tasks wait in the queue is recorded. If <tt>adaptive</tt> is enabled for its category,
+ * the number of threads is adjusted between <tt>minPoolSize</tt> and <tt>maxPoolSize</tt> based on these wait
+ * times. Additionally new tasks which can be dropped (see {@link ExecutionBuilder#dropOnOverload(Runnable)}) are
+ * rejected early, once the queue wait stayed above <tt>targetQueueWait</tt> for a whole <tt>adaptionInterval</tt>
+ * (similar to CoDel). This happens even if the queue is not full yet and keeps the latency of an overloaded executor
+ * bounded. All other tasks are still queued, as executing them in the caller would block it. Once the queue is
+ * drained or a task waited less than the target, droppable tasks are accepted again.
+ * </p>
+ * <p>
+ * Queued tasks are started by their priority and then in the order they were submitted. Tasks whose deadline passed
+ * while they were queued, are skipped (see {@link ExecutionBuilder#deadline(long, TimeUnit)}).
+ * </p>
  *
  * @author Andreas Haufler (aha@scireum.de)
  * @since 2013/08
@@ -28,31 +49,230 @@ public class AsyncExecutor extends ThreadPoolExecutor implements RejectedExecuti
 
     private ThreadPoolExecutor executor;
     private String category;
-    private int blocked;
-    private int dropped;
+    private final AtomicLong blocked = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong shed = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private boolean virtual;
+    private final Histogram queueWaits = new Histogram();
+    private final Histogram executionTimes = new Histogram();
+
+    /*
+     * Settings and state of the adaptive mode (see class comment)
+     */
+    private boolean adaptive;
+    private int minPoolSize;
+    private int maxPoolSize;
+    private long targetQueueWait;
+    private long adaptionInterval;
+    private volatile boolean overloaded;
+    private volatile long firstAboveTarget;
+    private final AtomicLong nextAdaption = new AtomicLong();
+    private final AtomicLong maxQueueWait = new AtomicLong();
 
     AsyncExecutor(String category, int poolSize, int queueLength) {
         super(poolSize,
               poolSize,
               10L,
               TimeUnit.SECONDS,
-              queueLength > 0 ? new LinkedBlockingQueue<>(queueLength) : new LinkedBlockingQueue<>());
+              new TaskQueue(queueLength));
         this.category = category;
         setThreadFactory(new ThreadFactoryBuilder().setNameFormat(category + "-%d").build());
         setRejectedExecutionHandler(this);
     }
 
+    /*
+     * Orders queued tasks by their priority (descending) and then by the order they were submitted. Rejects new tasks
+     * once the given capacity is reached (if > 0). Inserts are synchronized so that concurrent submissions cannot
+     * exceed the capacity. As tasks are only removed otherwise, this doesn't block the worker threads.
+     */
+    private static class TaskQueue extends PriorityBlockingQueue<Runnable> {
+
+        private static final long serialVersionUID = 5218460290271489432L;
+        private final int capacity;
+
+        TaskQueue(int capacity) {
+            super(11, AsyncExecutor::compareTasks);
+            this.capacity = capacity;
+        }
+
+        @Override
+        public synchronized boolean offer(Runnable runnable) {
+            if (capacity > 0 && size() >= capacity) {
+                return false;
+            }
+            return super.offer(runnable);
+        }
+
+        @Override
+        public int remainingCapacity() {
+            return capacity > 0 ? Math.max(0, capacity - size()) : Integer.MAX_VALUE;
+        }
+    }
+
+    private static int compareTasks(Runnable a, Runnable b) {
+        if (!(a instanceof ExecutionBuilder.TaskWrapper) || !(b instanceof ExecutionBuilder.TaskWrapper)) {
+            return 0;
+        }
+        ExecutionBuilder.TaskWrapper left = (ExecutionBuilder.TaskWrapper) a;
+        ExecutionBuilder.TaskWrapper right = (ExecutionBuilder.TaskWrapper) b;
+        if (left.priority != right.priority) {
+            return Integer.compare(right.priority, left.priority);
+        }
+        return Long.compare(left.sequence, right.sequence);
+    }
+
+    /*
+     * Creates an executor which hands each task directly to a new thread created by the given factory. Once
+     * maxConcurrency tasks are running, further tasks are blocked or dropped just like for a full queue.
+     */
+    private AsyncExecutor(String category, int maxConcurrency, ThreadFactory virtualThreadFactory) {
+        super(0, maxConcurrency, 10L, TimeUnit.SECONDS, new SynchronousQueue<>());
+        this.category = category;
+        this.virtual = true;
+        setThreadFactory(virtualThreadFactory);
+        setRejectedExecutionHandler(this);
+    }
+
+    /*
+     * Enables the adaptive mode (see class comment).
+     */
+    void enableAdaptiveSizing(int minPoolSize, int maxPoolSize, long targetQueueWaitMillis, long intervalMillis) {
+        this.minPoolSize = Math.max(1, minPoolSize);
+        this.maxPoolSize = Math.max(this.minPoolSize, maxPoolSize);
+        this.targetQueueWait = TimeUnit.MILLISECONDS.toNanos(Math.max(1, targetQueueWaitMillis));
+        this.adaptionInterval = TimeUnit.MILLISECONDS.toNanos(Math.max(1, intervalMillis));
+        setMaximumPoolSize(Math.max(this.maxPoolSize, getCorePoolSize()));
+        setCorePoolSize(this.minPoolSize);
+        setMaximumPoolSize(this.maxPoolSize);
+        allowCoreThreadTimeOut(true);
+        this.adaptive = true;
+    }
+
+    /*
+     * Creates an executor which starts a virtual thread per task (see class comment). Returns null if the JVM
+     * doesn't support virtual threads.
+     */
+    @Nullable
+    static AsyncExecutor createVirtual(String category, int maxConcurrency) {
+        ThreadFactory virtualThreadFactory = createVirtualThreadFactory(category);
+        if (virtualThreadFactory == null) {
+            return null;
+        }
+        return new AsyncExecutor(category, maxConcurrency, virtualThreadFactory);
+    }
+
+    /*
+     * Creates a factory for virtual threads (Thread.ofVirtual().name(category + "-", 0).factory()) via reflection,
+     * as this is only available in Java 21 and later.
+     */
+    @Nullable
+    private static ThreadFactory createVirtualThreadFactory(String category) {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, category + "-", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            Exceptions.ignore(e);
+            return null;
+        }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (overloaded) {
+            if (getQueue().isEmpty()) {
+                overloaded = false;
+            } else if (isDroppable(command)) {
+                shed.incrementAndGet();
+                rejectedExecution(command, this);
+                return;
+            }
+        }
+        super.execute(command);
+    }
+
+    private boolean isDroppable(Runnable command) {
+        return command instanceof ExecutionBuilder.TaskWrapper
+               && ((ExecutionBuilder.TaskWrapper) command).dropHandler != null;
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+        super.beforeExecute(t, r);
+        if (!(r instanceof ExecutionBuilder.TaskWrapper)) {
+            return;
+        }
+        ExecutionBuilder.TaskWrapper wrapper = (ExecutionBuilder.TaskWrapper) r;
+        long now = System.nanoTime();
+        wrapper.started = now;
+        long queueWait = now - wrapper.submitted;
+        queueWaits.addValue(TimeUnit.NANOSECONDS.toMillis(queueWait));
+        if (adaptive) {
+            updateOverloadState(queueWait, now);
+            adaptPoolSize(queueWait, now);
+        }
+    }
+
+    /*
+     * Marks the executor as overloaded, once the queue wait was above the target for a whole interval
+     */
+    private void updateOverloadState(long queueWait, long now) {
+        if (queueWait < targetQueueWait) {
+            firstAboveTarget = 0;
+            overloaded = false;
+        } else if (firstAboveTarget == 0) {
+            firstAboveTarget = now + adaptionInterval;
+        } else if (now >= firstAboveTarget) {
+            overloaded = true;
+        }
+    }
+
+    /*
+     * Once per interval: Grows the pool if tasks had to wait noticeably, or shrinks it if the pool is mostly idle
+     */
+    private void adaptPoolSize(long queueWait, long now) {
+        maxQueueWait.accumulateAndGet(queueWait, Math::max);
+        long next = nextAdaption.get();
+        if (now < next || !nextAdaption.compareAndSet(next, now + adaptionInterval)) {
+            return;
+        }
+        long maxWait = maxQueueWait.getAndSet(0);
+        int poolSize = getCorePoolSize();
+        if (maxWait > targetQueueWait / 2 && poolSize < maxPoolSize) {
+            setCorePoolSize(Math.min(maxPoolSize, poolSize + Math.max(1, poolSize / 4)));
+        } else if (maxWait < targetQueueWait / 10 && poolSize > minPoolSize && getActiveCount() < poolSize / 2) {
+            setCorePoolSize(poolSize - 1);
+        }
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t) {
+        super.afterExecute(r, t);
+        if (!(r instanceof ExecutionBuilder.TaskWrapper)) {
+            return;
+        }
+        ExecutionBuilder.TaskWrapper wrapper = (ExecutionBuilder.TaskWrapper) r;
+        if (wrapper.expired) {
+            expired.incrementAndGet();
+        } else {
+            executionTimes.addValue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - wrapper.started));
+        }
+    }
+
     @Override
     public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
         try {
             ExecutionBuilder.TaskWrapper wrapper = (ExecutionBuilder.TaskWrapper) r;
             if (wrapper.dropHandler != null) {
                 wrapper.dropHandler.run();
-                wrapper.promise.fail(new RejectedExecutionException());
-                dropped++;
+                // The drop handler already took care of the rejection, therefore this is not logged as error
+                wrapper.promise.failQuietly(new RejectedExecutionException());
+                dropped.incrementAndGet();
             } else {
                 wrapper.run();
-                blocked++;
+                blocked.incrementAndGet();
             }
         } catch (Throwable t) {
             Exceptions.handle(Async.LOG, t);
@@ -61,13 +281,19 @@ public class AsyncExecutor extends ThreadPoolExecutor implements RejectedExecuti
 
     @Override
     public String toString() {
-        return Strings.apply("%s - Active: %d, Queued: %d, Executed: %d, Blocked: %d, Rejected: %d",
-                             category,
-                             getActiveCount(),
-                             getQueue().size(),
-                             getCompletedTaskCount(),
-                             blocked,
-                             dropped);
+        return Strings.apply(
+                "%s%s - Active: %d, Queued: %d, Executed: %d, Blocked: %d, Rejected: %d, Shed: %d, Expired: %d, "
+                + "Wait (95%%): %1.2f ms",
+                category,
+                virtual ? " (virtual)" : "",
+                getActiveCount(),
+                getQueue().size(),
+                getCompletedTaskCount(),
+                blocked.get(),
+                dropped.get(),
+                shed.get(),
+                expired.get(),
+                getQueueWait(95));
     }
 
     /**
@@ -79,6 +305,15 @@ public class AsyncExecutor extends ThreadPoolExecutor implements RejectedExecuti
         return category;
     }
 
+    /**
+     * Determines if this executor runs its tasks on virtual threads.
+     *
+     * @return <tt>true</tt> if a virtual thread is started per task, <tt>false</tt> if platform threads are used
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
     /**
      * The number of tasks which were executed by blocking the caller due to system overload conditions.
      * <p>
@@ -87,8 +322,8 @@ public class AsyncExecutor extends ThreadPoolExecutor implements RejectedExecuti
      *
      * @return the number of blocking task executions so far.
      */
-    public int getBlocked() {
-        return blocked;
+    public long getBlocked() {
+        return blocked.get();
     }
 
     /**
@@ -101,7 +336,86 @@ public class AsyncExecutor extends ThreadPoolExecutor implements RejectedExecuti
      *
      * @return the number of dropped tasks so far.
      */
-    public int getDropped() {
-        return dropped;
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * The number of tasks rejected early, as the executor was overloaded.
+     * <p>
+     * This only happens in adaptive mode and only for tasks which have a <tt>dropHandler</tt>. Each of these tasks is
+     * also counted as dropped.
+     * </p>
+     *
+     * @return the number of tasks which were not queued as the queue wait exceeded its target
+     */
+    public long getShed() {
+        return shed.get();
+    }
+
+    /**
+     * The number of tasks skipped as their deadline passed while they were queued.
+     *
+     * @return the number of tasks which expired in the queue of this executor
+     */
+    public long getExpired() {
+        return expired.get();
+    }
+
+    /**
+     * Determines if this executor adapts its pool size and sheds load based on the queue wait.
+     *
+     * @return <tt>true</tt> if the adaptive mode is enabled, <tt>false</tt> otherwise
+     */
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * Returns the given percentile of the time recently executed tasks waited in the queue.
+     * <p>
+     * Recent tasks are the ones started since the histogram was last reset by the metrics collector
+     * (see {@link #getQueueWaits()}).
+     * </p>
+     *
+     * @param percentile the percentile to compute (like 50, 95 or 99)
+     * @return the queue wait in milliseconds which was not exceeded by the given percentage of recent tasks
+     */
+    public double getQueueWait(double percentile) {
+        return queueWaits.getSnapshot().getPercentile(percentile);
+    }
+
+    /**
+     * Returns the given percentile of the execution time of recently executed tasks.
+     * <p>
+     * Tasks which were executed by the caller, as the executor was overloaded, are not included.
+     * </p>
+     *
+     * @param percentile the percentile to compute (like 50, 95 or 99)
+     * @return the execution time in milliseconds which was not exceeded by the given percentage of recent tasks
+     */
+    public double getExecutionTime(double percentile) {
+        return executionTimes.getSnapshot().getPercentile(percentile);
+    }
+
+    /**
+     * Returns the histogram which records the time (in milliseconds) each task waited in the queue.
+     *
+     * @return the distribution of the queue wait of all tasks started by this executor
+     */
+    public Histogram getQueueWaits() {
+        return queueWaits;
+    }
+
+    /**
+     * Returns the histogram which records the execution time (in milliseconds) of each task.
+     * <p>
+     * Tasks which were executed by the caller, as the executor was overloaded, are not included.
+     * </p>
+     *
+     * @return the distribution of the execution time of all tasks executed by this executor
+     */
+    public Histogram getExecutionTimes() {
+        return executionTimes;
     }
 }
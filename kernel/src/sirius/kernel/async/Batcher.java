@@ -0,0 +1,197 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.kernel.async;
+
+import com.google.common.collect.Lists;
+import sirius.kernel.health.Exceptions;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Collects small work items and processes them in batches.
+ * <p>
+ * Instances are created via {@link Async#batcher(String, int, java.time.Duration, java.util.function.Consumer)}.
+ * Submitted items are buffered and handed to the consumer in batches of at most <tt>maxBatch</tt> items. A batch is
+ * processed by the executor of the given category, either once <tt>maxBatch</tt> items are pending or once the
+ * oldest pending item waited for <tt>maxDelay</tt>. At most one batch is processed at a time, therefore the
+ * consumer does not need to be thread-safe and sees all items in the order they were submitted.
+ * </p>
+ * <p>
+ * The buffer holds up to ten batches. If it is full, {@link #submit(Object)} processes a batch in the calling thread
+ * before its item is accepted. This slows down producers which are faster than the consumer, just like a full queue
+ * of an executor does. Producers which must not be blocked (e.g. as they run within a request) can use
+ * {@link #offer(Object)}, which rejects the item instead, so that the producer can fall back to a coarser item.
+ * </p>
+ *
+ * @param <T> the type of items being processed
+ * @author Andreas Haufler (aha@scireum.de)
+ * @since 2014/11
+ */
+public class Batcher<T> {
+
+    private static final int BUFFERED_BATCHES = 10;
+
+    private final String category;
+    private final int maxBatch;
+    private final long maxDelayMillis;
+    private final Consumer<List<T>> consumer;
+    private final LinkedBlockingQueue<T> buffer;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    /*
+     * Held while a batch is processed. This is not a lock, as it is acquired by the submitting thread and released
+     * by the executor
+     */
+    private final Semaphore processing = new Semaphore(1);
+
+    Batcher(String category, int maxBatch, long maxDelayMillis, Consumer<List<T>> consumer) {
+        this.category = category;
+        this.maxBatch = Math.max(1, maxBatch);
+        this.maxDelayMillis = Math.max(0, maxDelayMillis);
+        this.consumer = consumer;
+        this.buffer = new LinkedBlockingQueue<>(this.maxBatch * BUFFERED_BATCHES);
+    }
+
+    /**
+     * Adds an item to be processed with the next batch.
+     * <p>
+     * If the buffer is full, a batch is processed by the calling thread.
+     * </p>
+     *
+     * @param item the item to process
+     */
+    public void submit(@Nonnull T item) {
+        while (!buffer.offer(item)) {
+            processInCaller();
+        }
+        if (buffer.size() >= maxBatch) {
+            processAsync();
+        } else {
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Adds an item to be processed with the next batch, unless the buffer is full.
+     * <p>
+     * In contrast to {@link #submit(Object)} this never blocks the caller. If the item is rejected, a batch is
+     * already being processed or scheduled, as the buffer is only full while items are pending.
+     * </p>
+     *
+     * @param item the item to process
+     * @return <tt>true</tt> if the item was accepted, <tt>false</tt> if the buffer is full
+     */
+    public boolean offer(@Nonnull T item) {
+        if (!buffer.offer(item)) {
+            return false;
+        }
+        if (buffer.size() >= maxBatch) {
+            processAsync();
+        } else {
+            scheduleFlush();
+        }
+        return true;
+    }
+
+    /**
+     * Processes all pending items in the calling thread.
+     * <p>
+     * This can be used on shutdown to make sure that no items are lost.
+     * </p>
+     */
+    public void flush() {
+        while (!buffer.isEmpty()) {
+            processInCaller();
+        }
+    }
+
+    /**
+     * Returns the number of items waiting to be processed.
+     *
+     * @return the number of buffered items
+     */
+    public int getPending() {
+        return buffer.size();
+    }
+
+    /*
+     * Starts processing after maxDelay, unless this is already scheduled
+     */
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            Async.scheduleTimeout(() -> {
+                flushScheduled.set(false);
+                processAsync();
+            }, maxDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /*
+     * Processes all pending batches in the executor, unless this is already in progress
+     */
+    private void processAsync() {
+        if (!processing.tryAcquire()) {
+            return;
+        }
+        Async.executor(category).start(this::processPending).dropOnOverload(() -> {
+            processing.release();
+            scheduleFlush();
+        }).execute();
+    }
+
+    private void processPending() {
+        try {
+            while (!buffer.isEmpty()) {
+                processBatch();
+            }
+        } finally {
+            processing.release();
+        }
+        // Items might have been added after the loop above exited but before processing was reset
+        if (!buffer.isEmpty()) {
+            scheduleFlush();
+        }
+    }
+
+    /*
+     * Waits until a running batch is completed and then processes one batch in the calling thread
+     */
+    private void processInCaller() {
+        processing.acquireUninterruptibly();
+        try {
+            processBatch();
+        } finally {
+            processing.release();
+        }
+    }
+
+    private void processBatch() {
+        List<T> batch = Lists.newArrayListWithCapacity(Math.min(buffer.size(), maxBatch));
+        buffer.drainTo(batch, maxBatch);
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            consumer.accept(batch);
+        } catch (Throwable e) {
+            Exceptions.handle(Async.LOG, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return category + " - Pending: " + buffer.size();
+    }
+}
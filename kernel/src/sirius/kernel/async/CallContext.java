@@ -8,7 +8,7 @@
 
 package sirius.kernel.async;
 
-import com.google.common.collect.Maps;
+import com.google.common.collect.MapMaker;
 import org.apache.log4j.MDC;
 import sirius.kernel.Sirius;
 import sirius.kernel.commons.Strings;
@@ -24,7 +24,14 @@ import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.util.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * A CallContext is attached to each thread managed by sirius.
@@ -40,6 +47,12 @@ import java.util.*;
  * can be passed along, without having to provide a method parameter for each value. Since sub-contexts can be of any
  * type, this concept can be enhanced by additional frameworks or application programs.
  * </p>
+ * <p>
+ * As a context is created for each request and each task, it is kept as small as possible: The MDC is stored in
+ * two small arrays instead of a map, sub-contexts are only allocated once requested and the flow-id is only formatted
+ * once it is read. Installing or detaching a context only touches a per-thread holder, which is registered once per
+ * thread in a concurrent map so that {@link #getMDC(long)} can inspect the contexts of other threads.
+ * </p>
  *
  * @author Andreas Haufler (aha@scireum.de)
  * @since 2013/08
@@ -49,13 +62,64 @@ public class CallContext {
 
     /**
      * Name of the flow variable in the MDC.
+     * <p>
+     * The flow-id has the form <tt>node/thread-sequence</tt> (e.g. <tt>node1/42-17</tt>): The id of the thread
+     * which created the context, followed by a sequence per thread. Note that earlier versions used a global number
+     * (<tt>node/number</tt>), therefore tools which parse flow-ids must not expect a number after the node name.
+     * </p>
      */
     public static final String MDC_FLOW = "flow";
-    private static ThreadLocal<CallContext> currentContext = new ThreadLocal<>();
-    private static Map<Long, Map<String, String>> mdcMap = Maps.newConcurrentMap();
+
+    /*
+     * Number of MDC entries a context can store before its arrays have to be grown. This covers all variables set by
+     * the framework itself (flow, uri, route, controller, scope, user...)
+     */
+    private static final int MDC_SLOTS = 8;
+
+    /*
+     * Number of sub-contexts a context can store before its arrays have to be grown
+     */
+    private static final int SUB_CONTEXT_SLOTS = 4;
+
+    /*
+     * Keeps the context of each thread. The holder is registered once per thread, so that installing or detaching a
+     * context doesn't have to touch any shared data structure.
+     */
+    private static ThreadLocal<ContextHolder> currentContext = new ThreadLocal<ContextHolder>() {
+        @Override
+        protected ContextHolder initialValue() {
+            ContextHolder holder = new ContextHolder(Thread.currentThread().getId());
+            holders.put(holder.threadId, holder);
+            return holder;
+        }
+    };
+
+    /*
+     * Provides the holder of each thread by its id (used by getMDC(long)). As a holder is only referenced by the
+     * thread local of its thread otherwise, entries are removed once their thread terminated. Being a concurrent map,
+     * registering a new thread doesn't need a global lock.
+     */
+    private static final ConcurrentMap<Long, ContextHolder> holders = new MapMaker().weakValues().makeMap();
     private static String nodeName = null;
     private static Counter interactionCounter = new Counter();
 
+    /*
+     * The context installed for a thread. This is only written by the thread itself and only read by other threads
+     * for diagnostic purposes, therefore it doesn't need to be volatile.
+     * <p>
+     * The holder also generates the flow-ids of all contexts created by its thread. Combining the thread id with a
+     * per-thread sequence yields unique ids without incrementing a shared counter.
+     */
+    private static class ContextHolder {
+        private final long threadId;
+        private long flowSequence;
+        private CallContext context;
+
+        private ContextHolder(long threadId) {
+            this.threadId = threadId;
+        }
+    }
+
     /**
      * Returns the name of this computation node.
      * <p>
@@ -94,7 +158,7 @@ public class CallContext {
      */
     @Nonnull
     public static CallContext getCurrent() {
-        CallContext result = currentContext.get();
+        CallContext result = currentContext.get().context;
         if (result == null) {
             return initialize();
         }
@@ -112,19 +176,7 @@ public class CallContext {
      */
     @Nullable
     public static CallContext getCurrentIfAvailable() {
-        return currentContext.get();
-    }
-
-    /*
-     * Initializes a new context, either with a new flow-id or with the given one.
-     */
-    private static CallContext initialize(String externalFlowId) {
-        CallContext ctx = new CallContext();
-        ctx.addToMDC(MDC_FLOW, externalFlowId);
-        ctx.setLang(NLS.getDefaultLanguage());
-        interactionCounter.inc();
-        setCurrent(ctx);
-        return ctx;
+        return currentContext.get().context;
     }
 
     /**
@@ -149,7 +201,11 @@ public class CallContext {
      * @return the newly created CallContext, which is already attached to the current thread.
      */
     public static CallContext initialize() {
-        return initialize(getNodeName() + "/" + interactionCounter.getCount());
+        interactionCounter.inc();
+        ContextHolder holder = currentContext.get();
+        CallContext ctx = new CallContext(holder.threadId, ++holder.flowSequence);
+        holder.context = ctx;
+        return ctx;
     }
 
     /**
@@ -158,23 +214,68 @@ public class CallContext {
      * @param context the context to use for the current thread.
      */
     public static void setCurrent(CallContext context) {
-        currentContext.set(context);
-        mdcMap.put(Thread.currentThread().getId(), context.mdc);
+        currentContext.get().context = context;
     }
 
     /**
      * Detaches this CallContext from the current thread
      */
     public static void detach() {
-        currentContext.set(null);
-        mdcMap.remove(Thread.currentThread().getId());
+        currentContext.get().context = null;
     }
 
-    private Map<String, String> mdc = new LinkedHashMap<String, String>();
-    private Map<Class<?>, Object> subContext = new HashMap<>();
+    /*
+     * The MDC is stored as two parallel arrays, as it only contains a handful of entries. The first entry is always
+     * the flow-id, whose value is null until it is first read, as formatting it is only required if the MDC is
+     * actually used.
+     */
+    private String[] mdcKeys = new String[MDC_SLOTS];
+    private String[] mdcValues = new String[MDC_SLOTS];
+    private int mdcSize;
+    private final long flowThread;
+    private final long flowNumber;
+    private String flowId;
+
+    /*
+     * Sub-contexts are only allocated once the first one is requested
+     */
+    private Class<?>[] subContextTypes;
+    private Object[] subContexts;
+    private int numSubContexts;
+
     private Watch watch = Watch.start();
     private String lang = NLS.getDefaultLanguage();
 
+    private CallContext(long flowThread, long flowNumber) {
+        this.flowThread = flowThread;
+        this.flowNumber = flowNumber;
+        mdcKeys[0] = MDC_FLOW;
+        mdcSize = 1;
+    }
+
+    /*
+     * Creates a copy of this context for a task which runs in parallel to the thread using this context (see
+     * ParallelTask). The copy has the same flow-id, watch and language and shares all sub-contexts present so far
+     * (e.g. the TaskContext, so that cancelling the task also stops the copy). As the MDC and the sub-contexts are
+     * stored in arrays of its own, the copy can be modified without synchronization. Therefore changes made to the
+     * copy are not visible in this context.
+     */
+    CallContext fork() {
+        CallContext copy = new CallContext(flowThread, flowNumber);
+        copy.mdcKeys = Arrays.copyOf(mdcKeys, mdcKeys.length);
+        copy.mdcValues = Arrays.copyOf(mdcValues, mdcValues.length);
+        copy.mdcSize = mdcSize;
+        copy.flowId = flowId;
+        if (subContextTypes != null) {
+            copy.subContextTypes = Arrays.copyOf(subContextTypes, subContextTypes.length);
+            copy.subContexts = Arrays.copyOf(subContexts, subContexts.length);
+            copy.numSubContexts = numSubContexts;
+        }
+        copy.watch = watch;
+        copy.lang = lang;
+        return copy;
+    }
+
     /**
      * Returns the mapped diagnostic context for the given thread.
      *
@@ -183,9 +284,56 @@ public class CallContext {
      */
     @Nonnull
     public static Map<String, String> getMDC(long threadId) {
-        return mdcMap.getOrDefault(threadId, Collections.emptyMap());
+        ContextHolder holder = holders.get(threadId);
+        CallContext ctx = holder == null ? null : holder.context;
+        if (ctx == null) {
+            return Collections.emptyMap();
+        }
+
+        return ctx.copyMDC();
+    }
+
+    /*
+     * Copies the MDC into a map. As this might be invoked by another thread while the MDC is modified, all entries
+     * which are not (yet) completely visible are skipped.
+     */
+    private Map<String, String> copyMDC() {
+        String[] keys = mdcKeys;
+        String[] values = mdcValues;
+        int size = Math.min(mdcSize, Math.min(keys.length, values.length));
+        Map<String, String> result = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            if (keys[i] != null) {
+                result.put(keys[i], getMDCValue(keys[i], values[i]));
+            }
+        }
+
+        return result;
+    }
+
+    /*
+     * Returns the value of an MDC entry, formatting the flow-id if necessary
+     */
+    private String getMDCValue(String key, @Nullable String value) {
+        if (value == null && MDC_FLOW.equals(key)) {
+            if (flowId == null) {
+                flowId = getNodeName() + "/" + flowThread + "-" + flowNumber;
+            }
+            return flowId;
+        }
+
+        return value == null ? "" : value;
     }
 
+    private int indexOfMDC(String key) {
+        for (int i = 0; i < mdcSize; i++) {
+            if (key.equals(mdcKeys[i])) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
 
     /**
      * Returns the current mapped diagnostic context (MDC).
@@ -193,7 +341,12 @@ public class CallContext {
      * @return a list of name-value pair representing the current mdc.
      */
     public List<Tuple<String, String>> getMDC() {
-        return Tuple.fromMap(mdc);
+        List<Tuple<String, String>> result = new ArrayList<>(mdcSize);
+        for (int i = 0; i < mdcSize; i++) {
+            result.add(Tuple.create(mdcKeys[i], getMDCValue(mdcKeys[i], mdcValues[i])));
+        }
+
+        return result;
     }
 
     /**
@@ -203,7 +356,12 @@ public class CallContext {
      * @return the value of the mapped diagnostic context.
      */
     public Value getMDCValue(String key) {
-        return Value.of(mdc.get(key));
+        int index = indexOfMDC(key);
+        if (index < 0) {
+            return Value.of(null);
+        }
+
+        return Value.of(getMDCValue(key, mdcValues[index]));
     }
 
     /**
@@ -224,7 +382,19 @@ public class CallContext {
      * @param value the value to add to the mdc.
      */
     public void addToMDC(String key, @Nullable String value) {
-        mdc.put(key, value == null ? "" : value);
+        String effectiveValue = value == null ? "" : value;
+        int index = indexOfMDC(key);
+        if (index >= 0) {
+            mdcValues[index] = effectiveValue;
+            return;
+        }
+        if (mdcSize == mdcKeys.length) {
+            mdcValues = Arrays.copyOf(mdcValues, mdcSize * 2);
+            mdcKeys = Arrays.copyOf(mdcKeys, mdcSize * 2);
+        }
+        mdcValues[mdcSize] = effectiveValue;
+        mdcKeys[mdcSize] = key;
+        mdcSize++;
     }
 
     /**
@@ -233,7 +403,15 @@ public class CallContext {
      * @param key the name of the value to remove.
      */
     public void removeFromMDC(String key) {
-        mdc.remove(key);
+        int index = indexOfMDC(key);
+        if (index < 0) {
+            return;
+        }
+        mdcSize--;
+        System.arraycopy(mdcKeys, index + 1, mdcKeys, index, mdcSize - index);
+        System.arraycopy(mdcValues, index + 1, mdcValues, index, mdcSize - index);
+        mdcKeys[mdcSize] = null;
+        mdcValues[mdcSize] = null;
     }
 
     /**
@@ -249,13 +427,15 @@ public class CallContext {
     @SuppressWarnings("unchecked")
     public <C> C get(Class<C> contextType) {
         try {
-            Object result = subContext.get(contextType);
-            if (result == null) {
-                result = contextType.newInstance();
-                subContext.put(contextType, result);
+            for (int i = 0; i < numSubContexts; i++) {
+                if (subContextTypes[i] == contextType) {
+                    return (C) subContexts[i];
+                }
             }
+            C result = contextType.newInstance();
+            set(contextType, result);
 
-            return (C) result;
+            return result;
         } catch (Throwable e) {
             throw Exceptions.handle()
                             .error(e)
@@ -276,7 +456,23 @@ public class CallContext {
      * @param instance    the instance to set
      */
     public <C> void set(Class<C> contextType, C instance) {
-        subContext.put(contextType, instance);
+        if (subContextTypes == null) {
+            subContextTypes = new Class<?>[SUB_CONTEXT_SLOTS];
+            subContexts = new Object[SUB_CONTEXT_SLOTS];
+        }
+        for (int i = 0; i < numSubContexts; i++) {
+            if (subContextTypes[i] == contextType) {
+                subContexts[i] = instance;
+                return;
+            }
+        }
+        if (numSubContexts == subContextTypes.length) {
+            subContextTypes = Arrays.copyOf(subContextTypes, numSubContexts * 2);
+            subContexts = Arrays.copyOf(subContexts, numSubContexts * 2);
+        }
+        subContextTypes[numSubContexts] = contextType;
+        subContexts[numSubContexts] = instance;
+        numSubContexts++;
     }
 
     /**
@@ -286,12 +482,14 @@ public class CallContext {
     public void applyToLog4j() {
         @SuppressWarnings("unchecked") Hashtable<String, String> ctx = MDC.getContext();
         if (ctx == null) {
-            for (Map.Entry<String, String> e : mdc.entrySet()) {
-                MDC.put(e.getKey(), e.getValue());
+            for (int i = 0; i < mdcSize; i++) {
+                MDC.put(mdcKeys[i], getMDCValue(mdcKeys[i], mdcValues[i]));
             }
         } else {
             ctx.clear();
-            ctx.putAll(mdc);
+            for (int i = 0; i < mdcSize; i++) {
+                ctx.put(mdcKeys[i], getMDCValue(mdcKeys[i], mdcValues[i]));
+            }
         }
     }
 
@@ -316,10 +514,10 @@ public class CallContext {
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        for (Map.Entry<String, String> e : mdc.entrySet()) {
-            sb.append(e.getKey());
+        for (int i = 0; i < mdcSize; i++) {
+            sb.append(mdcKeys[i]);
             sb.append(": ");
-            sb.append(e.getValue());
+            sb.append(getMDCValue(mdcKeys[i], mdcValues[i]));
             sb.append("\n");
         }
 
@@ -11,6 +11,9 @@ package sirius.kernel.async;
 import sirius.kernel.health.Exceptions;
 
 import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Builder pattern for forking or starting sub tasks.
@@ -24,6 +27,11 @@ import javax.annotation.ParametersAreNonnullByDefault;
  * to either fork the current <tt>CallContext</tt> or to start a sub task with a new one. Also a drop handler can be
  * supplied using {@link #dropOnOverload(Runnable)} to gracefully handle system overload conditions.
  * </p>
+ * <p>
+ * Using {@link #deadline(long, java.util.concurrent.TimeUnit)} a task can be skipped if it waited too long in the
+ * queue of its executor, as its result is no longer of interest. Using {@link #priority(int)}, urgent tasks can
+ * overtake others which wait in the same queue.
+ * </p>
  *
  * @author Andreas Haufler (aha@scireum.de)
  * @since 2013/08
@@ -36,17 +44,31 @@ public class ExecutionBuilder<R> {
      * ExecutionBuilder.
      */
     static class TaskWrapper implements Runnable {
+        private static final AtomicLong SEQUENCE = new AtomicLong();
+
         String category;
         Runnable runnable;
         boolean fork;
         Runnable dropHandler;
         CallContext callContext;
+        long submitted;
+        long started;
+        long timeout;
+        long deadline;
+        boolean expired;
+        int priority;
+        long sequence;
         Future promise = Async.future();
 
         /**
          * Prepares the execution of this task while checking all preconditions.
          */
         void prepare() {
+            submitted = System.nanoTime();
+            sequence = SEQUENCE.incrementAndGet();
+            if (timeout > 0) {
+                deadline = submitted + timeout;
+            }
             if (fork) {
                 callContext = CallContext.getCurrent();
             }
@@ -57,6 +79,20 @@ public class ExecutionBuilder<R> {
 
         @Override
         public void run() {
+            if (deadline != 0 && System.nanoTime() - deadline > 0) {
+                expired = true;
+                Async.LOG.FINE("Skipping a task of '%s' as its deadline passed while it was queued", category);
+                promise.failQuietly(new TimeoutException("The deadline of the task passed before it was started"));
+                // The caller might wait for a response (e.g. an HTTP request), therefore the drop handler is informed
+                if (dropHandler != null) {
+                    try {
+                        dropHandler.run();
+                    } catch (Throwable t) {
+                        Exceptions.handle(Async.LOG, t);
+                    }
+                }
+                return;
+            }
             try {
                 CallContext ctx = CallContext.getCurrentIfAvailable();
                 try {
@@ -134,6 +170,39 @@ public class ExecutionBuilder<R> {
         return this;
     }
 
+    /**
+     * Specifies how long the task may wait for being started.
+     * <p>
+     * If the task is still queued once the given timeout has passed, it is skipped and the returned future fails
+     * with a {@link TimeoutException}. If a drop handler is present (see {@link #dropOnOverload(Runnable)}), it is
+     * invoked as well, so that a waiting caller can be answered. As this is an expected outcome, the failure is only
+     * logged as <tt>FINE</tt>.
+     * </p>
+     *
+     * @param timeout the max time the task may wait in the queue. A value less or equal to 0 specifies no deadline.
+     * @param unit    the unit of the given timeout
+     * @return this for fluent builder calls.
+     */
+    public ExecutionBuilder<R> deadline(long timeout, TimeUnit unit) {
+        wrapper.timeout = timeout > 0 ? unit.toNanos(timeout) : 0;
+        return this;
+    }
+
+    /**
+     * Specifies the priority of the task.
+     * <p>
+     * Queued tasks with a higher priority are started before others. Tasks with the same priority are started in
+     * the order they were submitted.
+     * </p>
+     *
+     * @param priority the priority of the task. The default is 0 - higher values are served first.
+     * @return this for fluent builder calls.
+     */
+    public ExecutionBuilder<R> priority(int priority) {
+        wrapper.priority = priority;
+        return this;
+    }
+
     /**
      * Creates and submits a task based on the made specifications
      *
@@ -0,0 +1,91 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.kernel.async;
+
+import sirius.kernel.health.Microtiming;
+
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
+
+/**
+ * Applies a function to a range of elements in the work-stealing pool used by
+ * {@link Async#parallelMap(java.util.Collection, java.util.function.Function)}.
+ * <p>
+ * The range is split in halves until it is smaller than the given threshold. Each leaf is processed using a fork of
+ * the <tt>CallContext</tt> of the caller. As the fork has its own MDC and sub-context slots, leaves which run in
+ * parallel don't interfere when modifying them. As the <tt>TaskContext</tt> is shared, cancelling the one of the
+ * caller still stops all remaining elements from being processed.
+ * </p>
+ *
+ * @author Andreas Haufler (aha@scireum.de)
+ * @since 2014/11
+ */
+class ParallelTask<T, R> extends RecursiveAction {
+
+    private static final long serialVersionUID = -1795428633463829640L;
+
+    /*
+     * Used as Microtiming category for the duration of each element
+     */
+    static final String MICROTIMING_CATEGORY = "PARALLEL";
+
+    private final List<T> items;
+    private final Object[] results;
+    private final Function<T, R> mapper;
+    private final CallContext callContext;
+    private final Microtiming.Timing timing;
+    private final int from;
+    private final int to;
+    private final int threshold;
+
+    ParallelTask(List<T> items,
+                 Object[] results,
+                 Function<T, R> mapper,
+                 CallContext callContext,
+                 Microtiming.Timing timing,
+                 int from,
+                 int to,
+                 int threshold) {
+        this.items = items;
+        this.results = results;
+        this.mapper = mapper;
+        this.callContext = callContext;
+        this.timing = timing;
+        this.from = from;
+        this.to = to;
+        this.threshold = threshold;
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from > threshold) {
+            int middle = (from + to) >>> 1;
+            invokeAll(new ParallelTask<>(items, results, mapper, callContext, timing, from, middle, threshold),
+                      new ParallelTask<>(items, results, mapper, callContext, timing, middle, to, threshold));
+            return;
+        }
+        CallContext previous = CallContext.getCurrentIfAvailable();
+        try {
+            CallContext.setCurrent(callContext.fork());
+            TaskContext taskContext = TaskContext.get();
+            for (int i = from; i < to && taskContext.isActive(); i++) {
+                long start = System.nanoTime();
+                results[i] = mapper.apply(items.get(i));
+                timing.submit(System.nanoTime() - start);
+            }
+        } finally {
+            if (previous == null) {
+                CallContext.detach();
+            } else {
+                CallContext.setCurrent(previous);
+            }
+        }
+    }
+}
@@ -9,7 +9,7 @@
 package sirius.kernel.async;
 
 import sirius.kernel.commons.Callback;
-import sirius.kernel.commons.ValueHolder;
+import sirius.kernel.commons.Strings;
 import sirius.kernel.health.Exceptions;
 import sirius.kernel.health.HandledException;
 import sirius.kernel.health.Log;
@@ -17,7 +17,13 @@ import sirius.kernel.health.Log;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.function.Function;
 
 /**
@@ -33,16 +39,152 @@ import java.util.function.Function;
  * or aggregated ({@link Async#sequence(java.util.List)}, {@link Barrier}) complex computations can be glued
  * together using simple components.
  * </p>
+ * <p>
+ * Multiple promises can be combined without blocking any thread using {@link #allOf(java.util.List)} or
+ * {@link #anyOf(java.util.List)}. Using {@link #withTimeout(long, java.util.concurrent.TimeUnit)} and
+ * {@link #orElse(Object)} a computation can be bounded in time and supplied with a fallback value.
+ * </p>
+ * <p>
+ * A promise is thread-safe and can only be completed once. Each completion handler is invoked exactly once, no
+ * matter if it is added before, after or while the promise is being completed. The only exception is a successful
+ * promise which fails afterwards (e.g. as a success handler threw an exception): In this case, the failure handlers
+ * of all handlers registered so far are invoked in addition.
+ * </p>
  *
  * @author Andreas Haufler (aha@scireum.de)
  * @since 2013/08
  */
 public class Promise<V> {
 
-    private ValueHolder<V> value;
-    private Throwable failure;
-    private boolean hasFailureHandler;
-    private List<CompletionHandler<V>> handlers = new ArrayList<CompletionHandler<V>>(1);
+    /*
+     * Represents a registered handler while the promise is not completed yet. The handlers form a linked stack
+     * with the most recently added one on top.
+     */
+    private static class HandlerNode<V> {
+        final CompletionHandler<V> handler;
+        HandlerNode<V> next;
+
+        HandlerNode(CompletionHandler<V> handler) {
+            this.handler = handler;
+        }
+    }
+
+    /*
+     * Represents the outcome of a completed promise
+     */
+    private static class Completion<V> {
+        final V value;
+        final Throwable failure;
+        final boolean successful;
+
+        /*
+         * Contains the handlers notified by a successful completion, so that they can also be notified if the
+         * promise fails afterwards
+         */
+        volatile HandlerNode<V> handlers;
+
+        Completion(V value, Throwable failure, boolean successful) {
+            this.value = value;
+            this.failure = failure;
+            this.successful = successful;
+        }
+    }
+
+    /*
+     * Returned by complete() if the promise was already completed
+     */
+    @SuppressWarnings("rawtypes")
+    private static final HandlerNode ALREADY_COMPLETED = new HandlerNode<>(null);
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<Promise, Object> STATE =
+            AtomicReferenceFieldUpdater.newUpdater(Promise.class, Object.class, "state");
+
+    /*
+     * Contains either null (not completed, no handlers), a HandlerNode (not completed, handlers present) or a
+     * Completion. Once a Completion is set, the state only changes once more if a successful promise fails.
+     */
+    private volatile Object state;
+    private volatile boolean hasFailureHandler;
+
+    /**
+     * Creates a promise which is fulfilled with the values of all given promises.
+     * <p>
+     * The resulting list contains the values in the order of the given promises. If any of the given promises fails,
+     * the resulting promise fails immediately with the same error, without waiting for the others.
+     * </p>
+     *
+     * @param promises the promises to wait for
+     * @param <V>      the type of each promise
+     * @return a promise which either contains all values or the first failure of the given promises
+     */
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    public static <V> Promise<List<V>> allOf(@Nonnull List<Promise<V>> promises) {
+        final Promise<List<V>> result = new Promise<List<V>>();
+        if (promises.isEmpty()) {
+            result.success(new ArrayList<V>());
+            return result;
+        }
+        final Object[] values = new Object[promises.size()];
+        final AtomicInteger remaining = new AtomicInteger(values.length);
+        for (int i = 0; i < values.length; i++) {
+            final int index = i;
+            promises.get(i).onComplete(new CompletionHandler<V>() {
+                @Override
+                public void onSuccess(V value) throws Exception {
+                    values[index] = value;
+                    // The decrement publishes the value written above to the thread completing the result
+                    if (remaining.decrementAndGet() == 0) {
+                        result.success(new ArrayList<V>(Arrays.asList((V[]) values)));
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable throwable) throws Exception {
+                    result.fail(throwable);
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Creates a promise which is fulfilled with the value of the first given promise which completes successfully.
+     * <p>
+     * The resulting promise only fails, if all given promises fail. In this case, the last failure is reported. This
+     * can be used to send the same request to several replicas and to continue with the fastest answer.
+     * </p>
+     *
+     * @param promises the promises to wait for
+     * @param <V>      the type of each promise
+     * @return a promise which contains the first successfully computed value of the given promises
+     */
+    @Nonnull
+    public static <V> Promise<V> anyOf(@Nonnull List<Promise<V>> promises) {
+        final Promise<V> result = new Promise<V>();
+        if (promises.isEmpty()) {
+            result.fail(new IllegalArgumentException("At least one promise is required"));
+            return result;
+        }
+        final AtomicInteger remaining = new AtomicInteger(promises.size());
+        for (Promise<V> promise : promises) {
+            promise.onComplete(new CompletionHandler<V>() {
+                @Override
+                public void onSuccess(V value) throws Exception {
+                    result.success(value);
+                }
+
+                @Override
+                public void onFailure(Throwable throwable) throws Exception {
+                    if (remaining.decrementAndGet() == 0) {
+                        result.fail(throwable);
+                    }
+                }
+            });
+        }
+        return result;
+    }
 
     /**
      * Returns the value of the promise or <tt>null</tt> if not completed yet.
@@ -51,18 +193,79 @@ public class Promise<V> {
      *         the computation has not finished (or failed) yet.
      */
     public V get() {
-        return value != null ? value.get() : null;
+        Completion<V> completion = getCompletion();
+        return completion != null ? completion.value : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    private Completion<V> getCompletion() {
+        Object current = state;
+        return current instanceof Completion ? (Completion<V>) current : null;
+    }
+
+    /*
+     * Atomically sets the given completion. Returns the registered handlers in the order they were added or
+     * ALREADY_COMPLETED if the promise was already completed.
+     */
+    @SuppressWarnings("unchecked")
+    @Nullable
+    private HandlerNode<V> complete(Completion<V> completion) {
+        Object current;
+        do {
+            current = state;
+            if (current instanceof Completion) {
+                return ALREADY_COMPLETED;
+            }
+        } while (!STATE.compareAndSet(this, current, completion));
+
+        // Reverse the stack so that the handlers are notified in the order they were added
+        HandlerNode<V> node = (HandlerNode<V>) current;
+        HandlerNode<V> reversed = null;
+        while (node != null) {
+            HandlerNode<V> next = node.next;
+            node.next = reversed;
+            reversed = node;
+            node = next;
+        }
+        if (completion.successful) {
+            completion.handlers = reversed;
+        }
+        return reversed;
+    }
+
+    /*
+     * Marks a successfully completed promise as failed, keeping its value. Returns the handlers notified by the
+     * successful completion or ALREADY_COMPLETED if the promise has already failed.
+     */
+    @SuppressWarnings("unchecked")
+    @Nullable
+    private HandlerNode<V> failSuccessfulCompletion(Throwable exception) {
+        Completion<V> completion = getCompletion();
+        while (completion != null && completion.failure == null) {
+            if (STATE.compareAndSet(this, completion, new Completion<V>(completion.value, exception, true))) {
+                return completion.handlers;
+            }
+            completion = getCompletion();
+        }
+        return ALREADY_COMPLETED;
     }
 
     /**
      * Marks the promise as successful and completed with the given value.
+     * <p>
+     * A promise can only be completed once. Further calls are ignored.
+     * </p>
      *
      * @param value the value to be used as promised result.
      */
     public void success(@Nullable final V value) {
-        this.value = new ValueHolder<V>(value);
-        for (final CompletionHandler<V> handler : handlers) {
-            completeHandler(value, handler);
+        HandlerNode<V> handlers = complete(new Completion<V>(value, null, true));
+        if (handlers == ALREADY_COMPLETED) {
+            return;
+        }
+        for (HandlerNode<V> node = handlers; node != null; node = node.next) {
+            completeHandler(value, node.handler);
         }
     }
 
@@ -79,18 +282,45 @@ public class Promise<V> {
 
     /**
      * Marks the promise as failed due to the given error.
+     * <p>
+     * If the promise has already been completed successfully, it is marked as failed as well (keeping its value) and
+     * the failure handlers of all handlers registered so far are invoked. This is the case if a handler added via
+     * {@link #onSuccess(Callback)} throws an exception. If the promise has already failed, further errors are only
+     * logged as <tt>FINE</tt>.
+     * </p>
      *
      * @param exception the error to be used as reason for failure.
      */
     public void fail(@Nonnull final Throwable exception) {
-        this.failure = exception;
-        if (!hasFailureHandler) {
+        fail(exception, true);
+    }
+
+    /*
+     * Marks the promise as failed without logging the error as ERROR if no failure handler is present. This is used
+     * for expected failures, like tasks which were skipped as their deadline passed.
+     */
+    void failQuietly(@Nonnull final Throwable exception) {
+        fail(exception, false);
+    }
+
+    private void fail(final Throwable exception, boolean logUnhandled) {
+        HandlerNode<V> handlers = complete(new Completion<V>(null, exception, false));
+        if (handlers == ALREADY_COMPLETED) {
+            handlers = failSuccessfulCompletion(exception);
+        }
+        if (handlers == ALREADY_COMPLETED) {
+            if (Async.LOG.isFINE() && !(exception instanceof HandledException)) {
+                Async.LOG.FINE(Exceptions.createHandled().error(exception));
+            }
+            return;
+        }
+        if (!hasFailureHandler && logUnhandled) {
             Exceptions.handle(Async.LOG, exception);
         } else if (Async.LOG.isFINE() && !(exception instanceof HandledException)) {
             Async.LOG.FINE(Exceptions.createHandled().error(exception));
         }
-        for (final CompletionHandler<V> handler : handlers) {
-            failHandler(exception, handler);
+        for (HandlerNode<V> node = handlers; node != null; node = node.next) {
+            failHandler(exception, node.handler);
         }
     }
 
@@ -111,7 +341,7 @@ public class Promise<V> {
      * @return <tt>true</tt> if the promise has either successfully completed or failed yet, <tt>false</tt> otherwise.
      */
     public boolean isCompleted() {
-        return isFailed() || isSuccessful();
+        return state instanceof Completion;
     }
 
     /**
@@ -120,16 +350,22 @@ public class Promise<V> {
      * @return <tt>true</tt> if the promise failed, <tt>false</tt> otherwise.
      */
     public boolean isFailed() {
-        return failure != null;
+        Completion<V> completion = getCompletion();
+        return completion != null && completion.failure != null;
     }
 
     /**
      * Determines if the promise was successfully completed yet.
+     * <p>
+     * Note that a successful promise can still fail afterwards (see {@link #fail(Throwable)}). In this case, both
+     * <tt>isSuccessful</tt> and {@link #isFailed()} return <tt>true</tt>.
+     * </p>
      *
      * @return <tt>true</tt> if the promise was successfully completed, <tt>false</tt> otherwise.
      */
     public boolean isSuccessful() {
-        return value != null;
+        Completion<V> completion = getCompletion();
+        return completion != null && completion.successful;
     }
 
     /**
@@ -139,7 +375,8 @@ public class Promise<V> {
      *         completed yet.
      */
     public Throwable getFailure() {
-        return failure;
+        Completion<V> completion = getCompletion();
+        return completion != null ? completion.failure : null;
     }
 
     /**
@@ -202,6 +439,110 @@ public class Promise<V> {
         return result;
     }
 
+    /**
+     * Creates a new promise which fails with a {@link TimeoutException} if this promise does not complete in time.
+     * <p>
+     * The computation behind this promise is not cancelled, its result is simply ignored once the timeout is
+     * reached. Note that the handlers of the returned promise are invoked by a timer thread in case of a timeout
+     * and therefore must not block.
+     * </p>
+     *
+     * @param timeout the max time to wait for this promise to complete
+     * @param unit    the unit of the given timeout
+     * @return a new promise which either contains the outcome of this promise or fails with a
+     * <tt>TimeoutException</tt> once the given timeout is reached
+     */
+    @Nonnull
+    public Promise<V> withTimeout(long timeout, @Nonnull TimeUnit unit) {
+        final Promise<V> result = new Promise<V>();
+        if (isCompleted()) {
+            chain(result);
+            return result;
+        }
+        final ScheduledTask timer = Async.scheduleTimeout(() -> {
+            result.fail(new TimeoutException(Strings.apply("The promise did not complete within %d %s",
+                                                           timeout,
+                                                           unit.name().toLowerCase())));
+        }, timeout, unit);
+        onComplete(new CompletionHandler<V>() {
+            @Override
+            public void onSuccess(V value) throws Exception {
+                timer.cancel();
+                result.success(value);
+            }
+
+            @Override
+            public void onFailure(Throwable throwable) throws Exception {
+                timer.cancel();
+                result.fail(throwable);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Creates a new promise which contains the value of this promise or the given fallback if this promise fails.
+     * <p>
+     * Combined with {@link #withTimeout(long, java.util.concurrent.TimeUnit)} this can be used to use a default
+     * value for slow computations.
+     * </p>
+     *
+     * @param fallback the value to use if this promise fails
+     * @return a new promise which is always successful
+     */
+    @Nonnull
+    public Promise<V> orElse(@Nullable final V fallback) {
+        final Promise<V> result = new Promise<V>();
+        onComplete(new CompletionHandler<V>() {
+            @Override
+            public void onSuccess(V value) throws Exception {
+                result.success(value);
+            }
+
+            @Override
+            public void onFailure(Throwable throwable) throws Exception {
+                result.success(fallback);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Blocks the current thread until this promise is completed or the given timeout is reached.
+     * <p>
+     * Always prefer adding completion handlers over blocking a thread. Waiting does not count as handling a failure,
+     * so failures are still logged unless a failure handler is present.
+     * </p>
+     *
+     * @param timeout the max time to wait
+     * @param unit    the unit of the given timeout
+     * @return <tt>true</tt> if the promise is completed (successfully or failed), <tt>false</tt> if the timeout was
+     * reached or if the thread was interrupted
+     */
+    public boolean await(long timeout, @Nonnull TimeUnit unit) {
+        if (isCompleted()) {
+            return true;
+        }
+        final CountDownLatch latch = new CountDownLatch(1);
+        addHandler(new CompletionHandler<V>() {
+            @Override
+            public void onSuccess(V value) throws Exception {
+                latch.countDown();
+            }
+
+            @Override
+            public void onFailure(Throwable throwable) throws Exception {
+                latch.countDown();
+            }
+        });
+        try {
+            return latch.await(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
     /**
      * Chains this promise to the given one.
      * <p>
@@ -289,20 +630,41 @@ public class Promise<V> {
      */
     @Nonnull
     public Promise<V> onComplete(@Nonnull CompletionHandler<V> handler) {
-        if (handler != null) {
-            if (isSuccessful()) {
-                completeHandler(get(), handler);
-            } else if (isFailed()) {
-                failHandler(getFailure(), handler);
-            } else {
-                this.handlers.add(handler);
-            }
-            hasFailureHandler = true;
+        if (handler == null) {
+            return this;
         }
-
+        hasFailureHandler = true;
+        addHandler(handler);
         return this;
     }
 
+    /*
+     * Registers the given handler or invokes it immediately, if the promise is already completed
+     */
+    @SuppressWarnings("unchecked")
+    private void addHandler(CompletionHandler<V> handler) {
+        HandlerNode<V> node = null;
+        while (true) {
+            Object current = state;
+            if (current instanceof Completion) {
+                Completion<V> completion = (Completion<V>) current;
+                if (completion.successful) {
+                    completeHandler(completion.value, handler);
+                } else {
+                    failHandler(completion.failure, handler);
+                }
+                return;
+            }
+            if (node == null) {
+                node = new HandlerNode<V>(handler);
+            }
+            node.next = (HandlerNode<V>) current;
+            if (STATE.compareAndSet(this, current, node)) {
+                return;
+            }
+        }
+    }
+
     /**
      * Adds a completion handler to this promise which only handles the successful completion of the promise.
      * <p>
@@ -0,0 +1,143 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.kernel.async;
+
+import sirius.kernel.health.Exceptions;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Represents a task scheduled via {@link Async#schedule(String, java.time.Duration, Runnable)} or
+ * {@link Async#scheduleAtFixedRate(String, java.time.Duration, java.time.Duration, Runnable)}.
+ * <p>
+ * Can be used to cancel the task before it is due. A periodic task is not executed again once it is cancelled.
+ * </p>
+ *
+ * @author Andreas Haufler (aha@scireum.de)
+ * @since 2014/11
+ */
+public class ScheduledTask {
+
+    /*
+     * Delay after which a task is handed to its executor again, if it was dropped as the executor was overloaded
+     */
+    private static final long RETRY_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final String category;
+    private final Runnable runnable;
+    private final CallContext callContext;
+    private final long period;
+    private volatile boolean cancelled;
+
+    /*
+     * Maintained by the WheelTimer (only accessed by its thread once the task is scheduled)
+     */
+    long deadline;
+    long remainingRounds;
+
+    ScheduledTask(@Nullable String category,
+                  Runnable runnable,
+                  @Nullable CallContext callContext,
+                  long deadline,
+                  long period) {
+        this.category = category;
+        this.runnable = runnable;
+        this.callContext = callContext;
+        this.deadline = deadline;
+        this.period = period;
+    }
+
+    /**
+     * Cancels the task.
+     * <p>
+     * If the task is already being executed, it is not interrupted.
+     * </p>
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Determines if the task was cancelled.
+     *
+     * @return <tt>true</tt> if the task was cancelled, <tt>false</tt> otherwise
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /*
+     * Determines if the task has to be re-scheduled once it was executed
+     */
+    boolean isPeriodic() {
+        return period > 0;
+    }
+
+    long getPeriod() {
+        return period;
+    }
+
+    /*
+     * Executes the task in its executor. Tasks without category are executed by the timer thread itself.
+     */
+    void fire() {
+        if (category == null) {
+            try {
+                runnable.run();
+            } catch (Throwable e) {
+                Exceptions.handle(Async.LOG, e);
+            }
+            return;
+        }
+        if (callContext == null) {
+            submit(Async.executor(category).start(runnable));
+            return;
+        }
+        // The CallContext is forked once the task is submitted, therefore it has to be installed until then...
+        CallContext previous = CallContext.getCurrentIfAvailable();
+        try {
+            CallContext.setCurrent(callContext);
+            submit(Async.executor(category).fork(runnable));
+        } finally {
+            if (previous == null) {
+                CallContext.detach();
+            } else {
+                CallContext.setCurrent(previous);
+            }
+        }
+    }
+
+    /*
+     * The timer thread must never execute a task itself, as this would delay all other scheduled tasks. Therefore
+     * tasks are dropped if the executor is overloaded and retried later.
+     */
+    private void submit(ExecutionBuilder<?> builder) {
+        builder.dropOnOverload(this::retry).execute();
+    }
+
+    /*
+     * Invoked by the timer thread if the executor is overloaded. A periodic task skips this execution, as it is
+     * scheduled again anyway. Any other task is handed to its executor again after a short delay.
+     */
+    private void retry() {
+        if (isPeriodic() || cancelled) {
+            Async.LOG.FINE("Skipping an execution of '%s' as its executor is overloaded", this);
+            return;
+        }
+        Async.LOG.FINE("Delaying '%s' as its executor is overloaded", this);
+        deadline = System.nanoTime() + RETRY_DELAY_NANOS;
+        Async.schedule(this);
+    }
+
+    @Override
+    public String toString() {
+        return (category == null ? "inline" : category) + ": " + runnable;
+    }
+}
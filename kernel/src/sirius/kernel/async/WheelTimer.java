@@ -0,0 +1,163 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.kernel.async;
+
+import sirius.kernel.health.Exceptions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed wheel timer which executes all tasks scheduled via {@link Async}.
+ * <p>
+ * The wheel consists of a fixed number of buckets, each covering one tick. A task is put into the bucket of the
+ * tick it is due in, along with the number of full rounds the wheel has to turn until then. Therefore scheduling and
+ * cancelling a task takes constant time, independent of the number of scheduled tasks. The price is, that tasks
+ * are executed with the precision of one tick (10ms).
+ * </p>
+ * <p>
+ * New tasks are added to a lock-free queue and moved into the wheel by the timer thread itself, so that the buckets
+ * are only ever accessed by a single thread. Cancelled tasks are removed once their bucket is visited.
+ * </p>
+ *
+ * @author Andreas Haufler (aha@scireum.de)
+ * @since 2014/11
+ */
+class WheelTimer implements Runnable {
+
+    private static final int WHEEL_SIZE = 512;
+    private static final int MASK = WHEEL_SIZE - 1;
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final List<List<ScheduledTask>> wheel = new ArrayList<>(WHEEL_SIZE);
+    private final Queue<ScheduledTask> newTasks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger numScheduled = new AtomicInteger();
+    private final long startTime = System.nanoTime();
+    private final Thread thread;
+    private volatile boolean running = true;
+    private long tick;
+
+    WheelTimer() {
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel.add(new ArrayList<>());
+        }
+        thread = new Thread(this, "async-timer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /*
+     * Adds the given task, which will be moved into the wheel by the next tick
+     */
+    void schedule(ScheduledTask task) {
+        numScheduled.incrementAndGet();
+        newTasks.add(task);
+    }
+
+    /*
+     * Stops the timer thread. Pending tasks are discarded.
+     */
+    void stop() {
+        running = false;
+        thread.interrupt();
+    }
+
+    /*
+     * Returns the number of tasks which are scheduled but not executed (or discarded as cancelled) yet
+     */
+    int getNumScheduled() {
+        return numScheduled.get();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            waitForNextTick();
+            transferNewTasks();
+            expire(wheel.get((int) (tick & MASK)));
+            tick++;
+        }
+    }
+
+    private void waitForNextTick() {
+        long deadline = startTime + (tick + 1) * TICK_NANOS;
+        long now = System.nanoTime();
+        while (running && now < deadline) {
+            LockSupport.parkNanos(this, deadline - now);
+            now = System.nanoTime();
+        }
+    }
+
+    private void transferNewTasks() {
+        ScheduledTask task = newTasks.poll();
+        while (task != null) {
+            if (task.isCancelled()) {
+                numScheduled.decrementAndGet();
+            } else {
+                // The bucket of a tick is processed once the tick has ended, therefore rounding down is sufficient
+                long dueTick = Math.max(tick, (task.deadline - startTime) / TICK_NANOS);
+                task.remainingRounds = (dueTick - tick) / WHEEL_SIZE;
+                wheel.get((int) (dueTick & MASK)).add(task);
+            }
+            task = newTasks.poll();
+        }
+    }
+
+    /*
+     * Executes all tasks of the given bucket which are due in the current round and keeps all others
+     */
+    private void expire(List<ScheduledTask> bucket) {
+        if (bucket.isEmpty()) {
+            return;
+        }
+        List<ScheduledTask> due = null;
+        int kept = 0;
+        for (ScheduledTask task : bucket) {
+            if (task.isCancelled()) {
+                numScheduled.decrementAndGet();
+            } else if (task.remainingRounds > 0) {
+                task.remainingRounds--;
+                bucket.set(kept++, task);
+            } else {
+                if (due == null) {
+                    due = new ArrayList<>();
+                }
+                due.add(task);
+            }
+        }
+        bucket.subList(kept, bucket.size()).clear();
+        if (due != null) {
+            for (ScheduledTask task : due) {
+                fire(task);
+            }
+        }
+    }
+
+    private void fire(ScheduledTask task) {
+        numScheduled.decrementAndGet();
+        try {
+            task.fire();
+        } catch (Throwable e) {
+            Exceptions.handle(Async.LOG, e);
+        }
+        if (task.isPeriodic() && !task.isCancelled()) {
+            // Executions which were missed (e.g. due to a long GC pause) are skipped rather than caught up on
+            long now = System.nanoTime();
+            do {
+                task.deadline += task.getPeriod();
+            } while (task.deadline - now <= 0);
+            schedule(task);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.kernel.cache;
+
+import javax.annotation.Nonnull;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Computes the values for several keys at once if they are not found in a cache
+ * <p>
+ * Can be supplied to {@link CacheManager#createCache(String, ValueComputer, ValueVerifier)} or to
+ * {@link Cache#getAll(java.util.Collection, BatchValueComputer)} so that all values missing in the cache are loaded
+ * with a single request (like a multi-get or an <tt>IN</tt> query) instead of one request per key.
+ * </p>
+ *
+ * @author Andreas Haufler (aha@scireum.de)
+ * @since 2014/11
+ */
+public interface BatchValueComputer<K, V> extends ValueComputer<K, V> {
+
+    /**
+     * Computes the values for the given keys
+     *
+     * @param keys the keys which were not found in the cache
+     * @return a map containing the appropriate value for each key. Keys for which no value could be computed can be
+     *         absent.
+     */
+    @Nonnull
+    Map<K, V> computeAll(@Nonnull Collection<K> keys);
+
+    @Override
+    default V compute(@Nonnull K key) {
+        return computeAll(Collections.singletonList(key)).get(key);
+    }
+}
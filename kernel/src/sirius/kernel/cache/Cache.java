@@ -13,9 +13,11 @@ import sirius.kernel.commons.Tuple;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.Collection;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Provides a cache which can be used to store and access values.
@@ -52,10 +54,25 @@ public interface Cache<K, V> {
     /**
      * Returns the max size of the cache
      *
-     * @return the maximal number of cached entries
+     * @return the maximal number of cached entries. This is ignored if a max weight is set.
      */
     int getMaxSize();
 
+    /**
+     * Returns the max weight of the cache
+     *
+     * @return the maximal sum of the weights of all entries or 0 if the cache is limited by its max size
+     * @see ValueWeigher
+     */
+    long getMaxWeight();
+
+    /**
+     * Returns the current weight of the cache
+     *
+     * @return the sum of the weights of all cached entries or 0 if the cache has no {@link ValueWeigher}
+     */
+    long getWeight();
+
     /**
      * Returns the number of entries in the cache
      *
@@ -85,6 +102,56 @@ public interface Cache<K, V> {
      */
     Long getHitRate();
 
+    /**
+     * Returns the hit-rate of the on-heap tier (in percent)
+     * <p>
+     * Unless an off-heap tier is configured (via <tt>offHeapSize</tt>), this is the same as {@link #getHitRate()}.
+     * </p>
+     *
+     * @return the percentage of all reads since the last eviction, which were served from the heap
+     */
+    Long getHeapHitRate();
+
+    /**
+     * Returns the hit-rate of the off-heap tier (in percent)
+     *
+     * @return the percentage of all reads since the last eviction which missed the heap but were served from the
+     *         off-heap tier
+     */
+    Long getOffHeapHitRate();
+
+    /**
+     * Returns the number of entries in the off-heap tier
+     *
+     * @return the number of entries which were evicted from the heap and stored off-heap
+     */
+    int getOffHeapSize();
+
+    /**
+     * Returns the number of bytes used by the off-heap tier
+     *
+     * @return the number of bytes occupied by the serialized values stored off-heap
+     */
+    long getOffHeapUsage();
+
+    /**
+     * Returns the max number of bytes used by the off-heap tier
+     *
+     * @return the byte budget of the off-heap tier or 0 if no off-heap tier is configured
+     */
+    long getMaxOffHeapUsage();
+
+    /**
+     * Returns the number of lookups which waited for a value being computed by another thread.
+     * <p>
+     * If several threads request the same absent key at once, only one of them invokes the
+     * {@link ValueComputer}, the others wait for and share its result.
+     * </p>
+     *
+     * @return the number of coalesced computations since the last eviction
+     */
+    long getCoalescedComputations();
+
     /**
      * Returns the statistical values of "hit rate" for the last some eviction
      * intervals.
@@ -136,6 +203,31 @@ public interface Cache<K, V> {
     @Nullable
     V get(@Nonnull K key, @Nullable ValueComputer<K, V> computer);
 
+    /**
+     * Returns the values associated with the given keys.
+     * <p>
+     * All present entries are looked up in one pass. If the cache was created with a {@link BatchValueComputer},
+     * all missing values are computed with a single call to it. Otherwise the <tt>ValueComputer</tt> of the cache
+     * is invoked for each missing key.
+     * </p>
+     *
+     * @param keys the keys used to retrieve the values in the cache
+     * @return a map containing all keys (in the given order) for which a value was found or computed
+     */
+    @Nonnull
+    Map<K, V> getAll(@Nonnull Collection<K> keys);
+
+    /**
+     * Returns the values associated with the given keys. All values which are not found are computed by a single
+     * call to the given {@link BatchValueComputer}.
+     *
+     * @param keys     the keys used to retrieve the values in the cache
+     * @param computer the computer used to generate all values absent in the cache
+     * @return a map containing all keys (in the given order) for which a value was found or computed
+     */
+    @Nonnull
+    Map<K, V> getAll(@Nonnull Collection<K> keys, @Nullable BatchValueComputer<K, V> computer);
+
     /**
      * Stores the given key value mapping in the cache
      *
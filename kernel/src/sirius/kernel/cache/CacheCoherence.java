@@ -0,0 +1,45 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.kernel.cache;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Distributes invalidations of managed caches to other nodes of a cluster.
+ * <p>
+ * If a part implementing this interface is registered, each call to {@link Cache#remove(Object)} or
+ * {@link Cache#clear()} is forwarded to it, so that the same entries can be invalidated on all other nodes. A
+ * receiving node applies these invalidations using {@link CacheManager#removeLocally(String, java.util.Collection)} and
+ * {@link CacheManager#clearLocally(String)} which do not forward them again.
+ * </p>
+ * <p>
+ * As this is invoked for every removal, implementations should not block but rather collect and transmit the
+ * invalidations in batches.
+ * </p>
+ *
+ * @author Andreas Haufler (aha@scireum.de)
+ * @since 2014/11
+ */
+public interface CacheCoherence {
+
+    /**
+     * Invoked once an entry was removed from the given cache.
+     *
+     * @param cacheName the name of the cache
+     * @param key       the string representation of the removed key
+     */
+    void removeKey(@Nonnull String cacheName, @Nonnull String key);
+
+    /**
+     * Invoked once the given cache was cleared.
+     *
+     * @param cacheName the name of the cache
+     */
+    void clear(@Nonnull String cacheName);
+}
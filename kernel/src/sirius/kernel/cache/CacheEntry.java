@@ -52,6 +52,15 @@ public class CacheEntry<K, V> {
      * Timestamp of the next verification
      */
     protected long nextVerification;
+    /*
+     * The weight as computed by the ValueWeigher of the cache
+     */
+    protected int weight;
+    /*
+     * Links used by the ExpirationQueue of the cache (guarded by the queue)
+     */
+    CacheEntry<K, V> previousInQueue;
+    CacheEntry<K, V> nextInQueue;
 
     /**
      * Returns the number of "hits" of this entries
@@ -158,6 +167,22 @@ public class CacheEntry<K, V> {
         this.nextVerification = nextVerification;
     }
 
+    /**
+     * Returns the weight of this entry
+     *
+     * @return the weight as computed by the <tt>ValueWeigher</tt> of the cache or 0 if the cache has no weigher
+     */
+    public int getWeight() {
+        return weight;
+    }
+
+    /*
+     * Sets the weight of this entry
+     */
+    void setWeight(int weight) {
+        this.weight = weight;
+    }
+
     /**
      * Returns the key associated with this entry
      *
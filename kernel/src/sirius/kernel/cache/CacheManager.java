@@ -9,10 +9,14 @@
 package sirius.kernel.cache;
 
 import sirius.kernel.commons.ValueProvider;
+import sirius.kernel.di.std.Part;
+import sirius.kernel.health.Counter;
+import sirius.kernel.health.Exceptions;
 import sirius.kernel.health.Log;
 
-import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -25,6 +29,10 @@ import java.util.concurrent.TimeUnit;
  * Additionally instances of {@link InlineCache} can be created, which can be used to compute a single value,
  * which is then cached for a given amount of time.
  * </p>
+ * <p>
+ * If a {@link CacheCoherence} is present, all removals and clears of managed caches are forwarded to it, so that
+ * they can be applied on the other nodes of a cluster.
+ * </p>
  *
  * @author Andreas Haufler (aha@scireum.de)
  * @since 2013/08
@@ -44,9 +52,28 @@ public class CacheManager {
     protected static final Log LOG = Log.get("cache");
 
     /*
-     * Lists all known caches.
+     * Lists all known caches. As caches are mostly created lazily, this is iterated by other threads (e.g. to
+     * apply invalidations or to restore snapshots) while new caches are added.
+     */
+    private static List<Cache<?, ?>> caches = new CopyOnWriteArrayList<Cache<?, ?>>();
+
+    /*
+     * Distributes invalidations to other nodes (if present)
+     */
+    @Part
+    private static CacheCoherence coherence;
+
+    /*
+     * Restores snapshots of caches which are created after the snapshots were loaded
      */
-    private static List<Cache<?, ?>> caches = new ArrayList<Cache<?, ?>>();
+    @Part
+    private static CacheSnapshots snapshots;
+
+    /*
+     * Count the hits and (re-)computations of all inline caches
+     */
+    static final Counter inlineCacheHits = new Counter();
+    static final Counter inlineCacheRefreshes = new Counter();
 
     /**
      * Returns a list of all known caches
@@ -57,6 +84,24 @@ public class CacheManager {
         return caches;
     }
 
+    /**
+     * Returns the total number of calls to all {@link InlineCache}s which were served by the cached value.
+     *
+     * @return the number of hits of all inline caches
+     */
+    public static long getInlineCacheHits() {
+        return inlineCacheHits.getCount();
+    }
+
+    /**
+     * Returns the total number of computations performed by all {@link InlineCache}s.
+     *
+     * @return the number of times a value of an inline cache was (re-)computed
+     */
+    public static long getInlineCacheRefreshes() {
+        return inlineCacheRefreshes.getCount();
+    }
+
     /**
      * Creates a cache with the given name.
      * <p>
@@ -69,9 +114,20 @@ public class CacheManager {
      * The system config can provide the following values:
      * <ul>
      * <li><tt>maxSize</tt>: max number of entries in the cache</li>
+     * <li><tt>maxWeight</tt>: max sum of the weights of all entries (like <tt>64M</tt>). If a value greater than 0 is
+     * given, this is used instead of <tt>maxSize</tt>. This requires a <tt>ValueWeigher</tt> to be present.</li>
      * <li><tt>ttl</tt>: a duration specifying the max lifetime of a cached entry.</li>
      * <li><tt>verification</tt>: a duration specifying in which interval a verification of a value will
      * take place (if possible)</li>
+     * <li><tt>offHeapSize</tt>: the budget of direct memory (like <tt>256M</tt>) used to store entries which are
+     * evicted from the heap due to size constraints. Only serializable values are kept off-heap.</li>
+     * <li><tt>frequencyAdmission</tt>: if <tt>true</tt>, a new entry is only added to a full cache, if it is
+     * estimated to be used more frequently than the entry which would be evicted (TinyLFU). This only applies to
+     * computed values, values added via <tt>put</tt> are always stored.</li>
+     * <li><tt>serveStale</tt>: if <tt>true</tt>, outdated or unverified entries are still returned while they are
+     * recomputed or verified in the background</li>
+     * <li><tt>snapshot</tt>: if <tt>true</tt>, the contents of the cache are written to disk on shutdown and
+     * restored on the next startup (see {@link CacheSnapshots})</li>
      * </ul>
      * </p>
      *
@@ -82,16 +138,37 @@ public class CacheManager {
      * @param verifier      used to verify a value before it is returned to the user. Note that the
      *                      value is not verified each time, but in given intervals. If the verifier is <tt>null</tt>,
      *                      no verification will take place.
+     * @param weigher       used to compute the weight of each entry, if the cache is limited by a <tt>maxWeight</tt>.
+     *                      If the weigher is <tt>null</tt>, the cache is always limited by its <tt>maxSize</tt>.
      * @return a newly created cache according to the given parameters and the settings in the system config
      */
     public static <K, V> Cache<K, V> createCache(String name,
                                                  ValueComputer<K, V> valueComputer,
-                                                 ValueVerifier<V> verifier) {
-        Cache<K, V> result = new ManagedCache<K, V>(name, valueComputer, verifier);
+                                                 ValueVerifier<V> verifier,
+                                                 ValueWeigher<K, V> weigher) {
+        ManagedCache<K, V> result = new ManagedCache<K, V>(name, valueComputer, verifier, weigher);
         caches.add(result);
+        if (snapshots != null) {
+            snapshots.cacheCreated(result);
+        }
         return result;
     }
 
+    /**
+     * Creates a cache with the given name.
+     * <p>
+     * This is just a shortcut for {@link #createCache(String, ValueComputer, ValueVerifier, ValueWeigher)} without a
+     * <tt>ValueWeigher</tt>.
+     * </p>
+     *
+     * @see #createCache(String, ValueComputer, ValueVerifier, ValueWeigher)
+     */
+    public static <K, V> Cache<K, V> createCache(String name,
+                                                 ValueComputer<K, V> valueComputer,
+                                                 ValueVerifier<V> verifier) {
+        return createCache(name, valueComputer, verifier, null);
+    }
+
     /**
      * Creates a cached with the given name.
      * <p>
@@ -105,6 +182,68 @@ public class CacheManager {
         return createCache(name, null, null);
     }
 
+    /**
+     * Removes the given keys from all caches with the given name without notifying other nodes.
+     * <p>
+     * This is used to apply invalidations received from other nodes of the cluster. Keys which aren't strings are
+     * matched using their string representation, which requires a scan over the cache. Therefore all keys
+     * received for a cache should be removed with a single call.
+     * </p>
+     *
+     * @param cacheName the name of the cache to remove the keys from
+     * @param keys      the string representations of the keys to remove
+     */
+    public static void removeLocally(String cacheName, Collection<String> keys) {
+        for (Cache<?, ?> cache : caches) {
+            if (cache instanceof ManagedCache && cacheName.equals(cache.getName())) {
+                ((ManagedCache<?, ?>) cache).removeRemoteKeys(keys);
+            }
+        }
+    }
+
+    /**
+     * Clears all caches with the given name without notifying other nodes.
+     * <p>
+     * This is used to apply invalidations received from other nodes of the cluster.
+     * </p>
+     *
+     * @param cacheName the name of the cache to clear
+     */
+    public static void clearLocally(String cacheName) {
+        for (Cache<?, ?> cache : caches) {
+            if (cache instanceof ManagedCache && cacheName.equals(cache.getName())) {
+                ((ManagedCache<?, ?>) cache).clearLocally();
+            }
+        }
+    }
+
+    /*
+     * Notifies the cache coherence (if present) that the given key was removed from the given cache
+     */
+    static void signalRemoval(String cacheName, Object key) {
+        if (coherence == null) {
+            return;
+        }
+        try {
+            coherence.removeKey(cacheName, String.valueOf(key));
+        } catch (Throwable e) {
+            Exceptions.handle(LOG, e);
+        }
+    }
+
+    /*
+     * Notifies the cache coherence (if present) that the given cache was cleared
+     */
+    static void signalClear(String cacheName) {
+        if (coherence == null) {
+            return;
+        }
+        try {
+            coherence.clear(cacheName);
+        } catch (Throwable e) {
+            Exceptions.handle(LOG, e);
+        }
+    }
 
     /**
      * Creates a new {@link InlineCache} with the given TTL and computer.
@@ -119,7 +258,29 @@ public class CacheManager {
      *         computer to re-compute the value
      */
     public static <E> InlineCache<E> createInlineCache(long ttl, TimeUnit ttlUnit, ValueProvider<E> computer) {
-        return new InlineCache<E>(computer, TimeUnit.MILLISECONDS.convert(ttl, ttlUnit));
+        return createInlineCache(ttl, ttlUnit, computer, false);
+    }
+
+    /**
+     * Creates a new {@link InlineCache} with the given TTL and computer which can refresh its value in the
+     * background.
+     * <p>
+     * If <tt>refreshInBackground</tt> is <tt>true</tt>, an expired value is still returned to all callers while
+     * a new one is computed in the background. Otherwise the caller has to wait until the new value is computed.
+     * </p>
+     *
+     * @param ttl                 specifies the number of time units which the computed value will be cached
+     * @param ttlUnit             specifies the unit of time in which the ttl value is expressed
+     * @param computer            the provider which is used to re-compute the value once it expired
+     * @param refreshInBackground determines if an expired value is recomputed in the background
+     * @return an inline cache which keeps a computed value for the given amount of time and then uses the provided
+     *         computer to re-compute the value
+     */
+    public static <E> InlineCache<E> createInlineCache(long ttl,
+                                                       TimeUnit ttlUnit,
+                                                       ValueProvider<E> computer,
+                                                       boolean refreshInBackground) {
+        return new InlineCache<E>(computer, TimeUnit.MILLISECONDS.convert(ttl, ttlUnit), refreshInBackground);
     }
 
     /**
@@ -131,6 +292,6 @@ public class CacheManager {
      *         computer to re-compute the value
      */
     public static <E> InlineCache<E> createTenSecondsInlineCache(ValueProvider<E> computer) {
-        return new InlineCache<E>(computer, TimeUnit.MILLISECONDS.convert(10, TimeUnit.SECONDS));
+        return createInlineCache(10, TimeUnit.SECONDS, computer);
     }
 }
@@ -0,0 +1,409 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.kernel.cache;
+
+import sirius.kernel.async.Async;
+import sirius.kernel.commons.Strings;
+import sirius.kernel.commons.Watch;
+import sirius.kernel.di.Lifecycle;
+import sirius.kernel.di.std.ConfigValue;
+import sirius.kernel.di.std.Register;
+import sirius.kernel.health.Exceptions;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes the contents of selected caches to disk on shutdown and restores them on startup.
+ * <p>
+ * Snapshots are enabled per cache by setting <tt>cache.[name].snapshot</tt> to <tt>true</tt>. On shutdown, the key
+ * of each entry kept on the heap is written to <tt>cache-snapshots.directory</tt> along with its value, if the value
+ * is serializable. On startup, the snapshots are loaded in the background by the executor <tt>cache-warmup</tt>. All
+ * values are restored, unless their ttl has passed. All other keys are recomputed using the <tt>ValueComputer</tt> of
+ * the cache, with at most <tt>cache-snapshots.parallelism</tt> tasks in parallel. Entries which were computed in the
+ * meantime are not overwritten. The duration of the warm-up is logged once it is completed.
+ * </p>
+ * <p>
+ * As most caches are created lazily, the snapshot of a cache which doesn't exist yet is kept pending and loaded
+ * once the cache is created via {@link CacheManager}.
+ * </p>
+ * <p>
+ * Snapshot files are deleted once they are loaded, so that a crash never restores outdated contents. The
+ * snapshots of caches which aren't created at all are kept for the next startup.
+ * </p>
+ *
+ * @author Andreas Haufler (aha@scireum.de)
+ * @since 2014/11
+ */
+@Register(classes = {CacheSnapshots.class, Lifecycle.class})
+public class CacheSnapshots implements Lifecycle {
+
+    private static final int FORMAT_VERSION = 1;
+    private static final String FILE_EXTENSION = ".snapshot";
+    private static final String EXECUTOR_CACHE_WARMUP = "cache-warmup";
+
+    @ConfigValue("cache-snapshots.directory")
+    private String directory;
+
+    @ConfigValue("cache-snapshots.parallelism")
+    private int parallelism;
+
+    /*
+     * Contains the snapshot files per cache name, which were found on startup while the cache wasn't created yet
+     */
+    private final Map<String, File> pendingSnapshots = new ConcurrentHashMap<>();
+
+    /*
+     * Represents a key which has to be recomputed during the warm-up
+     */
+    private static class Recomputation {
+        final ManagedCache<Object, Object> cache;
+        final Object key;
+
+        Recomputation(ManagedCache<Object, Object> cache, Object key) {
+            this.cache = cache;
+            this.key = key;
+        }
+    }
+
+    @Override
+    public void started() {
+        File[] files = getDirectory().listFiles((dir, name) -> name.endsWith(FILE_EXTENSION));
+        if (files == null || files.length == 0) {
+            return;
+        }
+        // Loading large snapshots takes a while, therefore this is done in the background so that the startup isn't
+        // delayed. Until an entry is restored, a lookup simply computes its value, which is then kept.
+        Async.executor(EXECUTOR_CACHE_WARMUP).fork(() -> load(files)).execute();
+    }
+
+    /*
+     * Loads the given snapshot files and starts to recompute all keys without a value
+     */
+    private void load(File[] files) {
+        Watch watch = Watch.start();
+        Queue<Recomputation> recomputations = new ConcurrentLinkedQueue<>();
+        int numRestored = 0;
+        for (File file : files) {
+            ManagedCache<Object, Object> cache = findCacheOfSnapshot(file);
+            if (cache != null) {
+                numRestored += load(file, cache, recomputations);
+            }
+        }
+        if (!pendingSnapshots.isEmpty()) {
+            CacheManager.LOG.INFO("The snapshots of %d caches will be restored once these caches are created: %s",
+                                  pendingSnapshots.size(),
+                                  pendingSnapshots.keySet());
+        }
+        completeWarmup(recomputations, numRestored, watch);
+    }
+
+    /*
+     * Invoked by the CacheManager for each created cache, so that a pending snapshot can be loaded
+     */
+    @SuppressWarnings("unchecked")
+    void cacheCreated(ManagedCache<?, ?> cache) {
+        if (pendingSnapshots.isEmpty()) {
+            return;
+        }
+        File file = pendingSnapshots.remove(cache.getName());
+        if (file == null) {
+            return;
+        }
+        Async.executor(EXECUTOR_CACHE_WARMUP).fork(() -> {
+            Watch watch = Watch.start();
+            Queue<Recomputation> recomputations = new ConcurrentLinkedQueue<>();
+            int numRestored = load(file, (ManagedCache<Object, Object>) cache, recomputations);
+            completeWarmup(recomputations, numRestored, watch);
+        }).execute();
+    }
+
+    /*
+     * Determines the cache to which the given snapshot belongs. If the cache wasn't created yet, the snapshot is kept
+     * as pending and null is returned.
+     */
+    @Nullable
+    private ManagedCache<Object, Object> findCacheOfSnapshot(File file) {
+        String name = readCacheName(file);
+        if (name == null) {
+            delete(file);
+            return null;
+        }
+        ManagedCache<Object, Object> cache = findCache(name);
+        if (cache != null) {
+            return cache;
+        }
+        pendingSnapshots.put(name, file);
+        // The cache might have been created after the lookup above but before the snapshot was marked as pending...
+        cache = findCache(name);
+        if (cache != null && pendingSnapshots.remove(name, file)) {
+            return cache;
+        }
+        return null;
+    }
+
+    /*
+     * Reads the name of the cache from the given snapshot or returns null if the snapshot cannot be read
+     */
+    @Nullable
+    private String readCacheName(File file) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                CacheManager.LOG.WARN("Ignoring cache snapshot %s with an unknown format", file.getName());
+                return null;
+            }
+            return in.readUTF();
+        } catch (Throwable e) {
+            Exceptions.handle()
+                      .to(CacheManager.LOG)
+                      .error(e)
+                      .withSystemErrorMessage("Cannot load cache snapshot %s: %s (%s)", file.getName())
+                      .handle();
+            return null;
+        }
+    }
+
+    private void delete(File file) {
+        if (!file.delete()) {
+            CacheManager.LOG.WARN("Cannot delete cache snapshot %s", file.getAbsolutePath());
+        }
+    }
+
+    /*
+     * Logs that the warm-up is completed or starts to recompute the given keys
+     */
+    private void completeWarmup(Queue<Recomputation> recomputations, int numRestored, Watch watch) {
+        if (recomputations.isEmpty()) {
+            CacheManager.LOG.INFO("Cache warm-up completed: Restored %d entries in %s",
+                                  numRestored,
+                                  watch.duration(false));
+            return;
+        }
+        recompute(recomputations, numRestored, watch);
+    }
+
+    /*
+     * Recomputes the given keys using at most "parallelism" tasks of the warm-up executor
+     */
+    private void recompute(Queue<Recomputation> recomputations, int numRestored, Watch watch) {
+        int numKeys = recomputations.size();
+        int numWorkers = Math.max(1, Math.min(parallelism, numKeys));
+        AtomicInteger activeWorkers = new AtomicInteger(numWorkers);
+        AtomicInteger failures = new AtomicInteger();
+        CacheManager.LOG.INFO("Restored %d cache entries. Recomputing %d keys in the background...",
+                              numRestored,
+                              numKeys);
+        for (int i = 0; i < numWorkers; i++) {
+            Async.executor(EXECUTOR_CACHE_WARMUP).fork(() -> {
+                Recomputation recomputation = recomputations.poll();
+                while (recomputation != null && Async.isRunning()) {
+                    try {
+                        recomputation.cache.get(recomputation.key);
+                    } catch (Throwable e) {
+                        Exceptions.ignore(e);
+                        failures.incrementAndGet();
+                    }
+                    recomputation = recomputations.poll();
+                }
+                if (activeWorkers.decrementAndGet() == 0) {
+                    CacheManager.LOG.INFO(
+                            "Cache warm-up completed: Restored %d entries and recomputed %d keys (%d failed) in %s",
+                            numRestored,
+                            numKeys - recomputations.size() - failures.get(),
+                            failures.get(),
+                            watch.duration(false));
+                }
+            }).execute();
+        }
+    }
+
+    /*
+     * Loads the given snapshot into the given cache and deletes it. Returns the number of restored entries and adds
+     * all keys without value to the given queue.
+     */
+    private int load(File file, ManagedCache<Object, Object> cache, Queue<Recomputation> recomputations) {
+        try {
+            return loadEntries(file, cache, recomputations);
+        } catch (Throwable e) {
+            Exceptions.handle()
+                      .to(CacheManager.LOG)
+                      .error(e)
+                      .withSystemErrorMessage("Cannot load cache snapshot %s: %s (%s)", file.getName())
+                      .handle();
+            return 0;
+        } finally {
+            delete(file);
+        }
+    }
+
+    private int loadEntries(File file, ManagedCache<Object, Object> cache, Queue<Recomputation> recomputations)
+            throws Exception {
+        cache.init();
+        if (!cache.isSnapshotEnabled()) {
+            CacheManager.LOG.FINE("Ignoring cache snapshot %s as snapshots of %s are disabled",
+                                  file.getName(),
+                                  cache.getName());
+            return 0;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            // Skip the header, which was already checked by readCacheName
+            in.readInt();
+            in.readUTF();
+            long now = System.currentTimeMillis();
+            int numRestored = 0;
+            while (in.readBoolean()) {
+                long maxAge = in.readLong();
+                byte[] key = readBytes(in);
+                byte[] value = readBytes(in);
+                try {
+                    if (value != null && (maxAge <= 0 || maxAge > now)) {
+                        cache.restore(deserialize(key), deserialize(value), maxAge);
+                        numRestored++;
+                    } else if (cache.computer != null) {
+                        recomputations.add(new Recomputation(cache, deserialize(key)));
+                    }
+                } catch (IOException | ClassNotFoundException e) {
+                    // The class of the key or value might have changed since the snapshot was written...
+                    Exceptions.ignore(e);
+                }
+            }
+            return numRestored;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    private ManagedCache<Object, Object> findCache(String name) {
+        for (Cache<?, ?> cache : CacheManager.getCaches()) {
+            if (cache instanceof ManagedCache && Strings.areEqual(name, cache.getName())) {
+                return (ManagedCache<Object, Object>) cache;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void stopped() {
+        for (Cache<?, ?> cache : CacheManager.getCaches()) {
+            if (cache instanceof ManagedCache && ((ManagedCache<?, ?>) cache).isSnapshotEnabled()) {
+                try {
+                    write((ManagedCache<?, ?>) cache);
+                } catch (Throwable e) {
+                    Exceptions.handle()
+                              .to(CacheManager.LOG)
+                              .error(e)
+                              .withSystemErrorMessage("Cannot write snapshot of cache %s: %s (%s)", cache.getName())
+                              .handle();
+                }
+            }
+        }
+    }
+
+    /*
+     * Writes all keys (and serializable values) of the given cache to its snapshot file
+     */
+    private void write(ManagedCache<?, ?> cache) throws IOException {
+        File dir = getDirectory();
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Cannot create directory: " + dir.getAbsolutePath());
+        }
+        File file = new File(dir, cache.getName().replaceAll("[^a-zA-Z0-9_\\-]", "_") + FILE_EXTENSION);
+        int numEntries = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(cache.getName());
+            for (CacheEntry<?, ?> entry : cache.getContents()) {
+                byte[] key = serialize(entry.getKey());
+                if (key != null) {
+                    out.writeBoolean(true);
+                    out.writeLong(entry.getMaxAge());
+                    writeBytes(out, key);
+                    writeBytes(out, serialize(entry.getValue()));
+                    numEntries++;
+                }
+            }
+            out.writeBoolean(false);
+        }
+        CacheManager.LOG.INFO("Wrote %d entries of cache %s to %s", numEntries, cache.getName(), file.getName());
+    }
+
+    private File getDirectory() {
+        return new File(Strings.isEmpty(directory) ? "cache-snapshots" : directory);
+    }
+
+    private void writeBytes(DataOutputStream out, @Nullable byte[] data) throws IOException {
+        if (data == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(data.length);
+            out.write(data);
+        }
+    }
+
+    @Nullable
+    private byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] data = new byte[length];
+        in.readFully(data);
+        return data;
+    }
+
+    @Nullable
+    private byte[] serialize(@Nullable Object value) {
+        if (!(value instanceof Serializable)) {
+            return null;
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream(out)) {
+                oos.writeObject(value);
+            }
+            return out.toByteArray();
+        } catch (Exception e) {
+            Exceptions.ignore(e);
+            return null;
+        }
+    }
+
+    private Object deserialize(byte[] data) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            return in.readObject();
+        }
+    }
+
+    @Override
+    public void awaitTermination() {
+        // Snapshots are written synchronously in stopped()
+    }
+
+    @Override
+    public String getName() {
+        return "cache-snapshots";
+    }
+}
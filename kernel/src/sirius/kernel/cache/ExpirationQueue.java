@@ -0,0 +1,167 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.kernel.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the entries of a {@link ManagedCache} ordered by their expiry date.
+ * <p>
+ * As all entries of a cache share the same time to live, new entries almost always expire last. Therefore the
+ * entries are kept in a doubly linked list (using the fields provided by {@link CacheEntry}), where an entry is
+ * inserted by walking backwards from the tail. This takes constant time for new entries and only walks further for
+ * entries which keep their original expiry date (e.g. ones promoted from the off-heap tier or restored from a
+ * snapshot). Entries without an expiry date (max age of 0) are treated as if they expire last. If no time to live is
+ * set, the queue is still maintained as it provides the oldest entries of the cache. Finding all expired entries only
+ * needs to look at the head of the list, so that an eviction run takes time proportional to the number of expired
+ * entries and not to the size of the cache.
+ * </p>
+ *
+ * @author Andreas Haufler (aha@scireum.de)
+ * @since 2014/11
+ */
+class ExpirationQueue<K, V> {
+
+    private CacheEntry<K, V> head;
+    private CacheEntry<K, V> tail;
+    private int size;
+
+    /**
+     * Inserts the given entry according to its expiry date.
+     * <p>
+     * Entries with the same expiry date are kept in the order of insertion.
+     * </p>
+     *
+     * @param entry the entry to add
+     */
+    synchronized void add(CacheEntry<K, V> entry) {
+        if (isQueued(entry)) {
+            return;
+        }
+        long expiry = toExpiry(entry);
+        CacheEntry<K, V> previous = tail;
+        while (previous != null && toExpiry(previous) > expiry) {
+            previous = previous.previousInQueue;
+        }
+        entry.previousInQueue = previous;
+        if (previous == null) {
+            entry.nextInQueue = head;
+            head = entry;
+        } else {
+            entry.nextInQueue = previous.nextInQueue;
+            previous.nextInQueue = entry;
+        }
+        if (entry.nextInQueue == null) {
+            tail = entry;
+        } else {
+            entry.nextInQueue.previousInQueue = entry;
+        }
+        size++;
+    }
+
+    /*
+     * Entries without a max age never expire and are therefore sorted behind all others
+     */
+    private long toExpiry(CacheEntry<K, V> entry) {
+        return entry.getMaxAge() > 0 ? entry.getMaxAge() : Long.MAX_VALUE;
+    }
+
+    /**
+     * Removes the given entry from the queue. Does nothing if the entry isn't queued.
+     *
+     * @param entry the entry to remove
+     */
+    synchronized void remove(CacheEntry<K, V> entry) {
+        if (!isQueued(entry)) {
+            return;
+        }
+        unlink(entry);
+    }
+
+    /**
+     * Removes and returns all entries from the head of the queue which are expired.
+     * <p>
+     * Entries without an expiry date (max age of 0) never expire.
+     * </p>
+     *
+     * @param now the current timestamp used to determine if an entry is expired
+     * @return a list of all expired entries, which have been removed from the queue
+     */
+    synchronized List<CacheEntry<K, V>> pollExpired(long now) {
+        List<CacheEntry<K, V>> result = new ArrayList<>();
+        while (head != null && head.getMaxAge() > 0 && head.getMaxAge() <= now) {
+            CacheEntry<K, V> entry = head;
+            unlink(entry);
+            result.add(entry);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the oldest entries of the queue without removing them.
+     *
+     * @param limit the max number of entries to return
+     * @return a list of up to <tt>limit</tt> entries, starting with the oldest one
+     */
+    synchronized List<CacheEntry<K, V>> getOldest(int limit) {
+        List<CacheEntry<K, V>> result = new ArrayList<>(limit);
+        CacheEntry<K, V> entry = head;
+        while (entry != null && result.size() < limit) {
+            result.add(entry);
+            entry = entry.nextInQueue;
+        }
+        return result;
+    }
+
+    /**
+     * Removes all entries from the queue.
+     */
+    synchronized void clear() {
+        CacheEntry<K, V> entry = head;
+        while (entry != null) {
+            CacheEntry<K, V> next = entry.nextInQueue;
+            entry.previousInQueue = null;
+            entry.nextInQueue = null;
+            entry = next;
+        }
+        head = null;
+        tail = null;
+        size = 0;
+    }
+
+    /**
+     * Returns the number of queued entries.
+     *
+     * @return the number of entries in the queue
+     */
+    synchronized int size() {
+        return size;
+    }
+
+    private boolean isQueued(CacheEntry<K, V> entry) {
+        return entry.previousInQueue != null || head == entry;
+    }
+
+    private void unlink(CacheEntry<K, V> entry) {
+        if (entry.previousInQueue == null) {
+            head = entry.nextInQueue;
+        } else {
+            entry.previousInQueue.nextInQueue = entry.nextInQueue;
+        }
+        if (entry.nextInQueue == null) {
+            tail = entry.previousInQueue;
+        } else {
+            entry.nextInQueue.previousInQueue = entry.previousInQueue;
+        }
+        entry.previousInQueue = null;
+        entry.nextInQueue = null;
+        size--;
+    }
+}
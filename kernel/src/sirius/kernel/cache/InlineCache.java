@@ -8,15 +8,26 @@
 
 package sirius.kernel.cache;
 
+import sirius.kernel.async.Async;
 import sirius.kernel.commons.ValueProvider;
+import sirius.kernel.health.Counter;
+import sirius.kernel.health.Exceptions;
 
 import javax.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Caches a single value to prevent frequent re-computation.
  * <p>
  * Caches a computed value for a certain amount of time. Re-computes the value once the value is expired and the
- * cache is used again.
+ * cache is used again. This class is thread-safe and ensures that at most one computation is running at a time.
+ * </p>
+ * <p>
+ * If <tt>refreshInBackground</tt> is enabled, an expired value is still returned to all callers, while a new value
+ * is computed using the <tt>cache-refresh</tt> executor. Only the very first computation (or the first one after a
+ * {@link #flush()}) blocks the caller. If a refresh fails, it is retried after a quarter of the ttl. An expired
+ * value is served for at most another ttl. After that, the caller computes the value itself (and therefore sees the
+ * error, if the computation still fails).
  * </p>
  * <p>
  * A real lookup cache, with a Map like behaviour can be found here: {@link Cache}.
@@ -30,17 +41,30 @@ import javax.annotation.Nullable;
  * @since 2013/08
  */
 public class InlineCache<E> {
-    private E buffer;
-    private long lastComputation;
-    private long timeout;
-    private ValueProvider<E> computer;
+
+    private static final String EXECUTOR_CACHE_REFRESH = "cache-refresh";
+
+    /*
+     * The buffer is always written before lastComputation and read after it. Therefore a caller which sees a
+     * valid timestamp also sees the matching value.
+     */
+    private volatile E buffer;
+    private volatile long lastComputation;
+    private final long timeout;
+    private final ValueProvider<E> computer;
+    private final boolean refreshInBackground;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private volatile long nextRefreshAttempt;
+    private final Counter hits = new Counter();
+    private final Counter refreshes = new Counter();
 
     /**
      * Creates a new inline cache based on the given parameters.
      */
-    protected InlineCache(@Nullable ValueProvider<E> computer, long timeout) {
+    protected InlineCache(@Nullable ValueProvider<E> computer, long timeout, boolean refreshInBackground) {
         this.computer = computer;
         this.timeout = timeout;
+        this.refreshInBackground = refreshInBackground;
     }
 
     /**
@@ -50,11 +74,64 @@ public class InlineCache<E> {
      */
     @Nullable
     public E get() {
-        if (System.currentTimeMillis() - lastComputation > timeout) {
-            buffer = computer.get();
-            lastComputation = System.currentTimeMillis();
+        long now = System.currentTimeMillis();
+        long computed = lastComputation;
+        if (computed > 0 && now - computed <= timeout) {
+            recordHit();
+            return buffer;
+        }
+        if (refreshInBackground && computed > 0 && now - computed <= 2 * timeout) {
+            if (now >= nextRefreshAttempt && refreshing.compareAndSet(false, true)) {
+                Async.executor(EXECUTOR_CACHE_REFRESH)
+                     .start(this::refresh)
+                     .dropOnOverload(() -> refreshing.set(false))
+                     .execute();
+            }
+            recordHit();
+            return buffer;
+        }
+        synchronized (this) {
+            computed = lastComputation;
+            if (computed > 0 && System.currentTimeMillis() - computed <= timeout) {
+                recordHit();
+            } else {
+                compute();
+            }
+            return buffer;
+        }
+    }
+
+    private void recordHit() {
+        hits.inc();
+        CacheManager.inlineCacheHits.inc();
+    }
+
+    /*
+     * Computes a new value. Must only be called while holding the lock on this.
+     */
+    private void compute() {
+        refreshes.inc();
+        CacheManager.inlineCacheRefreshes.inc();
+        buffer = computer.get();
+        lastComputation = System.currentTimeMillis();
+    }
+
+    /*
+     * Recomputes the value in the background. If the computation fails, the previous value is kept and another
+     * attempt is made after a quarter of the ttl, so that a failing computation isn't retried (and logged) for
+     * each access.
+     */
+    private void refresh() {
+        try {
+            synchronized (this) {
+                compute();
+            }
+        } catch (Throwable e) {
+            nextRefreshAttempt = System.currentTimeMillis() + timeout / 4;
+            Exceptions.handle(CacheManager.LOG, e);
+        } finally {
+            refreshing.set(false);
         }
-        return buffer;
     }
 
     /**
@@ -63,4 +140,25 @@ public class InlineCache<E> {
     public void flush() {
         lastComputation = 0;
     }
+
+    /**
+     * Returns the number of calls which were served by the cached value.
+     * <p>
+     * This includes calls which received an expired value while a refresh was running in the background.
+     * </p>
+     *
+     * @return the number of calls which didn't have to wait for a computation
+     */
+    public long getHits() {
+        return hits.getCount();
+    }
+
+    /**
+     * Returns the number of computations performed (either inline or in the background).
+     *
+     * @return the number of times the value was (re-)computed
+     */
+    public long getRefreshes() {
+        return refreshes.getCount();
+    }
 }
@@ -9,8 +9,11 @@
 package sirius.kernel.cache;
 
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
 import com.google.common.cache.RemovalListener;
 import com.google.common.cache.RemovalNotification;
+import com.google.common.collect.Maps;
+import sirius.kernel.async.Async;
 import sirius.kernel.commons.Callback;
 import sirius.kernel.commons.Tuple;
 import sirius.kernel.extensions.Extension;
@@ -20,10 +23,17 @@ import sirius.kernel.health.Exceptions;
 
 import javax.annotation.Nullable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map.Entry;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Implementation of <tt>Cache</tt> used by the <tt>CacheManager</tt>
@@ -40,21 +50,44 @@ class ManagedCache<K, V> implements Cache<K, V>, RemovalListener<Object, Object>
     protected List<Long> hitRateHistory = new ArrayList<Long>(MAX_HISTORY);
 
     protected int maxSize;
+    protected long maxWeight;
+    protected final ValueWeigher<K, V> weigher;
+    protected final AtomicLong weight = new AtomicLong();
     protected ValueComputer<K, V> computer;
     protected com.google.common.cache.Cache<K, CacheEntry<K, V>> data;
+    protected final ExpirationQueue<K, V> expirationQueue = new ExpirationQueue<>();
+    protected OffHeapStore<K, V> offHeap;
+    protected FrequencySketch frequencySketch;
     protected Counter hits = new Counter();
     protected Counter misses = new Counter();
+    protected Counter coalesced = new Counter();
+    protected Counter offHeapHits = new Counter();
     protected Date lastEvictionRun = null;
     protected final String name;
     protected long timeToLive;
     protected final ValueVerifier<V> verifier;
     protected long verificationInterval;
+    protected boolean serveStale;
+    protected boolean snapshot;
+    protected volatile boolean nonStringKeys;
     protected Callback<Tuple<K, V>> removeListener;
+    protected final ConcurrentMap<K, FutureTask<CacheEntry<K, V>>> pendingComputations = Maps.newConcurrentMap();
 
     private static final String EXTENSION_TYPE_CACHE = "cache";
     private static final String CONFIG_KEY_MAX_SIZE = "maxSize";
+    private static final String CONFIG_KEY_MAX_WEIGHT = "maxWeight";
     private static final String CONFIG_KEY_TTL = "ttl";
     private static final String CONFIG_KEY_VERIFICATION = "verification";
+    private static final String CONFIG_KEY_SERVE_STALE = "serveStale";
+    private static final String CONFIG_KEY_OFF_HEAP_SIZE = "offHeapSize";
+    private static final String CONFIG_KEY_FREQUENCY_ADMISSION = "frequencyAdmission";
+    private static final String CONFIG_KEY_SNAPSHOT = "snapshot";
+
+    /*
+     * Number of the oldest entries inspected to estimate the next victim of the eviction policy
+     */
+    private static final int ADMISSION_VICTIM_SAMPLES = 4;
+    private static final String EXECUTOR_CACHE_REFRESH = "cache-refresh";
 
     /**
      * Creates a new cache. This is not intended to be called outside of <tt>CacheManager</tt>.
@@ -62,13 +95,16 @@ class ManagedCache<K, V> implements Cache<K, V>, RemovalListener<Object, Object>
      * @param name          name of the cache which is also used to fetch the config settings
      * @param valueComputer used to compute absent cache values for given keys. May be null.
      * @param verifier      used to verify cached values before they are delivered to the caller.
+     * @param weigher       used to compute the weight of cached values if a <tt>maxWeight</tt> is configured.
      */
     protected ManagedCache(String name,
                            @Nullable ValueComputer<K, V> valueComputer,
-                           @Nullable ValueVerifier<V> verifier) {
+                           @Nullable ValueVerifier<V> verifier,
+                           @Nullable ValueWeigher<K, V> weigher) {
         this.name = name;
         this.computer = valueComputer;
         this.verifier = verifier;
+        this.weigher = weigher;
     }
 
     /*
@@ -88,7 +124,42 @@ class ManagedCache<K, V> implements Cache<K, V>, RemovalListener<Object, Object>
         this.verificationInterval = cacheInfo.getMilliseconds(CONFIG_KEY_VERIFICATION);
         this.timeToLive = cacheInfo.getMilliseconds(CONFIG_KEY_TTL);
         this.maxSize = cacheInfo.get(CONFIG_KEY_MAX_SIZE).asInt(100);
-        if (maxSize > 0) {
+        this.maxWeight = cacheInfo.getBytes(CONFIG_KEY_MAX_WEIGHT);
+        this.serveStale = cacheInfo.get(CONFIG_KEY_SERVE_STALE).asBoolean(false);
+        this.snapshot = cacheInfo.get(CONFIG_KEY_SNAPSHOT).asBoolean(false);
+        long offHeapSize = cacheInfo.getBytes(CONFIG_KEY_OFF_HEAP_SIZE);
+        if (offHeapSize > 0) {
+            this.offHeap = new OffHeapStore<>(offHeapSize);
+            if (removeListener != null) {
+                offHeap.onDiscard(this::notifyRemoveListener);
+            }
+        }
+        if (maxWeight > 0 && weigher == null) {
+            CacheManager.LOG.WARN("Cache %s has a maxWeight but no ValueWeigher! Using maxSize...", name);
+            maxWeight = 0;
+        }
+        if (cacheInfo.get(CONFIG_KEY_FREQUENCY_ADMISSION).asBoolean(false)) {
+            if (maxSize > 0 && maxWeight <= 0) {
+                this.frequencySketch = new FrequencySketch(maxSize);
+            } else {
+                CacheManager.LOG.WARN("Cache %s uses frequencyAdmission which requires a maxSize and no maxWeight!",
+                                      name);
+            }
+        }
+        build();
+    }
+
+    /*
+     * Creates the underlying cache based on the settings loaded by init().
+     */
+    protected void build() {
+        if (maxWeight > 0) {
+            this.data = CacheBuilder.newBuilder()
+                                    .maximumWeight(maxWeight)
+                                    .<K, CacheEntry<K, V>>weigher((key, entry) -> entry.getWeight())
+                                    .removalListener(this)
+                                    .build();
+        } else if (maxSize > 0) {
             this.data = CacheBuilder.newBuilder().maximumSize(maxSize).removalListener(this).build();
         } else {
             this.data = CacheBuilder.newBuilder().removalListener(this).build();
@@ -105,6 +176,16 @@ class ManagedCache<K, V> implements Cache<K, V>, RemovalListener<Object, Object>
         return maxSize;
     }
 
+    @Override
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    @Override
+    public long getWeight() {
+        return weight.get();
+    }
+
     @Override
     public int getSize() {
         if (data == null) {
@@ -125,6 +206,40 @@ class ManagedCache<K, V> implements Cache<K, V>, RemovalListener<Object, Object>
         return h + m == 0L ? 0L : Math.round(100d * (double) h / (double) (h + m));
     }
 
+    @Override
+    public Long getHeapHitRate() {
+        long h = hits.getCount() - offHeapHits.getCount();
+        long m = misses.getCount() + offHeapHits.getCount();
+        return h + m == 0L ? 0L : Math.round(100d * (double) h / (double) (h + m));
+    }
+
+    @Override
+    public Long getOffHeapHitRate() {
+        long h = offHeapHits.getCount();
+        long m = misses.getCount();
+        return h + m == 0L ? 0L : Math.round(100d * (double) h / (double) (h + m));
+    }
+
+    @Override
+    public int getOffHeapSize() {
+        return offHeap == null ? 0 : offHeap.size();
+    }
+
+    @Override
+    public long getOffHeapUsage() {
+        return offHeap == null ? 0 : offHeap.getUsedBytes();
+    }
+
+    @Override
+    public long getMaxOffHeapUsage() {
+        return offHeap == null ? 0 : offHeap.getMaxBytes();
+    }
+
+    @Override
+    public long getCoalescedComputations() {
+        return coalesced.getCount();
+    }
+
     @Override
     public Date getLastEvictionRun() {
         return lastEvictionRun;
@@ -145,21 +260,28 @@ class ManagedCache<K, V> implements Cache<K, V>, RemovalListener<Object, Object>
         }
         hits.reset();
         misses.reset();
+        coalesced.reset();
+        offHeapHits.reset();
         lastEvictionRun = new Date();
         if (timeToLive <= 0) {
             return;
         }
-        // Remove all outdated entries...
+        // Remove all outdated entries - as the queue is ordered by expiry, we only visit expired entries...
+        // In "serveStale" mode, outdated entries are still delivered (and refreshed) for another ttl before they
+        // are evicted, so that a stale value is available until a refresh succeeded.
         long now = System.currentTimeMillis();
         int numEvicted = 0;
-        Iterator<Entry<K, CacheEntry<K, V>>> iter = data.asMap().entrySet().iterator();
-        while (iter.hasNext()) {
-            Entry<K, CacheEntry<K, V>> next = iter.next();
-            if (next.getValue().getMaxAge() > now) {
-                iter.remove();
+        long threshold = serveStale ? now - timeToLive : now;
+        for (CacheEntry<K, V> entry : expirationQueue.pollExpired(threshold)) {
+            if (data.asMap().remove(entry.getKey(), entry)) {
                 numEvicted++;
             }
         }
+        // The off-heap tier isn't ordered by expiry, but as it is only scanned once per eviction run, this is cheap
+        // compared to keeping expired values in direct memory until they are pushed out by newer ones
+        if (offHeap != null) {
+            numEvicted += offHeap.removeExpired(threshold);
+        }
         if (numEvicted > 0 && CacheManager.LOG.isFINE()) {
             CacheManager.LOG.FINE("Evicted %d entries from %s", numEvicted, name);
         }
@@ -167,12 +289,26 @@ class ManagedCache<K, V> implements Cache<K, V>, RemovalListener<Object, Object>
 
     @Override
     public void clear() {
+        clearLocally();
+        CacheManager.signalClear(name);
+    }
+
+    /*
+     * Clears the cache without notifying other nodes
+     */
+    protected void clearLocally() {
         if (data == null) {
             return;
         }
         data.asMap().clear();
+        expirationQueue.clear();
+        if (offHeap != null) {
+            offHeap.clear();
+        }
         misses.reset();
         hits.reset();
+        coalesced.reset();
+        offHeapHits.reset();
         lastEvictionRun = new Date();
     }
 
@@ -186,7 +322,7 @@ class ManagedCache<K, V> implements Cache<K, V>, RemovalListener<Object, Object>
         if (data == null) {
             return false;
         }
-        return data.asMap().containsKey(key);
+        return data.asMap().containsKey(key) || offHeap != null && offHeap.contains(key);
     }
 
     @Override
@@ -200,22 +336,7 @@ class ManagedCache<K, V> implements Cache<K, V>, RemovalListener<Object, Object>
                 init();
             }
 
-            long now = System.currentTimeMillis();
-            CacheEntry<K, V> entry = data.getIfPresent(key);
-
-            if (entry != null) {
-                // Verify age of entry
-                if (entry.getMaxAge() > 0 && entry.getMaxAge() < now) {
-                    data.invalidate(key);
-                    entry = null;
-                    // Apply verifier if present
-                } else if (verifier != null && entry != null && verificationInterval > 0 && entry.getNextVerification() < now) {
-                    if (!verifier.valid(entry.getValue())) {
-                        data.invalidate(key);
-                        entry = null;
-                    }
-                }
-            }
+            CacheEntry<K, V> entry = lookup(key, computer, System.currentTimeMillis());
 
             if (entry != null) {
                 // Entry was found (and verified) - increment statistics
@@ -225,12 +346,7 @@ class ManagedCache<K, V> implements Cache<K, V>, RemovalListener<Object, Object>
                 // No entry was found, try to compute one if possible
                 misses.inc();
                 if (computer != null) {
-                    V value = computer.compute(key);
-                    entry = new CacheEntry<K, V>(key,
-                                                 value,
-                                                 timeToLive > 0 ? timeToLive + System.currentTimeMillis() : 0,
-                                                 verificationInterval + System.currentTimeMillis());
-                    data.put(key, entry);
+                    entry = computeEntry(key, computer);
                 }
             }
 
@@ -245,6 +361,326 @@ class ManagedCache<K, V> implements Cache<K, V>, RemovalListener<Object, Object>
         }
     }
 
+    @Override
+    public Map<K, V> getAll(Collection<K> keys) {
+        if (computer instanceof BatchValueComputer) {
+            return getAll(keys, (BatchValueComputer<K, V>) computer);
+        }
+        Map<K, V> result = Maps.newLinkedHashMap();
+        for (K key : keys) {
+            V value = get(key);
+            if (value != null) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Map<K, V> getAll(Collection<K> keys, BatchValueComputer<K, V> computer) {
+        try {
+            if (data == null) {
+                init();
+            }
+
+            long now = System.currentTimeMillis();
+            Map<K, V> result = Maps.newLinkedHashMap();
+            Map<K, CacheEntry<K, V>> computedEntries = Maps.newConcurrentMap();
+            Map<K, FutureTask<CacheEntry<K, V>>> computationsToRun = Maps.newLinkedHashMap();
+            List<Tuple<K, FutureTask<CacheEntry<K, V>>>> computationsToAwait = new ArrayList<>();
+            try {
+                for (K key : keys) {
+                    if (key == null || result.containsKey(key)) {
+                        continue;
+                    }
+                    CacheEntry<K, V> entry = lookup(key, computer, now);
+                    if (entry != null) {
+                        hits.inc();
+                        entry.getHits().inc();
+                        result.put(key, entry.getValue());
+                    } else {
+                        misses.inc();
+                        result.put(key, null);
+                        if (computer != null) {
+                            registerBatchComputation(key, computedEntries, computationsToRun, computationsToAwait);
+                        }
+                    }
+                }
+
+                if (!computationsToRun.isEmpty()) {
+                    Map<K, V> computedValues = computer.computeAll(computationsToRun.keySet());
+                    for (K key : computationsToRun.keySet()) {
+                        V value = computedValues.get(key);
+                        CacheEntry<K, V> entry = createEntry(key, value);
+                        storeComputed(key, entry);
+                        computedEntries.put(key, entry);
+                        result.put(key, value);
+                    }
+                }
+            } finally {
+                // Completes the computations (either with the computed entry or with an error, if the batch failed)
+                // so that no concurrent caller waits forever
+                for (Map.Entry<K, FutureTask<CacheEntry<K, V>>> computation : computationsToRun.entrySet()) {
+                    computation.getValue().run();
+                    pendingComputations.remove(computation.getKey(), computation.getValue());
+                }
+            }
+            for (Tuple<K, FutureTask<CacheEntry<K, V>>> computation : computationsToAwait) {
+                result.put(computation.getFirst(), awaitComputation(computation.getSecond()).getValue());
+            }
+
+            result.values().removeIf(value -> value == null);
+            return result;
+        } catch (Throwable e) {
+            throw Exceptions.handle(CacheManager.LOG, e);
+        }
+    }
+
+    /*
+     * Registers the computation of the given key as part of a batch. If another thread is already computing the
+     * key, its result is awaited instead. The registered computation only delivers the entry placed in
+     * computedEntries by the batch, so that concurrent calls of get or getAll for the same key wait for it.
+     */
+    private void registerBatchComputation(K key,
+                                          Map<K, CacheEntry<K, V>> computedEntries,
+                                          Map<K, FutureTask<CacheEntry<K, V>>> computationsToRun,
+                                          List<Tuple<K, FutureTask<CacheEntry<K, V>>>> computationsToAwait) {
+        FutureTask<CacheEntry<K, V>> computation = new FutureTask<>(() -> {
+            CacheEntry<K, V> entry = computedEntries.get(key);
+            if (entry == null) {
+                throw new IllegalStateException(String.format("The batch computation of %s failed", key));
+            }
+            return entry;
+        });
+        FutureTask<CacheEntry<K, V>> pendingComputation = pendingComputations.putIfAbsent(key, computation);
+        if (pendingComputation != null) {
+            // Another thread is already computing this value - wait for it rather than computing it again
+            coalesced.inc();
+            computationsToAwait.add(Tuple.create(key, pendingComputation));
+        } else {
+            computationsToRun.put(key, computation);
+        }
+    }
+
+    /*
+     * Looks up the entry for the given key. Returns null if no entry is present or if the present entry is outdated
+     * or invalid. In "serveStale" mode, such entries are returned and refreshed or verified in the background.
+     */
+    @Nullable
+    private CacheEntry<K, V> lookup(K key, @Nullable ValueComputer<K, V> computer, long now) {
+        if (frequencySketch != null) {
+            frequencySketch.increment(key);
+        }
+        CacheEntry<K, V> entry = data.getIfPresent(key);
+        boolean fromOffHeap = false;
+        if (entry == null && offHeap != null) {
+            entry = offHeap.take(key);
+            if (entry != null) {
+                entry = promote(key, entry);
+                fromOffHeap = true;
+            }
+        }
+        if (entry == null) {
+            return null;
+        }
+        // Verify age of entry
+        if (entry.getMaxAge() > 0 && entry.getMaxAge() < now) {
+            if (serveStale && computer != null) {
+                // Deliver the outdated value and recompute it in the background
+                refreshInBackground(key, computer);
+            } else {
+                data.invalidate(key);
+                return null;
+            }
+            // Apply verifier if present
+        } else if (verifier != null && verificationInterval > 0 && entry.getNextVerification() < now) {
+            if (serveStale) {
+                // Deliver the unverified value and verify it in the background
+                verifyInBackground(entry, computer);
+            } else if (!verifier.valid(entry.getValue())) {
+                data.invalidate(key);
+                return null;
+            }
+        }
+        if (fromOffHeap) {
+            offHeapHits.inc();
+        }
+        return entry;
+    }
+
+    /*
+     * Moves an entry taken from the off-heap tier (or restored from a snapshot) onto the heap. If another thread
+     * stored a value for the key in the meantime, this value is kept and returned. As the entry keeps its original
+     * expiry date, it is sorted into the expiration queue according to it.
+     */
+    private CacheEntry<K, V> promote(K key, CacheEntry<K, V> entry) {
+        expirationQueue.add(entry);
+        weight.addAndGet(entry.getWeight());
+        CacheEntry<K, V> existingEntry = data.asMap().putIfAbsent(key, entry);
+        if (existingEntry != null) {
+            expirationQueue.remove(entry);
+            weight.addAndGet(-entry.getWeight());
+            return existingEntry;
+        }
+        return entry;
+    }
+
+    /*
+     * Creates a new entry for the given key and value, using the configured ttl and verification interval
+     */
+    private CacheEntry<K, V> createEntry(K key, @Nullable V value) {
+        CacheEntry<K, V> entry = new CacheEntry<K, V>(key,
+                                                      value,
+                                                      timeToLive > 0 ? timeToLive + System.currentTimeMillis() : 0,
+                                                      verificationInterval + System.currentTimeMillis());
+        if (weigher != null) {
+            entry.setWeight(Math.max(0, weigher.weigh(key, value)));
+        }
+        return entry;
+    }
+
+    /*
+     * Stores the given entry in the cache and registers it for expiry
+     */
+    private void store(K key, CacheEntry<K, V> entry) {
+        if (offHeap != null) {
+            offHeap.remove(key);
+        }
+        if (!nonStringKeys && !(key instanceof String)) {
+            nonStringKeys = true;
+        }
+        expirationQueue.add(entry);
+        weight.addAndGet(entry.getWeight());
+        data.put(key, entry);
+    }
+
+    /*
+     * Stores a computed entry, if it passes the admission policy. Only computed values are subject to admission, as
+     * values which are put explicitly were never looked up and would therefore always be rejected.
+     */
+    private void storeComputed(K key, CacheEntry<K, V> entry) {
+        if (frequencySketch != null && !admit(key)) {
+            // Still remove a previous (outdated) value, so that it isn't promoted back from the off-heap tier
+            if (offHeap != null) {
+                offHeap.remove(key);
+            }
+            return;
+        }
+        store(key, entry);
+    }
+
+    /*
+     * Determines if a new entry for the given key should be added to a full cache (TinyLFU).
+     * <p>
+     * The entry is only admitted if its key was used more frequently than the key of the entry which would be evicted
+     * instead. As the victim chosen by the underlying cache isn't known, the least frequently used key of the oldest
+     * entries is used as estimate. This prevents a scan over lots of keys, which are only used once, from evicting
+     * the frequently used entries.
+     * </p>
+     */
+    private boolean admit(K key) {
+        if (data.size() < maxSize || data.asMap().containsKey(key)) {
+            return true;
+        }
+        int candidateFrequency = frequencySketch.frequency(key);
+        for (CacheEntry<K, V> victim : expirationQueue.getOldest(ADMISSION_VICTIM_SAMPLES)) {
+            if (frequencySketch.frequency(victim.getKey()) < candidateFrequency) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Creates a computation which invokes the given computer and stores the resulting entry in the cache
+     */
+    private FutureTask<CacheEntry<K, V>> createComputation(final K key, final ValueComputer<K, V> computer) {
+        return new FutureTask<>(() -> {
+            CacheEntry<K, V> entry = createEntry(key, computer.compute(key));
+            storeComputed(key, entry);
+            return entry;
+        });
+    }
+
+    /*
+     * Computes the entry for the given key. If another thread is already computing a value for the same key, we
+     * wait for its result instead of invoking the computer again. This prevents a stampede of identical
+     * computations once a frequently used entry expires.
+     */
+    private CacheEntry<K, V> computeEntry(final K key, final ValueComputer<K, V> computer) throws Throwable {
+        FutureTask<CacheEntry<K, V>> computation = createComputation(key, computer);
+        FutureTask<CacheEntry<K, V>> pendingComputation = pendingComputations.putIfAbsent(key, computation);
+        if (pendingComputation != null) {
+            coalesced.inc();
+            return awaitComputation(pendingComputation);
+        }
+        try {
+            computation.run();
+            return awaitComputation(computation);
+        } finally {
+            pendingComputations.remove(key, computation);
+        }
+    }
+
+    /*
+     * Recomputes the entry for the given key in the background, unless a computation is already pending.
+     * Until the new value is available, the outdated entry is served to all callers.
+     */
+    private void refreshInBackground(final K key, final ValueComputer<K, V> computer) {
+        final FutureTask<CacheEntry<K, V>> computation = createComputation(key, computer);
+        if (pendingComputations.putIfAbsent(key, computation) != null) {
+            return;
+        }
+        Async.executor(EXECUTOR_CACHE_REFRESH).start(() -> {
+            try {
+                computation.run();
+                awaitComputation(computation);
+            } catch (Throwable e) {
+                Exceptions.handle(CacheManager.LOG, e);
+            } finally {
+                pendingComputations.remove(key, computation);
+            }
+        }).dropOnOverload(() -> pendingComputations.remove(key, computation)).execute();
+    }
+
+    /*
+     * Verifies the given entry in the background. If the value turns out to be invalid, it is either recomputed
+     * (if a computer is available) or removed from the cache.
+     */
+    private void verifyInBackground(final CacheEntry<K, V> entry, @Nullable final ValueComputer<K, V> computer) {
+        final long lastVerification = entry.getNextVerification();
+        // Schedule the next verification right away so that concurrent lookups don't trigger this again
+        entry.setNextVerification(System.currentTimeMillis() + verificationInterval);
+        Async.executor(EXECUTOR_CACHE_REFRESH).start(() -> {
+            try {
+                if (verifier.valid(entry.getValue())) {
+                    return;
+                }
+                if (computer != null) {
+                    computeEntry(entry.getKey(), computer);
+                } else {
+                    data.asMap().remove(entry.getKey(), entry);
+                }
+            } catch (Throwable e) {
+                Exceptions.handle(CacheManager.LOG, e);
+            }
+        }).dropOnOverload(() -> entry.setNextVerification(lastVerification)).execute();
+    }
+
+    /*
+     * Waits for the given computation and unwraps any error thrown by the underlying ValueComputer
+     */
+    private CacheEntry<K, V> awaitComputation(FutureTask<CacheEntry<K, V>> computation) throws Throwable {
+        try {
+            return computation.get();
+        } catch (ExecutionException e) {
+            throw e.getCause();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+    }
+
     @Override
     public void put(K key, V value) {
         if (key == null) {
@@ -253,19 +689,75 @@ class ManagedCache<K, V> implements Cache<K, V>, RemovalListener<Object, Object>
         if (data == null) {
             init();
         }
-        CacheEntry<K, V> cv = new CacheEntry<K, V>(key,
-                                                   value,
-                                                   timeToLive > 0 ? timeToLive + System.currentTimeMillis() : 0,
-                                                   verificationInterval + System.currentTimeMillis());
-        data.put(key, cv);
+        store(key, createEntry(key, value));
+    }
+
+    /*
+     * Adds an entry which was loaded from a snapshot. As the value might already be outdated, its original expiry
+     * is kept if it is earlier than the one given by the ttl. A value which was computed or put in the meantime is
+     * never overwritten (not even if it was already moved to the off-heap tier).
+     */
+    void restore(K key, @Nullable V value, long maxAge) {
+        if (data == null) {
+            init();
+        }
+        if (offHeap != null && offHeap.contains(key)) {
+            return;
+        }
+        CacheEntry<K, V> entry = createEntry(key, value);
+        if (maxAge > 0 && (entry.getMaxAge() <= 0 || maxAge < entry.getMaxAge())) {
+            entry.setMaxAge(maxAge);
+        }
+        if (!nonStringKeys && !(key instanceof String)) {
+            nonStringKeys = true;
+        }
+        // Atomically only adds the entry if no value is present, as a concurrent lookup might compute one
+        promote(key, entry);
+    }
+
+    /*
+     * Determines if the contents of this cache are written to disk on shutdown (see CacheSnapshots)
+     */
+    boolean isSnapshotEnabled() {
+        return snapshot;
     }
 
     @Override
     public void remove(K key) {
+        removeLocally(key);
+        CacheManager.signalRemoval(name, key);
+    }
+
+    /*
+     * Removes the given key without notifying other nodes
+     */
+    protected void removeLocally(Object key) {
         if (data == null) {
             return;
         }
         data.invalidate(key);
+        if (offHeap != null) {
+            offHeap.remove(key);
+        }
+    }
+
+    /*
+     * Removes keys which were invalidated by another node. As keys are transmitted as strings, keys of other types
+     * are matched using their string representation. As this requires a scan over all keys, all given keys are
+     * matched in a single scan.
+     */
+    protected void removeRemoteKeys(Collection<String> keys) {
+        for (String key : keys) {
+            removeLocally(key);
+        }
+        if (data == null || !nonStringKeys) {
+            return;
+        }
+        Set<String> keysToRemove = new HashSet<>(keys);
+        data.asMap().keySet().removeIf(k -> !(k instanceof String) && keysToRemove.contains(String.valueOf(k)));
+        if (offHeap != null) {
+            offHeap.removeIf(k -> !(k instanceof String) && keysToRemove.contains(String.valueOf(k)));
+        }
     }
 
     @Override
@@ -297,15 +789,33 @@ class ManagedCache<K, V> implements Cache<K, V>, RemovalListener<Object, Object>
     @Override
     public Cache<K, V> onRemove(Callback<Tuple<K, V>> onRemoveCallback) {
         removeListener = onRemoveCallback;
+        if (offHeap != null) {
+            offHeap.onDiscard(onRemoveCallback == null ? null : this::notifyRemoveListener);
+        }
         return this;
     }
 
     @Override
     public void onRemoval(RemovalNotification<Object, Object> notification) {
-        if (removeListener != null) {
+        @SuppressWarnings("unchecked") CacheEntry<K, V> entry = (CacheEntry<K, V>) notification.getValue();
+        expirationQueue.remove(entry);
+        weight.addAndGet(-entry.getWeight());
+        // Entries evicted due to size constraints are moved to the off-heap tier and therefore remain in the cache.
+        // The remove listener is notified once they are finally discarded from there.
+        if (offHeap != null && notification.getCause() == RemovalCause.SIZE && offHeap.put(entry)) {
+            return;
+        }
+        notifyRemoveListener(entry);
+    }
+
+    /*
+     * Notifies the remove listener (if present) about the given entry, which is no longer part of the cache
+     */
+    private void notifyRemoveListener(CacheEntry<K, V> entry) {
+        Callback<Tuple<K, V>> listener = removeListener;
+        if (listener != null) {
             try {
-                @SuppressWarnings("unchecked") CacheEntry<K, V> entry = (CacheEntry<K, V>) notification.getValue();
-                removeListener.invoke(Tuple.create(entry.getKey(), entry.getValue()));
+                listener.invoke(Tuple.create(entry.getKey(), entry.getValue()));
             } catch (Throwable e) {
                 Exceptions.handle(e);
             }
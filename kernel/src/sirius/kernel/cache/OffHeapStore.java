@@ -0,0 +1,378 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.kernel.cache;
+
+import sirius.kernel.health.Exceptions;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Provides the off-heap (second level) tier of a {@link ManagedCache}.
+ * <p>
+ * Entries which are evicted from the heap due to size constraints are serialized and stored in direct memory. The
+ * memory is allocated in segments (on demand) which are split into fixed size blocks. Each entry occupies as many
+ * blocks as required to store its serialized value. If the byte budget is exhausted, the least recently used entries
+ * are discarded. Entries which are expired can be purged via {@link #removeExpired(long)}. Both kinds of discarded
+ * entries are reported to the listener given via {@link #onDiscard(Consumer)}.
+ * </p>
+ * <p>
+ * Only values which implement {@link Serializable} can be stored. All others are simply dropped.
+ * </p>
+ *
+ * @author Andreas Haufler (aha@scireum.de)
+ * @since 2014/11
+ */
+class OffHeapStore<K, V> {
+
+    private static final int BLOCK_SIZE = 512;
+    private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final int BLOCKS_PER_SEGMENT = SEGMENT_SIZE / BLOCK_SIZE;
+
+    /*
+     * Describes where and how an entry is stored
+     */
+    private static class Slot {
+        int[] blocks;
+        int length;
+        long maxAge;
+        long nextVerification;
+        int weight;
+    }
+
+    /*
+     * Contains the serialized value of a discarded entry, which is deserialized once the lock is released
+     */
+    private static class Discarded<K> {
+        private final K key;
+        private final Slot slot;
+        private final byte[] data;
+
+        private Discarded(K key, Slot slot, byte[] data) {
+            this.key = key;
+            this.slot = slot;
+            this.data = data;
+        }
+    }
+
+    private final long maxBytes;
+    private final int maxBlocks;
+    private final ByteBuffer[] segments;
+    private int[] freeBlocks = new int[64];
+    private int numFreeBlocks;
+    private int nextUnusedBlock;
+    private long usedBytes;
+    private final LinkedHashMap<K, Slot> slots = new LinkedHashMap<>(16, 0.75f, true);
+    private volatile Consumer<CacheEntry<K, V>> discardListener;
+
+    /**
+     * Creates a new store which uses at most the given number of bytes of direct memory.
+     *
+     * @param maxBytes the budget of direct memory to use
+     */
+    OffHeapStore(long maxBytes) {
+        this.maxBlocks = (int) Math.min(Integer.MAX_VALUE, maxBytes / BLOCK_SIZE);
+        this.maxBytes = (long) maxBlocks * BLOCK_SIZE;
+        this.segments = new ByteBuffer[(maxBlocks + BLOCKS_PER_SEGMENT - 1) / BLOCKS_PER_SEGMENT];
+    }
+
+    /**
+     * Installs a listener which is notified about each entry being discarded because the byte budget is exhausted
+     * or because it is expired.
+     * <p>
+     * Entries which are removed explicitly or taken from the store are not reported.
+     * </p>
+     *
+     * @param listener the listener to notify or <tt>null</tt> to remove the current listener
+     */
+    void onDiscard(@Nullable Consumer<CacheEntry<K, V>> listener) {
+        this.discardListener = listener;
+    }
+
+    /**
+     * Serializes and stores the given entry.
+     * <p>
+     * Evicts the least recently used entries if required.
+     * </p>
+     *
+     * @param entry the entry to store
+     * @return <tt>true</tt> if the entry was stored, <tt>false</tt> if it cannot be serialized or is too large
+     */
+    boolean put(CacheEntry<K, V> entry) {
+        byte[] data = serialize(entry.getValue());
+        if (data == null) {
+            remove(entry.getKey());
+            return false;
+        }
+        int numBlocks = (data.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        if (numBlocks > maxBlocks) {
+            remove(entry.getKey());
+            return false;
+        }
+        List<Discarded<K>> discarded = Collections.emptyList();
+        synchronized (this) {
+            release(slots.remove(entry.getKey()));
+            Iterator<Map.Entry<K, Slot>> iter = slots.entrySet().iterator();
+            while (getAvailableBlocks() < numBlocks && iter.hasNext()) {
+                discarded = discard(iter.next(), discarded);
+                iter.remove();
+            }
+            Slot slot = new Slot();
+            slot.length = data.length;
+            slot.maxAge = entry.getMaxAge();
+            slot.nextVerification = entry.getNextVerification();
+            slot.weight = entry.getWeight();
+            slot.blocks = new int[numBlocks];
+            for (int i = 0; i < numBlocks; i++) {
+                int block = allocateBlock();
+                slot.blocks[i] = block;
+                blockBuffer(block).put(data, i * BLOCK_SIZE, Math.min(BLOCK_SIZE, data.length - i * BLOCK_SIZE));
+            }
+            usedBytes += data.length;
+            slots.put(entry.getKey(), slot);
+        }
+        notifyDiscarded(discarded);
+        return true;
+    }
+
+    /**
+     * Removes the entry for the given key from the store and returns it.
+     *
+     * @param key the key to lookup
+     * @return the deserialized entry or <tt>null</tt> if no entry was present
+     */
+    @Nullable
+    CacheEntry<K, V> take(K key) {
+        Slot slot;
+        byte[] data;
+        synchronized (this) {
+            slot = slots.remove(key);
+            if (slot == null) {
+                return null;
+            }
+            data = read(slot);
+            release(slot);
+        }
+        return deserialize(key, slot, data);
+    }
+
+    /**
+     * Determines if an entry for the given key is present.
+     *
+     * @param key the key to check
+     * @return <tt>true</tt> if an entry is present, <tt>false</tt> otherwise
+     */
+    synchronized boolean contains(K key) {
+        return slots.containsKey(key);
+    }
+
+    /**
+     * Removes the entry for the given key.
+     *
+     * @param key the key to remove
+     */
+    synchronized void remove(Object key) {
+        release(slots.remove(key));
+    }
+
+    /**
+     * Removes all entries whose key matches the given predicate.
+     *
+     * @param predicate the predicate used to select the keys to remove
+     */
+    synchronized void removeIf(Predicate<? super K> predicate) {
+        Iterator<Map.Entry<K, Slot>> iter = slots.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<K, Slot> entry = iter.next();
+            if (predicate.test(entry.getKey())) {
+                release(entry.getValue());
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all entries which are expired.
+     *
+     * @param now the current timestamp used to determine if an entry is expired
+     * @return the number of removed entries
+     */
+    int removeExpired(long now) {
+        List<Discarded<K>> discarded = Collections.emptyList();
+        int numRemoved = 0;
+        synchronized (this) {
+            Iterator<Map.Entry<K, Slot>> iter = slots.entrySet().iterator();
+            while (iter.hasNext()) {
+                Map.Entry<K, Slot> entry = iter.next();
+                if (entry.getValue().maxAge > 0 && entry.getValue().maxAge <= now) {
+                    discarded = discard(entry, discarded);
+                    iter.remove();
+                    numRemoved++;
+                }
+            }
+        }
+        notifyDiscarded(discarded);
+        return numRemoved;
+    }
+
+    /**
+     * Removes all entries.
+     */
+    synchronized void clear() {
+        slots.clear();
+        numFreeBlocks = 0;
+        nextUnusedBlock = 0;
+        usedBytes = 0;
+    }
+
+    /**
+     * Returns the number of stored entries.
+     *
+     * @return the number of entries in the store
+     */
+    synchronized int size() {
+        return slots.size();
+    }
+
+    /**
+     * Returns the number of bytes used by the serialized values.
+     *
+     * @return the number of bytes occupied by the stored values
+     */
+    synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * Returns the budget of direct memory.
+     *
+     * @return the max number of bytes used by this store
+     */
+    long getMaxBytes() {
+        return maxBytes;
+    }
+
+    private int getAvailableBlocks() {
+        return numFreeBlocks + maxBlocks - nextUnusedBlock;
+    }
+
+    private int allocateBlock() {
+        if (numFreeBlocks > 0) {
+            return freeBlocks[--numFreeBlocks];
+        }
+        int block = nextUnusedBlock++;
+        int segment = block / BLOCKS_PER_SEGMENT;
+        if (segments[segment] == null) {
+            int blocksInSegment = Math.min(BLOCKS_PER_SEGMENT, maxBlocks - segment * BLOCKS_PER_SEGMENT);
+            segments[segment] = ByteBuffer.allocateDirect(blocksInSegment * BLOCK_SIZE);
+        }
+        return block;
+    }
+
+    private void release(@Nullable Slot slot) {
+        if (slot == null) {
+            return;
+        }
+        if (freeBlocks.length < numFreeBlocks + slot.blocks.length) {
+            freeBlocks = Arrays.copyOf(freeBlocks, Math.max(freeBlocks.length * 2, numFreeBlocks + slot.blocks.length));
+        }
+        for (int block : slot.blocks) {
+            freeBlocks[numFreeBlocks++] = block;
+        }
+        usedBytes -= slot.length;
+    }
+
+    /*
+     * Releases the slot of the given entry. If a listener is present, the serialized value is copied before, so that
+     * it can be reported once the lock is released.
+     */
+    private List<Discarded<K>> discard(Map.Entry<K, Slot> entry, List<Discarded<K>> discarded) {
+        List<Discarded<K>> result = discarded;
+        if (discardListener != null) {
+            if (result.isEmpty()) {
+                result = new ArrayList<>();
+            }
+            result.add(new Discarded<>(entry.getKey(), entry.getValue(), read(entry.getValue())));
+        }
+        release(entry.getValue());
+        return result;
+    }
+
+    private void notifyDiscarded(List<Discarded<K>> discarded) {
+        Consumer<CacheEntry<K, V>> listener = discardListener;
+        if (listener == null) {
+            return;
+        }
+        for (Discarded<K> entry : discarded) {
+            CacheEntry<K, V> cacheEntry = deserialize(entry.key, entry.slot, entry.data);
+            if (cacheEntry != null) {
+                listener.accept(cacheEntry);
+            }
+        }
+    }
+
+    private byte[] read(Slot slot) {
+        byte[] data = new byte[slot.length];
+        for (int i = 0; i < slot.blocks.length; i++) {
+            blockBuffer(slot.blocks[i]).get(data, i * BLOCK_SIZE, Math.min(BLOCK_SIZE, data.length - i * BLOCK_SIZE));
+        }
+        return data;
+    }
+
+    @Nullable
+    private CacheEntry<K, V> deserialize(K key, Slot slot, byte[] data) {
+        try {
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data));
+            @SuppressWarnings("unchecked") V value = (V) in.readObject();
+            CacheEntry<K, V> entry = new CacheEntry<>(key, value, slot.maxAge, slot.nextVerification);
+            entry.setWeight(slot.weight);
+            return entry;
+        } catch (Exception e) {
+            Exceptions.ignore(e);
+            return null;
+        }
+    }
+
+    private ByteBuffer blockBuffer(int block) {
+        ByteBuffer buffer = segments[block / BLOCKS_PER_SEGMENT].duplicate();
+        buffer.position((block % BLOCKS_PER_SEGMENT) * BLOCK_SIZE);
+        return buffer;
+    }
+
+    @Nullable
+    private byte[] serialize(@Nullable V value) {
+        if (value != null && !(value instanceof Serializable)) {
+            return null;
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream(out)) {
+                oos.writeObject(value);
+            }
+            return out.toByteArray();
+        } catch (Exception e) {
+            Exceptions.ignore(e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.kernel.cache;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Estimates the size of a cached value
+ * <p>
+ * Can be supplied to {@link CacheManager#createCache(String, ValueComputer, ValueVerifier, ValueWeigher)} when
+ * creating a cache. If the cache has a <tt>maxWeight</tt> configured, the sum of all weights is limited to this
+ * value instead of limiting the number of entries.
+ * </p>
+ *
+ * @author Andreas Haufler (aha@scireum.de)
+ * @since 2014/11
+ */
+public interface ValueWeigher<K, V> {
+
+    /**
+     * Computes the weight (an estimate of the size in bytes) of the given cache entry
+     *
+     * @param key   the key of the entry
+     * @param value the value of the entry
+     * @return the weight of the entry, which must not be negative. The weight of an entry is only computed once,
+     *         when it is put into the cache.
+     */
+    int weigh(@Nonnull K key, @Nullable V value);
+
+}
@@ -135,6 +135,17 @@ public class Watch {
         lastMicroTime = newTime;
     }
 
+    /**
+     * Submits the value for this watch to the {@link Microtiming} framework using the given handle
+     *
+     * @param timing the handle of the key, as obtained by {@link Microtiming#timing(String, String)}
+     */
+    public void submitMicroTiming(@Nonnull Microtiming.Timing timing) {
+        long newTime = System.nanoTime();
+        timing.submit(newTime - lastMicroTime);
+        lastMicroTime = newTime;
+    }
+
     @Override
     public String toString() {
         return duration();
@@ -9,19 +9,31 @@
 package sirius.kernel.health;
 
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Represents a counter for statistical use. Overflows to 0 instead to {@link Long#MIN_VALUE}
  * <p>
  * Counts up to <code>Long.MAX_VALUE - 1</code> starting at 0 and overflowing to 0.
  * </p>
+ * <p>
+ * The counter is striped: Concurrent increments are spread across several cells which are only summed up once the
+ * value is read. Therefore incrementing never loses an update and doesn't contend on a single memory location, even
+ * if it is called by many threads (e.g. for each incoming network packet). Reading the value is more expensive
+ * and not atomic with respect to concurrent updates, which is fine for statistical purposes.
+ * </p>
+ * <p>
+ * Note that therefore the value returned by {@link #inc()} is only a snapshot which might already contain concurrent
+ * increments. A counter can't be used to generate unique sequence numbers - use an
+ * {@link java.util.concurrent.atomic.AtomicLong} instead.
+ * </p>
  *
  * @author Andreas Haufler (aha@scireum.de)
  * @since 2013/08
  */
 public class Counter {
-    private volatile long startTimeMillis = -1;
-    private volatile long count = 0;
+    private volatile long startTimeMillis = System.currentTimeMillis();
+    private final LongAdder count = new LongAdder();
     private final long max;
 
     /**
@@ -42,17 +54,21 @@ public class Counter {
 
     /**
      * Increments the counter by one
+     *
+     * @return the value of the counter after it was incremented (which might include concurrent increments)
      */
     public long inc() {
-        if (startTimeMillis < 0) {
-            reset();
-        }
-        if (count < max) {
-            count++;
-        } else {
-            count = 0;
-        }
-        return count;
+        count.increment();
+        return getCount();
+    }
+
+    /**
+     * Increments the counter by the given amount
+     *
+     * @param delta the amount to add to the counter
+     */
+    public void add(long delta) {
+        count.add(delta);
     }
 
     /**
@@ -62,7 +78,7 @@ public class Counter {
      * @return the average increment per given time unit
      */
     public double getAvgPer(TimeUnit unit) {
-        return (count) / getDuration(unit);
+        return (getCount()) / (double) getDuration(unit);
     }
 
     /**
@@ -71,7 +87,14 @@ public class Counter {
      * @return the value of the counter
      */
     public long getCount() {
-        return count;
+        long sum = count.sum();
+        if (sum < 0) {
+            // The sum itself overflowed - this will only happen after a very long time, so we start over
+            count.reset();
+            return 0;
+        }
+
+        return sum % (max + 1);
     }
 
     /**
@@ -82,7 +105,7 @@ public class Counter {
      */
     public long getDuration(TimeUnit unit) {
         long delta = System.currentTimeMillis() - startTimeMillis;
-        return TimeUnit.MILLISECONDS.convert(delta, unit);
+        return unit.convert(delta, TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -90,11 +113,11 @@ public class Counter {
      */
     public void reset() {
         startTimeMillis = System.currentTimeMillis();
-        count = 0;
+        count.reset();
     }
 
     @Override
     public String toString() {
-        return String.valueOf(count);
+        return String.valueOf(getCount());
     }
 }
@@ -0,0 +1,271 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.kernel.health;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records the distribution of values (like durations) to compute percentiles.
+ * <p>
+ * In contrast to {@link Average} which only reports a mean value, this permits to monitor the tail latency of an
+ * operation. Values are counted in logarithmic buckets: Each power of two is split into eight buckets, so that each
+ * reported value is at most 12.5% above the actual value, while the memory used is fixed (about 4kb) no matter how
+ * many or how large the values are. Values below eight are counted exactly.
+ * </p>
+ * <p>
+ * Recording a value is lock-free and can be called by any number of threads. The values are recorded per interval:
+ * {@link #getAndReset()} returns the distribution of all values since the last reset and starts a new interval.
+ * </p>
+ *
+ * @author Andreas Haufler (aha@scireum.de)
+ * @since 2014/11
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int NUM_BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicReference<Interval> current = new AtomicReference<>(new Interval());
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder totalSum = new LongAdder();
+
+    /*
+     * Contains the values recorded within one interval
+     */
+    private static class Interval {
+        private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        private void record(long value) {
+            buckets.incrementAndGet(indexOf(value));
+            count.increment();
+            sum.add(value);
+            long currentMax = max.get();
+            while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+                currentMax = max.get();
+            }
+        }
+
+        private Snapshot snapshot() {
+            long[] counts = new long[NUM_BUCKETS];
+            for (int i = 0; i < NUM_BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+            }
+            return new Snapshot(counts, count.sum(), sum.sum(), max.get());
+        }
+    }
+
+    /**
+     * Represents the distribution of the values recorded within an interval.
+     */
+    public static class Snapshot {
+
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /**
+         * Returns the number of recorded values.
+         *
+         * @return the number of values recorded within the interval
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Returns the arithmetic mean of all recorded values.
+         *
+         * @return the mean of all values or <tt>0</tt> if no values were recorded
+         */
+        public double getMean() {
+            if (count == 0) {
+                return 0d;
+            }
+            return sum / (double) count;
+        }
+
+        /**
+         * Returns the largest recorded value.
+         *
+         * @return the largest value recorded within the interval or <tt>0</tt> if no values were recorded
+         */
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * Returns the value which is not exceeded by the given percentage of all recorded values.
+         *
+         * @param percentile the percentile to compute (0..100)
+         * @return the upper bound of the bucket containing the requested percentile (but never more than the largest
+         * recorded value) or <tt>0</tt> if no values were recorded
+         */
+        public long getPercentile(double percentile) {
+            long total = 0;
+            for (long bucketCount : counts) {
+                total += bucketCount;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100d * total));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(max, upperBoundOf(i));
+                }
+            }
+            return max;
+        }
+
+        /**
+         * Returns the median of the recorded values.
+         *
+         * @return the 50th percentile
+         */
+        public long getP50() {
+            return getPercentile(50);
+        }
+
+        /**
+         * Returns the 95th percentile of the recorded values.
+         *
+         * @return the value which is not exceeded by 95% of all values
+         */
+        public long getP95() {
+            return getPercentile(95);
+        }
+
+        /**
+         * Returns the 99th percentile of the recorded values.
+         *
+         * @return the value which is not exceeded by 99% of all values
+         */
+        public long getP99() {
+            return getPercentile(99);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count: %d, mean: %.2f, 50%%: %d, 95%%: %d, 99%%: %d, max: %d",
+                                 count,
+                                 getMean(),
+                                 getP50(),
+                                 getP95(),
+                                 getP99(),
+                                 max);
+        }
+    }
+
+    /*
+     * Determines the bucket of a value. The upper bits select the power of two, the next SUB_BUCKET_BITS bits the
+     * bucket within it.
+     */
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /*
+     * Determines the largest value which is counted in the given bucket
+     */
+    private static long upperBoundOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int magnitude = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKETS;
+        long lowerBound = (long) (SUB_BUCKETS + subBucket) << (magnitude - SUB_BUCKET_BITS);
+        return lowerBound + (1L << (magnitude - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * Records the given value.
+     *
+     * @param value the value to record. Negative values are recorded as <tt>0</tt>.
+     */
+    public void addValue(long value) {
+        long effectiveValue = Math.max(0, value);
+        current.get().record(effectiveValue);
+        totalCount.increment();
+        totalSum.add(effectiveValue);
+    }
+
+    /**
+     * Returns the distribution of the values recorded in the current interval.
+     *
+     * @return a snapshot of the current interval
+     */
+    public Snapshot getSnapshot() {
+        return current.get().snapshot();
+    }
+
+    /**
+     * Returns the distribution of the values recorded in the current interval and starts a new one.
+     * <p>
+     * A value which is recorded by another thread while the interval is swapped might not be contained in either
+     * interval, which is negligible for statistical purposes.
+     * </p>
+     *
+     * @return a snapshot of the interval which has been completed by this call
+     */
+    public Snapshot getAndReset() {
+        return current.getAndSet(new Interval()).snapshot();
+    }
+
+    /**
+     * Returns the total number of recorded values.
+     * <p>
+     * Note that this counter is not reset by {@link #getAndReset()}.
+     * </p>
+     *
+     * @return the number of values recorded since the creation of the histogram
+     */
+    public long getCount() {
+        return totalCount.sum();
+    }
+
+    /**
+     * Returns the sum of all recorded values.
+     * <p>
+     * Just like {@link #getCount()} this is not reset by {@link #getAndReset()}, therefore both can be used to
+     * compute the mean of any period of time.
+     * </p>
+     *
+     * @return the sum of all values recorded since the creation of the histogram
+     */
+    public long getSum() {
+        return totalSum.sum();
+    }
+
+    @Override
+    public String toString() {
+        return getSnapshot().toString() + " (" + getCount() + ")";
+    }
+}
@@ -8,10 +8,18 @@
 
 package sirius.kernel.health;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import sirius.kernel.di.std.ConfigValue;
 
+import javax.annotation.Nonnull;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.stream.Collectors;
 
 /**
@@ -26,33 +34,71 @@ import java.util.stream.Collectors;
  * </p>
  * <p>
  * An example might be an SQL query which is executed in a loop to perform a file import. Since the SQL-Query is
- * always the same (in case or a prepared statement) the execution times will be added to an average which will
+ * always the same (in case or a prepared statement) the execution times will be added to a histogram which will
  * be stored until the next call to <tt>Microtiming.getTimings()</tt>.
  * </p>
+ * <p>
+ * Submitting a timing neither allocates nor locks once its key is known. Code which submits the same key over and over
+ * again can obtain a handle via {@link #timing(String, String)} to skip the lookup altogether. The number of keys is
+ * limited to <tt>health.microtiming.maxKeys</tt> - once this limit is reached, the keys which were not used for the
+ * longest time are evicted. Additionally only every n-th timing can be recorded by setting
+ * <tt>health.microtiming.samplingRate</tt>, so that the framework can be enabled permanently via
+ * <tt>health.microtiming.enabled</tt>.
+ * </p>
  *
  * @author Andreas Haufler (aha@scireum.de)
  * @since 2013/08
  */
 public class Microtiming {
 
+    /*
+     * Determines how many keys are evicted (in percent of maxKeys) once the limit is reached
+     */
+    private static final int EVICTION_PERCENT = 10;
+
+    @ConfigValue("health.microtiming.enabled")
     private static volatile boolean enabled = false;
-    private static volatile long lastReset;
-    private static Map<String, Timing> timings = Maps.newConcurrentMap();
+
+    @ConfigValue("health.microtiming.samplingRate")
+    private static volatile int samplingRate = 1;
+
+    @ConfigValue("health.microtiming.maxKeys")
+    private static int maxKeys = 1000;
+
+    private static volatile long lastReset = System.currentTimeMillis();
+    private static Map<String, Map<String, Timing>> timings = Maps.newConcurrentMap();
+    private static AtomicInteger numTimings = new AtomicInteger();
+    private static AtomicBoolean evicting = new AtomicBoolean();
+    private static final AtomicReferenceFieldUpdater<Timing, Histogram> HISTOGRAM_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(Timing.class, Histogram.class, "histogram");
 
     /**
      * Simple value class which represents a measured timing.
+     * <p>
+     * Instances can also be used as handle to submit timings for a fixed key, see
+     * {@link Microtiming#timing(String, String)}.
+     * </p>
      */
     public static class Timing {
 
         protected String category;
         protected String key;
-        protected Average avg;
+        /*
+         * Created once the timing is registered, as handles are also created while the framework is disabled. As
+         * several threads might register the same handle at once, this is only set via HISTOGRAM_UPDATER.
+         */
+        protected volatile Histogram histogram;
         protected volatile boolean changedSinceLastCheck = false;
+        protected volatile boolean registered = false;
+
+        /*
+         * Only used to pick the keys to evict, therefore stale reads don't matter
+         */
+        protected long lastUsed;
 
         protected Timing(String category, String key) {
             this.category = category;
             this.key = key;
-            this.avg = new Average();
         }
 
         /**
@@ -74,12 +120,30 @@ public class Microtiming {
         }
 
         /**
-         * Returns the average duration and number of occurrences of the key.
+         * Returns the distribution of the durations (in microseconds) and the number of occurrences of the key.
+         * <p>
+         * Note that if a sampling rate is set, only every n-th occurrence is recorded.
+         * </p>
          *
-         * @return the {@link sirius.kernel.health.Average} associated with the key
+         * @return the {@link sirius.kernel.health.Histogram} associated with the key or <tt>null</tt> if this is a
+         * handle which has not been used yet
          */
-        public Average getAvg() {
-            return avg;
+        public Histogram getHistogram() {
+            return histogram;
+        }
+
+        /**
+         * Submits a new timing for the key represented by this handle.
+         * <p>
+         * This is a no-op if the framework is disabled or if the timing is skipped due to the sampling rate.
+         * </p>
+         *
+         * @param durationInNanos the number of nanoseconds used as timing for the key
+         */
+        public void submit(long durationInNanos) {
+            if (enabled && isSampled()) {
+                addNanos(durationInNanos);
+            }
         }
 
         /*
@@ -98,8 +162,12 @@ public class Microtiming {
          * <p>Also toggles the changed flag to <tt>true</tt></p>
          */
         protected void addNanos(long durationInNanos) {
-            avg.addValue(durationInNanos / 1000);
-            changedSinceLastCheck = true;
+            Timing target = registered ? this : register(this);
+            target.histogram.addValue(durationInNanos / 1000);
+            target.lastUsed = System.currentTimeMillis();
+            if (!target.changedSinceLastCheck) {
+                target.changedSinceLastCheck = true;
+            }
         }
     }
 
@@ -115,7 +183,34 @@ public class Microtiming {
      * last call to <tt>getTimings()</tt>
      */
     public static List<Timing> getTimings() {
-        return timings.values().stream().filter(t -> t.readAndUnmark()).collect(Collectors.toList());
+        return timings.values()
+                      .stream()
+                      .flatMap(c -> c.values().stream())
+                      .filter(t -> t.readAndUnmark())
+                      .collect(Collectors.toList());
+    }
+
+    /**
+     * Returns a handle which can be used to submit timings for the given key.
+     * <p>
+     * This should be used by code which submits timings for the same key frequently, as it saves looking up the key
+     * for each submission.
+     * </p>
+     *
+     * @param category the category of the key
+     * @param key      the key for which timings will be submitted
+     * @return a handle used to submit timings via {@link Timing#submit(long)}
+     */
+    @Nonnull
+    public static Timing timing(@Nonnull String category, @Nonnull String key) {
+        Map<String, Timing> keys = timings.get(category);
+        Timing result = keys == null ? null : keys.get(key);
+        if (result == null) {
+            // The handle is only registered, once a timing is submitted
+            result = new Timing(category, key);
+        }
+
+        return result;
     }
 
     /**
@@ -127,18 +222,71 @@ public class Microtiming {
      * A convenient way to call this method is to use {@link sirius.kernel.commons.Watch#submitMicroTiming(String, String)}
      * </p>
      *
+     * @param category        the category of the key
      * @param key             the key for which the value should be submitted
      * @param durationInNanos the number of nanoseconds used as timing for the given key
      */
     public static void submit(String category, String key, long durationInNanos) {
-        if (!enabled) {
+        if (enabled && isSampled()) {
+            timing(category, key).addNanos(durationInNanos);
+        }
+    }
+
+    /*
+     * Determines if the current timing is recorded based on the sampling rate
+     */
+    private static boolean isSampled() {
+        int rate = samplingRate;
+        return rate <= 1 || ThreadLocalRandom.current().nextInt(rate) == 0;
+    }
+
+    /*
+     * Adds the given timing to the live set. Returns the timing which was registered for the same key by another
+     * thread in the meantime, if there is one.
+     */
+    private static Timing register(Timing timing) {
+        if (timing.histogram == null) {
+            HISTOGRAM_UPDATER.compareAndSet(timing, null, new Histogram());
+        }
+        Map<String, Timing> keys = timings.computeIfAbsent(timing.category, c -> Maps.newConcurrentMap());
+        Timing existing = keys.putIfAbsent(timing.key, timing);
+        if (existing != null) {
+            return existing;
+        }
+        timing.registered = true;
+        if (numTimings.incrementAndGet() > maxKeys) {
+            evict();
+        }
+
+        return timing;
+    }
+
+    /*
+     * Removes the keys which were not used for the longest time. If another thread is already evicting keys, this
+     * is a no-op.
+     */
+    private static void evict() {
+        if (!evicting.compareAndSet(false, true)) {
             return;
         }
-        // Safety check in case someone leaves the framework enabled for a very long period of time...
-        if (timings.size() > 1000) {
-            timings.clear();
+        try {
+            List<Timing> candidates = Lists.newArrayList();
+            for (Map<String, Timing> keys : timings.values()) {
+                candidates.addAll(keys.values());
+            }
+            candidates.sort(Comparator.comparingLong(t -> t.lastUsed));
+            int numToEvict = candidates.size() - maxKeys + maxKeys * EVICTION_PERCENT / 100;
+            for (int i = 0; i < numToEvict && i < candidates.size(); i++) {
+                Timing timing = candidates.get(i);
+                Map<String, Timing> keys = timings.get(timing.category);
+                if (keys != null && keys.remove(timing.key, timing)) {
+                    timing.registered = false;
+                    numTimings.decrementAndGet();
+                }
+            }
+        } finally {
+            evicting.set(false);
         }
-        timings.computeIfAbsent(category + key, k -> new Timing(category, key)).addNanos(durationInNanos);
     }
 
     /**
@@ -157,12 +305,39 @@ public class Microtiming {
      */
     public static void setEnabled(boolean enabled) {
         if (enabled != Microtiming.enabled) {
+            // Handles held by other classes have to re-register themselves once they are used again
+            for (Map<String, Timing> keys : timings.values()) {
+                for (Timing timing : keys.values()) {
+                    timing.registered = false;
+                }
+            }
             timings.clear();
+            numTimings.set(0);
             lastReset = System.currentTimeMillis();
         }
         Microtiming.enabled = enabled;
     }
 
+    /**
+     * Returns the sampling rate.
+     *
+     * @return the sampling rate. A value of <tt>n</tt> indicates that only every n-th timing (chosen randomly) is
+     * recorded
+     */
+    public static int getSamplingRate() {
+        return Math.max(1, samplingRate);
+    }
+
+    /**
+     * Sets the sampling rate.
+     *
+     * @param samplingRate specifies that only every n-th timing (chosen randomly) is recorded. Use <tt>1</tt> to
+     *                     record all timings.
+     */
+    public static void setSamplingRate(int samplingRate) {
+        Microtiming.samplingRate = Math.max(1, samplingRate);
+    }
+
     /**
      * Returns the timestamp of the last reset
      *
@@ -3,6 +3,7 @@ package sirius.kernel.timer;
 import com.google.common.collect.Lists;
 import sirius.kernel.Sirius;
 import sirius.kernel.async.Async;
+import sirius.kernel.async.ScheduledTask;
 import sirius.kernel.di.Lifecycle;
 import sirius.kernel.di.PartCollection;
 import sirius.kernel.di.std.Parts;
@@ -15,11 +16,10 @@ import javax.annotation.Nonnull;
 import java.io.File;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalTime;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -42,6 +42,7 @@ public class TimerService implements Lifecycle {
 
     protected static final Log LOG = Log.get("timer");
     private static final String TIMER = "timer";
+    private static final String TIMER_DISPATCH = "timer-dispatch";
 
     @Parts(EveryTenSeconds.class)
     private PartCollection<EveryTenSeconds> everyTenSeconds;
@@ -62,10 +63,10 @@ public class TimerService implements Lifecycle {
     @Parts(EveryDay.class)
     private PartCollection<EveryDay> everyDay;
 
-    private Timer timer;
+    private ScheduledTask timer;
     private ReentrantLock timerLock = new ReentrantLock();
 
-    private class InnerTimerTask extends TimerTask {
+    private class InnerTimerTask implements Runnable {
 
         @Override
         public void run() {
@@ -109,12 +110,17 @@ public class TimerService implements Lifecycle {
     /*
      * Used to frequently check loaded properties when running in DEVELOP mode.
      */
-    private Timer reloadTimer;
+    private ScheduledTask reloadTimer;
 
     /*
      * Determines the interval which files are checked for update
      */
-    private static final int RELOAD_INTERVAL = 1000;
+    private static final Duration RELOAD_INTERVAL = Duration.ofSeconds(1);
+
+    /*
+     * Determines the interval in which the timer checks which timed tasks are due
+     */
+    private static final Duration TIMER_INTERVAL = Duration.ofSeconds(10);
 
     /**
      * Returns the timestamp of the last execution of the 10 second timer.
@@ -181,28 +187,28 @@ public class TimerService implements Lifecycle {
 
     private void startResourceWatcher() {
         if (reloadTimer == null) {
-            reloadTimer = new Timer(true);
-            reloadTimer.schedule(new TimerTask() {
-                @Override
-                public void run() {
-                    Thread.currentThread().setName("Resource-Watch");
-                    for (WatchedResource res : loadedFiles) {
-                        long lastModified = res.file.lastModified();
-                        if (lastModified > res.lastModified) {
-                            res.lastModified = res.file.lastModified();
-                            LOG.INFO("Reloading: %s", res.file.toString());
-                            try {
-                                res.callback.run();
-                            } catch (Exception e) {
-                                Exceptions.handle()
-                                          .withSystemErrorMessage("Error reloading %s: %s (%s)", res.file.toString())
-                                          .error(e)
-                                          .handle();
-                            }
-                        }
-                    }
+            reloadTimer = Async.scheduleAtFixedRate(TIMER, RELOAD_INTERVAL, RELOAD_INTERVAL, this::checkResources);
+        }
+    }
+
+    /*
+     * Invokes the callback of each watched resource which was modified since the last check
+     */
+    private void checkResources() {
+        for (WatchedResource res : loadedFiles) {
+            long lastModified = res.file.lastModified();
+            if (lastModified > res.lastModified) {
+                res.lastModified = res.file.lastModified();
+                LOG.INFO("Reloading: %s", res.file.toString());
+                try {
+                    res.callback.run();
+                } catch (Exception e) {
+                    Exceptions.handle()
+                              .withSystemErrorMessage("Error reloading %s: %s (%s)", res.file.toString())
+                              .error(e)
+                              .handle();
                 }
-            }, RELOAD_INTERVAL, RELOAD_INTERVAL);
+            }
         }
     }
 
@@ -210,13 +216,13 @@ public class TimerService implements Lifecycle {
         try {
             timerLock.lock();
             try {
-                if (timer == null) {
-                    timer = new Timer(true);
-                } else {
+                if (timer != null) {
                     timer.cancel();
-                    timer = new Timer(true);
                 }
-                timer.schedule(new InnerTimerTask(), 1000 * 10, 1000 * 10);
+                timer = Async.scheduleAtFixedRate(TIMER_DISPATCH,
+                                                  TIMER_INTERVAL,
+                                                  TIMER_INTERVAL,
+                                                  new InnerTimerTask());
             } finally {
                 timerLock.unlock();
             }
@@ -236,6 +242,10 @@ public class TimerService implements Lifecycle {
             } finally {
                 timerLock.unlock();
             }
+            if (reloadTimer != null) {
+                reloadTimer.cancel();
+                reloadTimer = null;
+            }
         } catch (Throwable t) {
             Exceptions.handle(LOG, t);
         }
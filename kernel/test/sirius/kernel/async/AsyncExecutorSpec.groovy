@@ -0,0 +1,240 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.kernel.async
+
+import sirius.testtools.SiriusBaseSpecification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+
+class AsyncExecutorSpec extends SiriusBaseSpecification {
+
+    def "the CallContext of the caller is transferred to forked tasks"() {
+        given:
+        def exec = AsyncExecutor.createVirtual("test-context", 10) ?: new AsyncExecutor("test-context", 2, 10)
+        Async.@executors.put("test-context", exec)
+        CallContext.getCurrent().addToMDC("test-key", "test-value")
+        def caller = CallContext.getCurrent()
+        def forked = new Promise<CallContext>()
+        def mdcValue = new Promise<String>()
+        when:
+        Async.executor("test-context").fork({
+            forked.success(CallContext.getCurrent())
+            mdcValue.success(CallContext.getCurrent().getMDCValue("test-key").asString())
+        }).execute()
+        then:
+        forked.await(5, TimeUnit.SECONDS)
+        forked.get().is(caller)
+        mdcValue.await(5, TimeUnit.SECONDS)
+        mdcValue.get() == "test-value"
+        cleanup:
+        Async.@executors.remove("test-context")
+        exec.shutdown()
+    }
+
+    def "tasks are dropped or executed by the caller once the queue is full"() {
+        given:
+        def exec = new AsyncExecutor("test-overload", 1, 1)
+        Async.@executors.put("test-overload", exec)
+        def started = new CountDownLatch(1)
+        def release = new CountDownLatch(1)
+        def droppedHandlerCalled = false
+        def callerThread = Thread.currentThread()
+        def executingThread = null
+        when:
+        Async.executor("test-overload").fork({
+            started.countDown()
+            release.await(5, TimeUnit.SECONDS)
+        }).execute()
+        started.await(5, TimeUnit.SECONDS)
+        Async.executor("test-overload").fork({}).execute()
+        Async.executor("test-overload").fork({}).dropOnOverload({ droppedHandlerCalled = true }).execute()
+        Async.executor("test-overload").fork({ executingThread = Thread.currentThread() }).execute()
+        release.countDown()
+        then:
+        droppedHandlerCalled
+        exec.getDropped() == 1
+        executingThread.is(callerThread)
+        exec.getBlocked() == 1
+        cleanup:
+        Async.@executors.remove("test-overload")
+        exec.shutdown()
+    }
+
+    def "an adaptive executor grows its pool while tasks wait too long"() {
+        given:
+        def exec = new AsyncExecutor("test-adaptive", 1, 0)
+        exec.enableAdaptiveSizing(1, 4, 10, 50)
+        Async.@executors.put("test-adaptive", exec)
+        when:
+        40.times {
+            Async.executor("test-adaptive").fork({ Thread.sleep(20) }).execute()
+        }
+        def deadline = System.currentTimeMillis() + 5000
+        while (exec.getCorePoolSize() < 4 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10)
+        }
+        then:
+        exec.getCorePoolSize() == 4
+        cleanup:
+        Async.@executors.remove("test-adaptive")
+        exec.shutdownNow()
+    }
+
+    def "an overloaded executor only sheds tasks which can be dropped"() {
+        given:
+        def exec = new AsyncExecutor("test-shedding", 1, 0)
+        exec.enableAdaptiveSizing(1, 1, 10, 50)
+        Async.@executors.put("test-shedding", exec)
+        def droppedHandlerCalled = false
+        def callerThread = Thread.currentThread()
+        def executingThread = new Promise<Thread>()
+        when:
+        100.times {
+            Async.executor("test-shedding").fork({ Thread.sleep(20) }).execute()
+        }
+        def deadline = System.currentTimeMillis() + 5000
+        while (!exec.overloaded && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10)
+        }
+        Async.executor("test-shedding").fork({}).dropOnOverload({ droppedHandlerCalled = true }).execute()
+        Async.executor("test-shedding").fork({ executingThread.success(Thread.currentThread()) }).execute()
+        then:
+        exec.overloaded
+        droppedHandlerCalled
+        exec.getShed() == 1
+        exec.getDropped() == 1
+        exec.getBlocked() == 0
+        !executingThread.isCompleted()
+        exec.getQueue().size() > 0
+        cleanup:
+        Async.@executors.remove("test-shedding")
+        exec.shutdownNow()
+    }
+
+    def "queued tasks are started by their priority and then in the order they were submitted"() {
+        given:
+        def exec = new AsyncExecutor("test-priority", 1, 0)
+        Async.@executors.put("test-priority", exec)
+        def release = new CountDownLatch(1)
+        def started = new CountDownLatch(1)
+        def order = Collections.synchronizedList([])
+        when:
+        Async.executor("test-priority").fork({
+            started.countDown()
+            release.await(5, TimeUnit.SECONDS)
+        }).execute()
+        started.await(5, TimeUnit.SECONDS)
+        Async.executor("test-priority").fork({ order.add("low") }).execute()
+        Async.executor("test-priority").fork({ order.add("high-1") }).priority(5).execute()
+        Async.executor("test-priority").fork({ order.add("medium") }).priority(1).execute()
+        def last = Async.executor("test-priority").fork({ order.add("high-2") }).priority(5).execute()
+        def lowest = Async.executor("test-priority").fork({ order.add("lowest") }).priority(-1).execute()
+        release.countDown()
+        then:
+        lowest.await(5, TimeUnit.SECONDS)
+        last.isSuccessful()
+        order == ["high-1", "high-2", "medium", "low", "lowest"]
+        cleanup:
+        Async.@executors.remove("test-priority")
+        exec.shutdown()
+    }
+
+    def "tasks are skipped if their deadline passed while they were queued"() {
+        given:
+        def exec = new AsyncExecutor("test-deadline", 1, 0)
+        Async.@executors.put("test-deadline", exec)
+        def release = new CountDownLatch(1)
+        def started = new CountDownLatch(1)
+        def executed = false
+        when:
+        Async.executor("test-deadline").fork({
+            started.countDown()
+            release.await(5, TimeUnit.SECONDS)
+        }).execute()
+        started.await(5, TimeUnit.SECONDS)
+        def expired = Async.executor("test-deadline")
+                           .fork({ executed = true })
+                           .deadline(20, TimeUnit.MILLISECONDS)
+                           .execute()
+        def onTime = Async.executor("test-deadline").fork({}).deadline(5, TimeUnit.SECONDS).execute()
+        Thread.sleep(100)
+        release.countDown()
+        then:
+        onTime.await(5, TimeUnit.SECONDS)
+        onTime.isSuccessful()
+        expired.isFailed()
+        expired.getFailure() instanceof TimeoutException
+        !executed
+        exec.getExpired() == 1
+        cleanup:
+        Async.@executors.remove("test-deadline")
+        exec.shutdown()
+    }
+
+    def "the drop handler is invoked if the deadline of a task passed while it was queued"() {
+        given:
+        def exec = new AsyncExecutor("test-deadline-drop", 1, 0)
+        Async.@executors.put("test-deadline-drop", exec)
+        def release = new CountDownLatch(1)
+        def started = new CountDownLatch(1)
+        def dropped = new CountDownLatch(1)
+        when:
+        Async.executor("test-deadline-drop").fork({
+            started.countDown()
+            release.await(5, TimeUnit.SECONDS)
+        }).execute()
+        started.await(5, TimeUnit.SECONDS)
+        def expired = Async.executor("test-deadline-drop")
+                           .fork({})
+                           .dropOnOverload({ dropped.countDown() })
+                           .deadline(20, TimeUnit.MILLISECONDS)
+                           .execute()
+        Thread.sleep(100)
+        release.countDown()
+        then:
+        dropped.await(5, TimeUnit.SECONDS)
+        expired.getFailure() instanceof TimeoutException
+        exec.getExpired() == 1
+        cleanup:
+        Async.@executors.remove("test-deadline-drop")
+        exec.shutdown()
+    }
+
+    def "concurrent submissions never exceed the capacity of the queue"() {
+        given:
+        def exec = new AsyncExecutor("test-capacity", 1, 10)
+        Async.@executors.put("test-capacity", exec)
+        def release = new CountDownLatch(1)
+        def started = new CountDownLatch(1)
+        when:
+        Async.executor("test-capacity").fork({
+            started.countDown()
+            release.await(5, TimeUnit.SECONDS)
+        }).execute()
+        started.await(5, TimeUnit.SECONDS)
+        def submitters = (1..8).collect {
+            Thread.start {
+                100.times {
+                    Async.executor("test-capacity").fork({}).dropOnOverload({}).execute()
+                }
+            }
+        }
+        submitters.each { it.join() }
+        def queued = exec.getQueue().size()
+        release.countDown()
+        then:
+        queued == 10
+        exec.getDropped() == 790
+        cleanup:
+        Async.@executors.remove("test-capacity")
+        exec.shutdown()
+    }
+}
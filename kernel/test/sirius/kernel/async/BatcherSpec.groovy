@@ -0,0 +1,73 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.kernel.async
+
+import sirius.testtools.SiriusBaseSpecification
+
+import java.time.Duration
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.function.Consumer
+
+class BatcherSpec extends SiriusBaseSpecification {
+
+    def "batcher processes all items in order and in batches of at most maxBatch items"() {
+        given:
+        def seen = Collections.synchronizedList([])
+        def batchSizes = Collections.synchronizedList([])
+        def batcher = Async.batcher("batcher-test", 50, Duration.ofMillis(20), { List<Integer> batch ->
+            batchSizes.add(batch.size())
+            seen.addAll(batch)
+        } as Consumer)
+        when:
+        (1..1000).each { batcher.submit(it) }
+        def end = System.currentTimeMillis() + 5000
+        while (seen.size() < 1000 && System.currentTimeMillis() < end) {
+            Thread.sleep(10)
+        }
+        then:
+        seen == (1..1000).toList()
+        batchSizes.every { it <= 50 }
+    }
+
+    def "batcher processes pending items after maxDelay"() {
+        given:
+        def seen = Collections.synchronizedList([])
+        def batcher = Async.batcher("batcher-test", 50, Duration.ofMillis(20), { seen.addAll(it) } as Consumer)
+        when:
+        batcher.submit("a")
+        Thread.sleep(500)
+        then:
+        seen == ["a"]
+        batcher.getPending() == 0
+    }
+
+    def "offer rejects items instead of blocking once the buffer is full"() {
+        given:
+        def release = new CountDownLatch(1)
+        def seen = Collections.synchronizedList([])
+        def batcher = Async.batcher("batcher-test", 1, Duration.ofMillis(1), { List<Integer> batch ->
+            release.await(5, TimeUnit.SECONDS)
+            seen.addAll(batch)
+        } as Consumer)
+        when:
+        def accepted = (1..20).collect { batcher.offer(it) }
+        release.countDown()
+        def end = System.currentTimeMillis() + 5000
+        while (seen.size() < accepted.count(true) && System.currentTimeMillis() < end) {
+            Thread.sleep(10)
+        }
+        then:
+        !accepted.every()
+        accepted.count(true) <= 11
+        seen == (1..20).findAll { accepted[it - 1] }
+        batcher.getPending() == 0
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.kernel.async;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the overhead of {@link CallContext} when executing a task, as done by
+ * <tt>ExecutionBuilder.TaskWrapper</tt>.
+ * <p>
+ * This is not part of the test suite. Run it via {@link #main(String[])} and add <tt>-prof gc</tt> to the options
+ * to also see the allocation rate.
+ * </p>
+ *
+ * @author Andreas Haufler (aha@scireum.de)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CallContextBenchmark {
+
+    private CallContext parent;
+
+    @Setup
+    public void setup() {
+        parent = CallContext.initialize();
+        parent.addToMDC("uri", "/benchmark");
+    }
+
+    @TearDown
+    public void tearDown() {
+        CallContext.detach();
+    }
+
+    /**
+     * Forks the context of the caller into a task, runs the task and restores the previous context.
+     *
+     * @return the context used by the task
+     */
+    @Benchmark
+    public CallContext fork() {
+        CallContext forked = CallContext.getCurrent();
+        CallContext previous = CallContext.getCurrentIfAvailable();
+        try {
+            CallContext.setCurrent(forked);
+            TaskContext.get().setSystem("benchmark");
+            return forked;
+        } finally {
+            CallContext.setCurrent(previous);
+        }
+    }
+
+    /**
+     * Runs a task in a new context, as done for tasks which are not forked and for each HTTP request.
+     *
+     * @return the context used by the task
+     */
+    @Benchmark
+    public CallContext initialize() {
+        try {
+            CallContext ctx = CallContext.initialize();
+            TaskContext.get().setSystem("benchmark");
+            return ctx;
+        } finally {
+            CallContext.setCurrent(parent);
+        }
+    }
+
+    /**
+     * Reads the flow-id, which is formatted once it is first requested.
+     *
+     * @return the flow-id of a new context
+     */
+    @Benchmark
+    public String initializeAndReadFlow() {
+        try {
+            return CallContext.initialize().getMDCValue(CallContext.MDC_FLOW).asString();
+        } finally {
+            CallContext.setCurrent(parent);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(CallContextBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.kernel.async;
+
+import org.junit.Test;
+import sirius.kernel.commons.Tuple;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the MDC and sub-context handling of {@link CallContext}.
+ *
+ * @author Andreas Haufler (aha@scireum.de)
+ */
+public class CallContextTest {
+
+    @Test
+    public void mdcKeepsInsertionOrderAndStartsWithFlow() {
+        CallContext ctx = CallContext.initialize();
+        try {
+            for (int i = 0; i < 20; i++) {
+                ctx.addToMDC("key" + i, "value" + i);
+            }
+            ctx.addToMDC("key3", "changed");
+            ctx.removeFromMDC("key5");
+            ctx.addToMDC("key20", null);
+
+            List<Tuple<String, String>> mdc = ctx.getMDC();
+            assertEquals(21, mdc.size());
+            assertEquals(CallContext.MDC_FLOW, mdc.get(0).getFirst());
+            assertTrue(mdc.get(0).getSecond().startsWith(CallContext.getNodeName() + "/"));
+            assertEquals("changed", mdc.get(4).getSecond());
+            assertEquals("key6", mdc.get(6).getFirst());
+            assertEquals("", ctx.getMDCValue("key20").asString());
+            assertTrue(ctx.getMDCValue("key5").isNull());
+        } finally {
+            CallContext.detach();
+        }
+    }
+
+    @Test
+    public void flowContainsNodeThreadAndSequence() {
+        try {
+            String first = CallContext.initialize().getMDCValue(CallContext.MDC_FLOW).asString();
+            String second = CallContext.initialize().getMDCValue(CallContext.MDC_FLOW).asString();
+            String prefix = CallContext.getNodeName() + "/" + Thread.currentThread().getId() + "-";
+            assertTrue(first.startsWith(prefix));
+            assertEquals(Long.parseLong(first.substring(prefix.length())) + 1,
+                         Long.parseLong(second.substring(prefix.length())));
+        } finally {
+            CallContext.detach();
+        }
+    }
+
+    @Test
+    public void flowCanBeReplaced() {
+        CallContext ctx = CallContext.initialize();
+        try {
+            String flow = ctx.getMDCValue(CallContext.MDC_FLOW).asString();
+            assertEquals(flow, ctx.getMDCValue(CallContext.MDC_FLOW).asString());
+            ctx.addToMDC(CallContext.MDC_FLOW, "remote/42");
+            assertEquals("remote/42", ctx.getMDCValue(CallContext.MDC_FLOW).asString());
+            assertFalse(flow.equals(CallContext.initialize().getMDCValue(CallContext.MDC_FLOW).asString()));
+        } finally {
+            CallContext.detach();
+        }
+    }
+
+    @Test
+    public void subContextsAreCreatedOnce() {
+        CallContext ctx = CallContext.initialize();
+        try {
+            TaskContext taskContext = ctx.get(TaskContext.class);
+            assertSame(taskContext, ctx.get(TaskContext.class));
+            assertSame(ctx, CallContext.getCurrent());
+        } finally {
+            CallContext.detach();
+        }
+        assertNull(CallContext.getCurrentIfAvailable());
+    }
+
+    @Test
+    public void mdcOfOtherThreadsIsVisible() throws Exception {
+        final CountDownLatch installed = new CountDownLatch(1);
+        final CountDownLatch inspected = new CountDownLatch(1);
+        final AtomicLong threadId = new AtomicLong();
+        Thread thread = new Thread(() -> {
+            threadId.set(Thread.currentThread().getId());
+            CallContext.initialize().addToMDC("test", "visible");
+            installed.countDown();
+            try {
+                inspected.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            CallContext.detach();
+        });
+        thread.start();
+        installed.await();
+        Map<String, String> mdc = CallContext.getMDC(threadId.get());
+        inspected.countDown();
+        thread.join();
+
+        assertEquals(Arrays.asList(CallContext.MDC_FLOW, "test"), Arrays.asList(mdc.keySet().toArray()));
+        assertEquals("visible", mdc.get("test"));
+        assertTrue(CallContext.getMDC(threadId.get()).isEmpty());
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.kernel.async
+
+import sirius.testtools.SiriusBaseSpecification
+
+import java.util.concurrent.ForkJoinPool
+import java.util.function.Function
+
+class ParallelMapSpec extends SiriusBaseSpecification {
+
+    def "parallelMap returns the results in the order of the items"() {
+        given:
+        def items = (1..1000).toList()
+        when:
+        def result = Async.parallelMap(items, { it * 2 } as Function)
+        then:
+        result == items.collect { it * 2 }
+    }
+
+    def "parallelMap propagates the CallContext of the caller"() {
+        given:
+        CallContext.getCurrent().addToMDC("parallel-test", "yes")
+        when:
+        def result = Async.parallelMap((1..100).toList(), {
+            CallContext.getCurrent().getMDCValue("parallel-test").asString()
+        } as Function)
+        then:
+        result.every { it == "yes" }
+        cleanup:
+        CallContext.getCurrent().removeFromMDC("parallel-test")
+    }
+
+    def "parallel chunks can modify the MDC without interfering with each other"() {
+        given:
+        def flow = CallContext.getCurrent().getMDCValue(CallContext.MDC_FLOW).asString()
+        when:
+        def result = Async.parallelMap((1..1000).toList(), { item ->
+            def key = "parallel-item-" + (item % 16)
+            CallContext.getCurrent().addToMDC(key, String.valueOf(item))
+            Thread.yield()
+            return CallContext.getCurrent().getMDCValue(key).asString() == String.valueOf(item)
+                    && CallContext.getCurrent().getMDCValue(CallContext.MDC_FLOW).asString() == flow
+        } as Function)
+        then:
+        result.every { it }
+        !CallContext.getCurrent().getMDC().any { it.getFirst().startsWith("parallel-item-") }
+    }
+
+    def "parallelMap skips all remaining items once the TaskContext is cancelled"() {
+        when:
+        def result = Async.parallelMap((1..1000).toList(), {
+            TaskContext.get().cancel()
+            return it
+        } as Function)
+        then:
+        result.size() == 1000
+        result.count { it == null } > 0
+    }
+
+    def "parallelMap uses its own pool when called from within another ForkJoinPool"() {
+        given:
+        def foreignPool = new ForkJoinPool(2)
+        when:
+        def threads = foreignPool.submit({
+            Async.parallelMap((1..100).toList(), { Thread.currentThread().getName() } as Function)
+        }).get()
+        then:
+        threads.every { it.startsWith(Async.PARALLEL + "-") }
+        cleanup:
+        foreignPool.shutdown()
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.kernel.async;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the overhead of completing a {@link Promise} and of notifying its handlers.
+ * <p>
+ * This is not part of the test suite. Run it via {@link #main(String[])} and add <tt>-prof gc</tt> to the options
+ * to also see the allocation rate.
+ * </p>
+ *
+ * @author Andreas Haufler (aha@scireum.de)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PromiseBenchmark {
+
+    /*
+     * Completed once and shared by all threads to measure the contention when adding handlers to a completed promise
+     */
+    private final Promise<Integer> completed = new Promise<>();
+
+    {
+        completed.success(42);
+    }
+
+    /**
+     * Creates a promise, adds a handler and completes it.
+     *
+     * @param blackhole used to consume the value passed to the handler
+     * @return the completed promise
+     */
+    @Benchmark
+    public Promise<Integer> handlerBeforeCompletion(Blackhole blackhole) {
+        Promise<Integer> promise = new Promise<>();
+        promise.onSuccess(blackhole::consume);
+        promise.success(42);
+        return promise;
+    }
+
+    /**
+     * Creates a promise, adds four handlers and completes it.
+     *
+     * @param blackhole used to consume the value passed to the handlers
+     * @return the completed promise
+     */
+    @Benchmark
+    public Promise<Integer> multipleHandlers(Blackhole blackhole) {
+        Promise<Integer> promise = new Promise<>();
+        for (int i = 0; i < 4; i++) {
+            promise.onSuccess(blackhole::consume);
+        }
+        promise.success(42);
+        return promise;
+    }
+
+    /**
+     * Maps a promise, which creates a second promise and chains both.
+     *
+     * @return the mapped promise
+     */
+    @Benchmark
+    public Promise<Integer> map() {
+        Promise<Integer> promise = new Promise<>();
+        Promise<Integer> result = promise.map(value -> value + 1);
+        promise.success(42);
+        return result;
+    }
+
+    /**
+     * Adds a handler to a promise which is already completed, from four threads at once.
+     *
+     * @param blackhole used to consume the value passed to the handler
+     */
+    @Benchmark
+    @Threads(4)
+    public void handlerAfterCompletionContended(Blackhole blackhole) {
+        completed.onSuccess(blackhole::consume);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(PromiseBenchmark.class.getSimpleName()).build()).run();
+    }
+}
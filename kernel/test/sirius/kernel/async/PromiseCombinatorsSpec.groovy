@@ -0,0 +1,79 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.kernel.async
+
+import sirius.testtools.SiriusBaseSpecification
+
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+
+class PromiseCombinatorsSpec extends SiriusBaseSpecification {
+
+    def "allOf keeps the order of the given promises"() {
+        given:
+        def a = new Promise<String>()
+        def b = new Promise<String>()
+        when:
+        def result = Promise.allOf([a, b])
+        b.success("B")
+        a.success("A")
+        then:
+        result.isSuccessful()
+        result.get() == ["A", "B"]
+    }
+
+    def "allOf fails as soon as one promise fails"() {
+        given:
+        def a = new Promise<String>()
+        def b = new Promise<String>()
+        when:
+        def result = Promise.allOf([a, b])
+        b.fail(new IllegalStateException())
+        then:
+        result.isFailed()
+        result.getFailure() instanceof IllegalStateException
+    }
+
+    def "anyOf uses the first successful value and only fails if all promises fail"() {
+        given:
+        def a = new Promise<String>()
+        def b = new Promise<String>()
+        def c = new Promise<String>()
+        def d = new Promise<String>()
+        when:
+        def first = Promise.anyOf([a, b])
+        a.fail(new IllegalStateException())
+        b.success("B")
+        and:
+        def second = Promise.anyOf([c, d])
+        c.fail(new IllegalStateException())
+        d.fail(new IllegalArgumentException())
+        then:
+        first.get() == "B"
+        second.getFailure() instanceof IllegalArgumentException
+    }
+
+    def "withTimeout and orElse provide a fallback for slow promises"() {
+        given:
+        def slow = new Promise<String>()
+        when:
+        def result = slow.withTimeout(50, TimeUnit.MILLISECONDS)
+        def fallback = result.orElse("fallback")
+        then:
+        fallback.await(1, TimeUnit.SECONDS)
+        result.getFailure() instanceof TimeoutException
+        fallback.get() == "fallback"
+    }
+
+    def "await returns false if the promise does not complete in time"() {
+        expect:
+        !new Promise<String>().await(10, TimeUnit.MILLISECONDS)
+    }
+
+}
@@ -0,0 +1,184 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.kernel.async;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Stress test for {@link Promise} which races the registration of completion handlers against the completion.
+ *
+ * @author Andreas Haufler (aha@scireum.de)
+ */
+public class PromiseStressTest {
+
+    private static final int ITERATIONS = 2000;
+    private static final int HANDLERS_PER_THREAD = 4;
+    private static final int NUM_THREADS = 4;
+
+    /*
+     * The threads racing against each other are re-used by all iterations
+     */
+    private static ExecutorService executor;
+
+    @BeforeClass
+    public static void startExecutor() {
+        executor = Executors.newFixedThreadPool(NUM_THREADS + 1);
+    }
+
+    @AfterClass
+    public static void stopExecutor() {
+        executor.shutdownNow();
+    }
+
+    private static class CountingHandler implements CompletionHandler<Integer> {
+        private final AtomicInteger successes;
+        private final AtomicInteger failures;
+
+        CountingHandler(AtomicInteger successes, AtomicInteger failures) {
+            this.successes = successes;
+            this.failures = failures;
+        }
+
+        @Override
+        public void onSuccess(Integer value) throws Exception {
+            successes.incrementAndGet();
+        }
+
+        @Override
+        public void onFailure(Throwable throwable) throws Exception {
+            failures.incrementAndGet();
+        }
+    }
+
+    @Test
+    public void eachHandlerIsInvokedExactlyOnce() throws Exception {
+        for (int i = 0; i < ITERATIONS; i++) {
+            final Promise<Integer> promise = new Promise<>();
+            final AtomicInteger successes = new AtomicInteger();
+            final AtomicInteger failures = new AtomicInteger();
+            final CyclicBarrier start = new CyclicBarrier(NUM_THREADS + 1);
+            final CountDownLatch done = new CountDownLatch(NUM_THREADS + 1);
+            for (int t = 0; t < NUM_THREADS; t++) {
+                executor.execute(() -> {
+                    await(start);
+                    for (int h = 0; h < HANDLERS_PER_THREAD; h++) {
+                        promise.onComplete(new CountingHandler(successes, failures));
+                    }
+                    done.countDown();
+                });
+            }
+            executor.execute(() -> {
+                await(start);
+                promise.success(42);
+                done.countDown();
+            });
+            done.await();
+
+            assertEquals(NUM_THREADS * HANDLERS_PER_THREAD, successes.get());
+            assertEquals(0, failures.get());
+            assertEquals(Integer.valueOf(42), promise.get());
+        }
+    }
+
+    @Test
+    public void onlyTheFirstCompletionWins() throws Exception {
+        for (int i = 0; i < ITERATIONS; i++) {
+            final Promise<Integer> promise = new Promise<>();
+            final AtomicInteger successes = new AtomicInteger();
+            final AtomicInteger failures = new AtomicInteger();
+            promise.onComplete(new CountingHandler(successes, failures));
+            final CyclicBarrier start = new CyclicBarrier(NUM_THREADS);
+            final CountDownLatch done = new CountDownLatch(NUM_THREADS);
+            for (int t = 0; t < NUM_THREADS; t++) {
+                final int value = t;
+                executor.execute(() -> {
+                    await(start);
+                    promise.success(value);
+                    done.countDown();
+                });
+            }
+            done.await();
+
+            assertEquals(1, successes.get());
+            assertTrue(promise.isSuccessful());
+        }
+    }
+
+    @Test
+    public void handlersAreNotifiedInOrderOfRegistration() {
+        Promise<Integer> promise = new Promise<>();
+        List<Integer> order = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            final int index = i;
+            promise.onSuccess(value -> order.add(index));
+        }
+        promise.success(1);
+        promise.onSuccess(value -> order.add(5));
+
+        assertEquals(6, order.size());
+        for (int i = 0; i < 6; i++) {
+            assertEquals(Integer.valueOf(i), order.get(i));
+        }
+    }
+
+    @Test
+    public void anErrorInASuccessHandlerNotifiesTheFailureHandlers() {
+        Promise<Integer> promise = new Promise<>();
+        AtomicInteger failures = new AtomicInteger();
+        promise.onSuccess(value -> {
+            throw new IllegalStateException("Handler failed");
+        });
+        promise.onFailure(error -> failures.incrementAndGet());
+        promise.success(1);
+
+        assertEquals(1, failures.get());
+        assertTrue(promise.isSuccessful());
+        assertTrue(promise.isFailed());
+        assertEquals(Integer.valueOf(1), promise.get());
+
+        // A second failure is ignored, as the promise has already failed
+        promise.fail(new IllegalStateException("Second failure"));
+        assertEquals(1, failures.get());
+    }
+
+    @Test
+    public void aFailedPromiseCannotBeCompletedSuccessfully() {
+        Promise<Integer> promise = new Promise<>();
+        AtomicInteger successes = new AtomicInteger();
+        promise.onSuccess(value -> successes.incrementAndGet());
+        promise.fail(new IllegalStateException("Failed"));
+        promise.success(1);
+
+        assertEquals(0, successes.get());
+        assertFalse(promise.isSuccessful());
+        assertTrue(promise.isFailed());
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.kernel.async
+
+import sirius.testtools.SiriusBaseSpecification
+
+import java.time.Duration
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class ScheduleSpec extends SiriusBaseSpecification {
+
+    def "schedule executes a task once its delay has passed"() {
+        given:
+        def latch = new CountDownLatch(1)
+        def start = System.nanoTime()
+        def executed = 0L
+        when:
+        Async.schedule("schedule-test", Duration.ofMillis(200), {
+            executed = System.nanoTime()
+            latch.countDown()
+        })
+        then:
+        latch.await(5, TimeUnit.SECONDS)
+        TimeUnit.NANOSECONDS.toMillis(executed - start) >= 200
+    }
+
+    def "cancelled tasks are not executed"() {
+        given:
+        def counter = new AtomicInteger()
+        when:
+        def task = Async.schedule("schedule-test", Duration.ofMillis(100), { counter.incrementAndGet() })
+        task.cancel()
+        Thread.sleep(300)
+        then:
+        counter.get() == 0
+    }
+
+    def "scheduleAtFixedRate executes a task periodically until it is cancelled"() {
+        given:
+        def counter = new AtomicInteger()
+        when:
+        def task = Async.scheduleAtFixedRate("schedule-test",
+                                             Duration.ofMillis(50),
+                                             Duration.ofMillis(100),
+                                             { counter.incrementAndGet() })
+        Thread.sleep(520)
+        task.cancel()
+        def executions = counter.get()
+        Thread.sleep(300)
+        then:
+        executions >= 4
+        counter.get() == executions
+    }
+    def "tasks are retried later instead of being executed by the timer if the executor is overloaded"() {
+        given:
+        def exec = new AsyncExecutor("schedule-overload", 1, 1)
+        Async.@executors.put("schedule-overload", exec)
+        def started = new CountDownLatch(1)
+        def release = new CountDownLatch(1)
+        def executed = new CountDownLatch(1)
+        def executingThread = null
+        when:
+        Async.executor("schedule-overload").fork({
+            started.countDown()
+            release.await(5, TimeUnit.SECONDS)
+        }).execute()
+        started.await(5, TimeUnit.SECONDS)
+        Async.executor("schedule-overload").fork({}).execute()
+        Async.schedule("schedule-overload", Duration.ofMillis(10), {
+            executingThread = Thread.currentThread().getName()
+            executed.countDown()
+        })
+        Thread.sleep(200)
+        def droppedWhileOverloaded = exec.getDropped()
+        release.countDown()
+        then:
+        droppedWhileOverloaded >= 1
+        executed.await(5, TimeUnit.SECONDS)
+        executingThread.startsWith("schedule-overload-")
+        exec.getBlocked() == 0
+        cleanup:
+        Async.@executors.remove("schedule-overload")
+        exec.shutdown()
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.kernel.cache
+
+import com.google.common.io.Files
+import sirius.testtools.SiriusBaseSpecification
+
+import java.util.concurrent.atomic.AtomicInteger
+
+class CacheSnapshotsSpec extends SiriusBaseSpecification {
+
+    def "a snapshot restores serializable values and recomputes all other keys"() {
+        given:
+        def computations = new AtomicInteger()
+        def cache = CacheManager.createCache("test-snapshot", { key ->
+            computations.incrementAndGet()
+            return key == "object" ? new Object() : key + "-computed"
+        } as ValueComputer, null)
+        cache.put("a", "a-value")
+        cache.put("b", "b-value")
+        cache.get("object")
+        cache.snapshot = true
+        and:
+        def directory = Files.createTempDir()
+        def snapshots = new CacheSnapshots()
+        snapshots.directory = directory.getAbsolutePath()
+        snapshots.parallelism = 2
+        when:
+        snapshots.stopped()
+        cache.clearLocally()
+        snapshots.started()
+        then:
+        waitUntil { cache.contains("object") }
+        cache.get("a") == "a-value"
+        cache.get("b") == "b-value"
+        computations.get() == 2
+        and:
+        directory.listFiles().length == 0
+    }
+
+    def "a snapshot of a cache which is not created yet is restored once the cache is created"() {
+        given:
+        def cache = CacheManager.createCache("test-snapshot-lazy")
+        cache.put("a", "a-value")
+        cache.snapshot = true
+        and:
+        def directory = Files.createTempDir()
+        def snapshots = new CacheSnapshots()
+        snapshots.directory = directory.getAbsolutePath()
+        snapshots.parallelism = 2
+        when:
+        snapshots.stopped()
+        CacheManager.getCaches().remove(cache)
+        snapshots.started()
+        waitUntil { snapshots.@pendingSnapshots.containsKey("test-snapshot-lazy") }
+        def pendingFiles = directory.listFiles().length
+        and:
+        // Simulates CacheManager.createCache, as the snapshot setting of a new cache is read from the config
+        def createdCache = new ManagedCache("test-snapshot-lazy", null, null, null)
+        createdCache.init()
+        createdCache.snapshot = true
+        CacheManager.getCaches().add(createdCache)
+        snapshots.cacheCreated(createdCache)
+        then:
+        pendingFiles == 1
+        waitUntil { createdCache.contains("a") }
+        createdCache.get("a") == "a-value"
+        waitUntil { directory.listFiles().length == 0 }
+    }
+
+    def "a restored value never replaces a value which is already present"() {
+        given:
+        def cache = CacheManager.createCache("test-snapshot-restore")
+        cache.put("a", "a-value")
+        when:
+        cache.restore("a", "a-snapshot", 0)
+        cache.restore("b", "b-snapshot", 0)
+        then:
+        cache.get("a") == "a-value"
+        cache.get("b") == "b-snapshot"
+        cache.getSize() == 2
+    }
+
+    /*
+     * Waits until the given condition is fulfilled (at most 10s), as snapshots are loaded asynchronously
+     */
+    private static boolean waitUntil(Closure<Boolean> condition) {
+        long deadline = System.currentTimeMillis() + 10000
+        while (!condition.call()) {
+            if (System.currentTimeMillis() > deadline) {
+                return false
+            }
+            Thread.sleep(10)
+        }
+        return true
+    }
+}
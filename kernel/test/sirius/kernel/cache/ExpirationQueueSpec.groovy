@@ -0,0 +1,75 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.kernel.cache
+
+import sirius.testtools.SiriusBaseSpecification
+
+class ExpirationQueueSpec extends SiriusBaseSpecification {
+
+    def "pollExpired returns expired entries in the order of their expiry"() {
+        given:
+        def queue = new ExpirationQueue()
+        queue.add(entry("a", 100))
+        queue.add(entry("b", 300))
+        queue.add(entry("c", 200))
+        queue.add(entry("d", 50))
+        when:
+        def expired = queue.pollExpired(250)
+        then:
+        expired.collect { it.getKey() } == ["d", "a", "c"]
+        queue.size() == 1
+        queue.getOldest(10).collect { it.getKey() } == ["b"]
+    }
+
+    def "entries without a max age never expire and are kept behind all others"() {
+        given:
+        def queue = new ExpirationQueue()
+        queue.add(entry("never", 0))
+        queue.add(entry("a", 200))
+        queue.add(entry("b", 100))
+        when:
+        def expired = queue.pollExpired(Long.MAX_VALUE - 1)
+        then:
+        expired.collect { it.getKey() } == ["b", "a"]
+        queue.getOldest(10).collect { it.getKey() } == ["never"]
+    }
+
+    def "entries with the same expiry are kept in the order of insertion"() {
+        given:
+        def queue = new ExpirationQueue()
+        queue.add(entry("a", 100))
+        queue.add(entry("b", 100))
+        queue.add(entry("c", 100))
+        when:
+        queue.remove(queue.getOldest(2).get(1))
+        then:
+        queue.pollExpired(100).collect { it.getKey() } == ["a", "c"]
+        queue.size() == 0
+    }
+
+    def "restored entries are evicted according to their original expiry"() {
+        given:
+        def cache = new ManagedCache("test-expiration-restore", null, null, null)
+        cache.maxSize = 10
+        cache.timeToLive = 60000
+        cache.build()
+        and:
+        cache.put("fresh", "a")
+        cache.restore("restored", "b", System.currentTimeMillis() - 1000)
+        when:
+        cache.runEviction()
+        then:
+        cache.contains("fresh")
+        !cache.contains("restored")
+    }
+
+    private static CacheEntry entry(String key, long maxAge) {
+        return new CacheEntry(key, key, maxAge, 0)
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.kernel.cache;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays a synthetic access trace against a plain LRU cache and against one using frequency admission.
+ * <p>
+ * The trace consists of a skewed distribution of frequently used keys, which is interrupted by scans over keys
+ * which are only used once (like an export job iterating over all products).
+ * </p>
+ *
+ * @author Andreas Haufler (aha@scireum.de)
+ */
+public class FrequencyAdmissionReplayTest {
+
+    private static final int CACHE_SIZE = 1000;
+    private static final int NUM_KEYS = 5000;
+    private static final int NUM_ACCESSES = 200000;
+    private static final int SCAN_INTERVAL = 20000;
+    private static final int SCAN_LENGTH = 5000;
+
+    @Test
+    public void frequencyAdmissionResistsScans() {
+        double lruHitRate = replay(createCache("replay-lru", false));
+        double tinyLfuHitRate = replay(createCache("replay-tinylfu", true));
+        assertTrue(tinyLfuHitRate > lruHitRate);
+    }
+
+    private ManagedCache<Integer, Integer> createCache(String name, boolean frequencyAdmission) {
+        ManagedCache<Integer, Integer> cache = new ManagedCache<>(name, null, null, null);
+        cache.maxSize = CACHE_SIZE;
+        if (frequencyAdmission) {
+            cache.frequencySketch = new FrequencySketch(CACHE_SIZE);
+        }
+        cache.build();
+        return cache;
+    }
+
+    private double replay(ManagedCache<Integer, Integer> cache) {
+        Random random = new Random(42);
+        int[] misses = new int[1];
+        ValueComputer<Integer, Integer> computer = key -> {
+            misses[0]++;
+            return key;
+        };
+        int accesses = 0;
+        int nextScanKey = NUM_KEYS;
+        for (int i = 0; i < NUM_ACCESSES; i++) {
+            if (i % SCAN_INTERVAL == 0) {
+                for (int j = 0; j < SCAN_LENGTH; j++) {
+                    cache.get(nextScanKey++, computer);
+                    accesses++;
+                }
+            }
+            cache.get((int) (Math.pow(random.nextDouble(), 3) * NUM_KEYS), computer);
+            accesses++;
+        }
+        return 100d * (accesses - misses[0]) / accesses;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.kernel.cache
+
+import sirius.kernel.commons.ValueProvider
+import sirius.testtools.SiriusBaseSpecification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class InlineCacheSpec extends SiriusBaseSpecification {
+
+    def "concurrent calls only compute the value once"() {
+        given:
+        def computations = new AtomicInteger()
+        def release = new CountDownLatch(1)
+        def cache = CacheManager.createInlineCache(1, TimeUnit.HOURS, {
+            release.await(10, TimeUnit.SECONDS)
+            return computations.incrementAndGet()
+        } as ValueProvider)
+        when:
+        def threads = (1..8).collect { Thread.start { cache.get() } }
+        waitUntil { threads.every { it.getState() in [Thread.State.BLOCKED, Thread.State.TIMED_WAITING] } }
+        release.countDown()
+        threads.each { it.join() }
+        then:
+        computations.get() == 1
+        cache.get() == 1
+        cache.getRefreshes() == 1
+    }
+
+    def "an expired value is computed by the caller unless refreshInBackground is enabled"() {
+        given:
+        def computations = new AtomicInteger()
+        def cache = CacheManager.createTenSecondsInlineCache({
+            return computations.incrementAndGet()
+        } as ValueProvider)
+        and:
+        cache.get()
+        when:
+        expire(cache, 11000)
+        then:
+        cache.get() == 2
+        cache.getRefreshes() == 2
+    }
+
+    def "an expired value is returned while it is refreshed in the background"() {
+        given:
+        def computations = new AtomicInteger()
+        def cache = CacheManager.createInlineCache(10, TimeUnit.SECONDS, {
+            return computations.incrementAndGet()
+        } as ValueProvider, true)
+        and:
+        cache.get()
+        when:
+        expire(cache, 11000)
+        then:
+        cache.get() == 1
+        waitUntil { cache.get() == 2 }
+        cache.getRefreshes() == 2
+    }
+
+    def "a failing refresh is not retried on every call and the value expires after another ttl"() {
+        given:
+        def computations = new AtomicInteger()
+        def cache = CacheManager.createInlineCache(10, TimeUnit.SECONDS, {
+            if (computations.incrementAndGet() > 1) {
+                throw new IllegalStateException("Computation failed")
+            }
+            return "value"
+        } as ValueProvider, true)
+        and:
+        cache.get()
+        when:
+        expire(cache, 11000)
+        cache.get()
+        waitUntil { computations.get() == 2 && !cache.refreshing.get() }
+        then:
+        (1..10).every { cache.get() == "value" }
+        computations.get() == 2
+        when:
+        expire(cache, 21000)
+        def error = null
+        try {
+            cache.get()
+        } catch (IllegalStateException e) {
+            error = e
+        }
+        then:
+        error != null
+        computations.get() == 3
+    }
+
+    def "hits and refreshes of all inline caches are counted"() {
+        given:
+        def hits = CacheManager.getInlineCacheHits()
+        def refreshes = CacheManager.getInlineCacheRefreshes()
+        def cache = CacheManager.createInlineCache(1, TimeUnit.HOURS, { "value" } as ValueProvider)
+        when:
+        cache.get()
+        cache.get()
+        cache.get()
+        then:
+        CacheManager.getInlineCacheRefreshes() - refreshes == 1
+        CacheManager.getInlineCacheHits() - hits == 2
+    }
+
+    /*
+     * Lets the value of the given cache appear as if it had been computed the given number of milliseconds ago
+     */
+    private static void expire(InlineCache cache, long millisAgo) {
+        cache.lastComputation = System.currentTimeMillis() - millisAgo
+    }
+
+    /*
+     * Waits until the given condition is fulfilled (at most 10s), as refreshes complete asynchronously
+     */
+    private static boolean waitUntil(Closure<Boolean> condition) {
+        long deadline = System.currentTimeMillis() + 10000
+        while (!condition.call()) {
+            if (System.currentTimeMillis() > deadline) {
+                return false
+            }
+            Thread.sleep(10)
+        }
+        return true
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.kernel.cache
+
+import sirius.testtools.SiriusBaseSpecification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class ManagedCacheSpec extends SiriusBaseSpecification {
+
+    def "concurrent lookups of the same key only compute the value once"() {
+        given:
+        def computations = new AtomicInteger()
+        def release = new CountDownLatch(1)
+        def cache = CacheManager.createCache("test-coalescing", { key ->
+            computations.incrementAndGet()
+            release.await(10, TimeUnit.SECONDS)
+            return key + "-value"
+        } as ValueComputer, null)
+        and:
+        def results = Collections.synchronizedList([])
+        def threads = (1..8).collect {
+            Thread.start {
+                results.add(cache.get("key"))
+            }
+        }
+        when:
+        Thread.sleep(200)
+        release.countDown()
+        threads.each { it.join() }
+        then:
+        computations.get() == 1
+        and:
+        results.size() == 8
+        results.every { it == "key-value" }
+        and:
+        cache.getCoalescedComputations() > 0
+    }
+
+    def "serveStale delivers an outdated value while it is recomputed in the background"() {
+        given:
+        def computations = new AtomicInteger()
+        def cache = new ManagedCache("test-serve-stale", { key ->
+            key + "-" + computations.incrementAndGet()
+        } as ValueComputer, null, null)
+        cache.maxSize = 10
+        cache.timeToLive = 60000
+        cache.serveStale = true
+        cache.build()
+        and:
+        cache.get("key")
+        when:
+        expire(cache, "key", 1000)
+        cache.runEviction()
+        then:
+        cache.get("key") == "key-1"
+        and:
+        waitUntil { cache.get("key") == "key-2" }
+        computations.get() == 2
+    }
+
+    def "serveStale evicts entries once they are outdated for another ttl"() {
+        given:
+        def cache = new ManagedCache("test-serve-stale-eviction", null, null, null)
+        cache.maxSize = 10
+        cache.timeToLive = 60000
+        cache.serveStale = true
+        cache.build()
+        and:
+        cache.put("outdated", "a")
+        cache.put("expired", "b")
+        when:
+        expire(cache, "expired", 61000)
+        expire(cache, "outdated", 1000)
+        cache.runEviction()
+        then:
+        cache.contains("outdated")
+        !cache.contains("expired")
+    }
+
+    def "getAll delivers cached values and computes all missing values with a single batch"() {
+        given:
+        def batches = []
+        def computer = [computeAll: { keys ->
+            batches.add(new ArrayList(keys))
+            keys.collectEntries { [(it): it + "-value"] }
+        }] as BatchValueComputer
+        def cache = new ManagedCache("test-get-all", computer, null, null)
+        cache.maxSize = 10
+        cache.build()
+        and:
+        cache.put("a", "a-cached")
+        when:
+        def result = cache.getAll(["a", "b", "c"])
+        then:
+        result == [a: "a-cached", b: "b-value", c: "c-value"]
+        batches == [["b", "c"]]
+        and:
+        cache.getAll(["c", "b"]) == [c: "c-value", b: "b-value"]
+        batches.size() == 1
+    }
+
+    def "a lookup of a key which is computed by getAll waits for the batch"() {
+        given:
+        def batches = new AtomicInteger()
+        def release = new CountDownLatch(1)
+        def computer = [computeAll: { keys ->
+            batches.incrementAndGet()
+            release.await(10, TimeUnit.SECONDS)
+            keys.collectEntries { [(it): it + "-value"] }
+        }] as BatchValueComputer
+        def cache = new ManagedCache("test-get-all-coalescing", computer, null, null)
+        cache.maxSize = 10
+        cache.build()
+        and:
+        def batchResult = null
+        def batch = Thread.start {
+            batchResult = cache.getAll(["x", "y"])
+        }
+        waitUntil { cache.pendingComputations.containsKey("x") }
+        when:
+        def lookupResult = null
+        def lookup = Thread.start {
+            lookupResult = cache.get("x")
+        }
+        waitUntil { cache.getCoalescedComputations() > 0 }
+        release.countDown()
+        batch.join()
+        lookup.join()
+        then:
+        batches.get() == 1
+        batchResult == [x: "x-value", y: "y-value"]
+        lookupResult == "x-value"
+        cache.pendingComputations.isEmpty()
+    }
+
+    def "a cache with a maxWeight is bounded by the weights of its values"() {
+        given:
+        def cache = new ManagedCache("test-max-weight", null, null, { key, value ->
+            value.length()
+        } as ValueWeigher)
+        cache.maxWeight = 100
+        cache.build()
+        when:
+        (1..20).each { cache.put("key-" + it, "x" * 10) }
+        then:
+        cache.getWeight() <= 100
+        cache.getSize() < 20
+        cache.getWeight() == cache.getSize() * 10
+        and:
+        cache.contains("key-20")
+    }
+
+    def "the weight of a cache is updated when values are replaced or removed"() {
+        given:
+        def cache = new ManagedCache("test-weight-tracking", null, null, { key, value ->
+            value.length()
+        } as ValueWeigher)
+        cache.maxWeight = 1000
+        cache.build()
+        when:
+        cache.put("a", "x" * 10)
+        cache.put("b", "x" * 20)
+        cache.put("a", "x" * 5)
+        then:
+        cache.getWeight() == 25
+        when:
+        cache.remove("b")
+        then:
+        cache.getWeight() == 5
+    }
+
+    def "entries evicted from the heap are kept off-heap and promoted on access"() {
+        given:
+        def cache = new ManagedCache("test-off-heap", null, null, null)
+        cache.maxSize = 2
+        cache.offHeap = new OffHeapStore(64 * 1024)
+        cache.build()
+        when:
+        (1..5).each { cache.put("key-" + it, "value-" + it) }
+        then:
+        cache.getSize() == 2
+        cache.getOffHeapSize() == 3
+        and:
+        cache.get("key-1") == "value-1"
+        cache.getOffHeapSize() == 3
+        (1..5).every { cache.contains("key-" + it) }
+    }
+
+    def "the remove listener is notified when an entry is discarded from the off-heap tier"() {
+        given:
+        def removed = []
+        def cache = new ManagedCache("test-off-heap-discard", null, null, null)
+        cache.maxSize = 2
+        // Provides two blocks, which is enough for two small values
+        cache.offHeap = new OffHeapStore(1024)
+        cache.build()
+        cache.onRemove { tuple -> removed.add(tuple.getFirst()) }
+        when:
+        (1..5).each { cache.put("key-" + it, "value-" + it) }
+        then:
+        removed == ["key-1"]
+        cache.getSize() == 2
+        cache.getOffHeapSize() == 2
+    }
+
+    def "runEviction purges expired entries from the off-heap tier"() {
+        given:
+        def removed = []
+        def cache = new ManagedCache("test-off-heap-expiry", null, null, null)
+        cache.maxSize = 1
+        cache.timeToLive = 60000
+        cache.offHeap = new OffHeapStore(64 * 1024)
+        cache.build()
+        cache.onRemove { tuple -> removed.add(tuple.getFirst()) }
+        and:
+        cache.restore("expired", "a", System.currentTimeMillis() - 1000)
+        cache.put("fresh", "b")
+        when:
+        cache.runEviction()
+        then:
+        removed == ["expired"]
+        cache.getOffHeapSize() == 0
+        cache.contains("fresh")
+        !cache.contains("expired")
+    }
+
+    def "put stores values in a full cache with frequency admission"() {
+        given:
+        def cache = new ManagedCache("test-admission-put", null, null, null)
+        cache.maxSize = 2
+        cache.frequencySketch = new FrequencySketch(2)
+        cache.build()
+        and:
+        cache.put("a", "a")
+        cache.put("b", "b")
+        when:
+        cache.put("c", "c")
+        then:
+        cache.get("c") == "c"
+        cache.getSize() == 2
+    }
+
+    def "put replaces a value which was moved off-heap in a full cache with frequency admission"() {
+        given:
+        def cache = new ManagedCache("test-admission-off-heap", null, null, null)
+        cache.maxSize = 2
+        cache.frequencySketch = new FrequencySketch(2)
+        cache.offHeap = new OffHeapStore(64 * 1024)
+        cache.build()
+        and:
+        cache.put("key", "outdated")
+        cache.put("a", "a")
+        cache.put("b", "b")
+        (1..5).each {
+            cache.get("a")
+            cache.get("b")
+        }
+        when:
+        cache.put("key", "current")
+        then:
+        cache.get("key") == "current"
+    }
+
+    def "keys invalidated by another node are matched by their string representation"() {
+        given:
+        def cache = new ManagedCache("test-remote-removal", null, null, null)
+        cache.maxSize = 10
+        cache.build()
+        and:
+        cache.put(1, "a")
+        cache.put(2, "b")
+        cache.put("3", "c")
+        when:
+        cache.removeRemoteKeys(["1", "3"])
+        then:
+        !cache.contains(1)
+        cache.contains(2)
+        !cache.contains("3")
+    }
+
+    /*
+     * Lets the entry of the given key expire the given number of milliseconds ago, without waiting for its ttl
+     */
+    private static void expire(ManagedCache cache, Object key, long millisAgo) {
+        def entry = cache.data.getIfPresent(key)
+        cache.expirationQueue.remove(entry)
+        entry.setMaxAge(System.currentTimeMillis() - millisAgo)
+        cache.expirationQueue.add(entry)
+    }
+
+    /*
+     * Waits until the given condition is fulfilled (at most 10s), as background computations complete asynchronously
+     */
+    private static boolean waitUntil(Closure<Boolean> condition) {
+        long deadline = System.currentTimeMillis() + 10000
+        while (!condition.call()) {
+            if (System.currentTimeMillis() > deadline) {
+                return false
+            }
+            Thread.sleep(10)
+        }
+        return true
+    }
+}
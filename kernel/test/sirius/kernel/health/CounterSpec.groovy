@@ -0,0 +1,66 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.kernel.health
+
+import sirius.testtools.SiriusBaseSpecification
+
+import java.util.concurrent.TimeUnit
+
+class CounterSpec extends SiriusBaseSpecification {
+
+    def "a counter overflows to 0 once its max value is exceeded"() {
+        given:
+        def counter = new Counter(3)
+        when:
+        3.times { counter.inc() }
+        def beforeOverflow = counter.getCount()
+        def afterOverflow = counter.inc()
+        counter.add(6)
+        then:
+        beforeOverflow == 3
+        afterOverflow == 0
+        counter.getCount() == 2
+    }
+
+    def "a counter starts over once its sum overflows"() {
+        given:
+        def counter = new Counter()
+        when:
+        counter.add(Long.MAX_VALUE)
+        counter.inc()
+        def afterOverflow = counter.getCount()
+        counter.inc()
+        then:
+        afterOverflow == 0
+        counter.getCount() == 1
+    }
+
+    def "increments of concurrent threads are not lost"() {
+        given:
+        def counter = new Counter()
+        when:
+        def threads = (1..8).collect { Thread.start { 10000.times { counter.inc() } } }
+        threads.each { it.join() }
+        then:
+        counter.getCount() == 80000
+    }
+
+    def "getDuration reports the time since the last reset in the given unit"() {
+        given:
+        def counter = new Counter()
+        when:
+        counter.reset()
+        Thread.sleep(100)
+        then:
+        counter.getDuration(TimeUnit.MILLISECONDS) >= 100
+        counter.getDuration(TimeUnit.MILLISECONDS) < 10000
+        counter.getDuration(TimeUnit.MINUTES) == 0
+        counter.getDuration(TimeUnit.MICROSECONDS) >= 100000
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.kernel.health
+
+import sirius.testtools.SiriusBaseSpecification
+
+class HistogramSpec extends SiriusBaseSpecification {
+
+    def "percentiles are at most one bucket above the exact value"() {
+        given:
+        def histogram = new Histogram()
+        when:
+        (1..1000).each { histogram.addValue(it) }
+        def snapshot = histogram.getSnapshot()
+        then:
+        snapshot.getCount() == 1000
+        snapshot.getMean() == 500.5d
+        snapshot.getMax() == 1000
+        snapshot.getP50() >= 500 && snapshot.getP50() <= 500 * 1.125
+        snapshot.getP95() >= 950 && snapshot.getP95() <= 950 * 1.125
+        snapshot.getP99() >= 990 && snapshot.getP99() <= 1000
+    }
+
+    def "small values are counted exactly"() {
+        given:
+        def histogram = new Histogram()
+        when:
+        [0, 1, 2, 3, 4, 5, 6, 7].each { histogram.addValue(it) }
+        then:
+        histogram.getSnapshot().getPercentile(50) == 3
+        histogram.getSnapshot().getPercentile(100) == 7
+    }
+
+    def "getAndReset starts a new interval but keeps the total count"() {
+        given:
+        def histogram = new Histogram()
+        when:
+        (1..10).each { histogram.addValue(it * 100) }
+        def first = histogram.getAndReset()
+        histogram.addValue(5)
+        then:
+        first.getCount() == 10
+        first.getMax() == 1000
+        histogram.getSnapshot().getCount() == 1
+        histogram.getSnapshot().getMax() == 5
+        histogram.getCount() == 11
+    }
+}
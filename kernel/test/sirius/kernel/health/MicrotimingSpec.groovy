@@ -0,0 +1,82 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.kernel.health
+
+import sirius.testtools.SiriusBaseSpecification
+
+import java.util.concurrent.CyclicBarrier
+
+class MicrotimingSpec extends SiriusBaseSpecification {
+
+    def cleanup() {
+        Microtiming.setSamplingRate(1)
+        Microtiming.setEnabled(false)
+    }
+
+    def "handles record timings once the framework is enabled"() {
+        given:
+        def handle = Microtiming.timing("TEST", "handle")
+        when:
+        handle.submit(1000)
+        Microtiming.setEnabled(true)
+        handle.submit(5000000)
+        handle.submit(7000000)
+        def timings = Microtiming.getTimings()
+        then:
+        timings.size() == 1
+        timings[0].getKey() == "handle"
+        timings[0].getHistogram().getCount() == 2
+        timings[0].getHistogram().getSnapshot().getMax() == 7000
+    }
+
+    def "the number of keys is bounded without dropping recently used keys"() {
+        given:
+        Microtiming.setEnabled(true)
+        when:
+        (1..1500).each { Microtiming.submit("TEST", "key" + it, 1000) }
+        Microtiming.submit("TEST", "key1500", 1000)
+        def timings = Microtiming.getTimings()
+        then:
+        timings.size() <= 1000
+        timings.size() >= 900
+        timings.find { it.getKey() == "key1500" }.getHistogram().getCount() == 2
+    }
+
+    def "only every n-th timing is recorded if a sampling rate is set"() {
+        given:
+        Microtiming.setEnabled(true)
+        Microtiming.setSamplingRate(10)
+        when:
+        (1..10000).each { Microtiming.submit("TEST", "sampled", 1000) }
+        def count = Microtiming.getTimings().find { it.getKey() == "sampled" }.getHistogram().getCount()
+        then:
+        count > 500
+        count < 2000
+    }
+
+    def "no timings are lost if a handle is registered by several threads at once"() {
+        given:
+        Microtiming.setEnabled(true)
+        when:
+        def counts = (1..20).collect { round ->
+            def handle = Microtiming.timing("TEST", "concurrent" + round)
+            def barrier = new CyclicBarrier(8)
+            def threads = (1..8).collect {
+                Thread.start {
+                    barrier.await()
+                    100.times { handle.submit(1000) }
+                }
+            }
+            threads.each { it.join() }
+            Microtiming.timing("TEST", "concurrent" + round).getHistogram().getCount()
+        }
+        then:
+        counts.every { it == 800 }
+    }
+}
@@ -12,7 +12,6 @@ import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
 import com.google.common.base.Charsets;
-import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.io.CharStreams;
 import com.typesafe.config.Config;
@@ -58,9 +57,11 @@ import javax.annotation.Nullable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Central access class to the persistence layer.
@@ -88,6 +89,11 @@ public class Index {
      */
     public static final String ASYNC_CATEGORY_INDEX_INTEGRITY = "index-ref-integrity";
 
+    /**
+     * Async executor category for actions delayed by {@link #callAfterUpdate(Runnable)}
+     */
+    public static final String ASYNC_CATEGORY_INDEX_DELAY = "index-delay";
+
     /**
      * Contains the database schema as expected by the java model
      */
@@ -122,21 +128,15 @@ public class Index {
      */
     private static Promise<Boolean> readyPromise = new Promise<Boolean>();
 
-    /**
-     * Internal timer which is used to delay some actions. This is necessary, as ES takes up to one second to make a
-     * write visible to the next read
-     */
-    private static Timer delayLineTimer;
-
     /**
      * Can be used to cache frequently used entities.
      */
     private static Cache<String, Object> globalCache = CacheManager.createCache("entity-cache");
 
     /*
-     * Average query duration for statistical measures
+     * Distribution of the query durations for statistical measures
      */
-    private static Average queryDuration = new Average();
+    private static Histogram queryDuration = new Histogram();
     /*
      * Counts how many threads used blockThreadForUpdate
      */
@@ -292,41 +292,20 @@ public class Index {
     }
 
     /**
-     * Used to delay an action for at least one second
+     * Delay used by {@link #callAfterUpdate(Runnable)}, as ES takes up to one second to make a write visible to the
+     * next read
      */
-    private static class WaitingBlock {
-        private long waitline;
-        private Runnable cmd;
-        private CallContext context;
-
-        public WaitingBlock(Runnable cmd) {
-            this.cmd = cmd;
-            this.waitline = System.currentTimeMillis() + 1000;
-            this.context = CallContext.getCurrent();
-        }
-
-        /**
-         * Determines if the action was delayed long enough
-         *
-         * @return <tt>true</tt> if the action was delayed long enough, <tt>false</tt> otherwise
-         */
-        public boolean isRunnable() {
-            return System.currentTimeMillis() > waitline;
-        }
+    private static final Duration UPDATE_DELAY = Duration.ofSeconds(1);
 
-        /**
-         * Executes the action in its own executor
-         */
-        public void execute() {
-            CallContext.setCurrent(context);
-            Async.executor("index-delay").fork(cmd).execute();
-        }
-    }
+    /**
+     * Max number of actions which are delayed at the same time. If more actions are pending, the caller is blocked
+     */
+    private static final int MAX_DELAYED_ACTIONS = 100;
 
     /**
-     * Queue of actions which need to be delayed one second
+     * Number of actions which are currently delayed
      */
-    private static List<WaitingBlock> oneSecondDelayLine = Lists.newArrayList();
+    private static AtomicInteger delayedActions = new AtomicInteger();
 
     /**
      * Adds an action to the delay line, which ensures that it is at least delayed for one second
@@ -334,13 +313,15 @@ public class Index {
      * @param cmd to command to be delayed
      */
     public static void callAfterUpdate(final Runnable cmd) {
-        synchronized (oneSecondDelayLine) {
-            if (oneSecondDelayLine.size() < 100) {
-                delays.inc();
-                oneSecondDelayLine.add(new WaitingBlock(cmd));
-                return;
-            }
+        if (delayedActions.incrementAndGet() <= MAX_DELAYED_ACTIONS) {
+            delays.inc();
+            Async.schedule(ASYNC_CATEGORY_INDEX_DELAY, UPDATE_DELAY, () -> {
+                delayedActions.decrementAndGet();
+                cmd.run();
+            });
+            return;
         }
+        delayedActions.decrementAndGet();
         blockThreadForUpdate();
         cmd.run();
     }
@@ -353,21 +334,24 @@ public class Index {
             if (!isReady()) {
                 return;
             }
-            ClusterHealthResponse res = getClient().admin().cluster().prepareHealth().execute().actionGet();
-            collector.metric("ES-Nodes", res.getNumberOfNodes(), null, asMetricState(res.getStatus()));
-            collector.metric("ES-InitializingShards",
-                             res.getInitializingShards(),
-                             null,
-                             res.getInitializingShards() > 0 ? MetricState.YELLOW : MetricState.GRAY);
-            collector.metric("ES-RelocatingShards",
-                             res.getRelocatingShards(),
-                             null,
-                             res.getRelocatingShards() > 0 ? MetricState.YELLOW : MetricState.GRAY);
-            collector.metric("ES-UnassignedShards",
-                             res.getUnassignedShards(),
-                             null,
-                             res.getUnassignedShards() > 0 ? MetricState.RED : MetricState.GRAY);
-            collector.metric("index-delay-line", "ES-DelayLine", oneSecondDelayLine.size(), null);
+            // Determining the cluster health requires a request to ES, therefore this is skipped by scrapes of /metrics
+            if (collector.isCollectingGauges()) {
+                ClusterHealthResponse res = getClient().admin().cluster().prepareHealth().execute().actionGet();
+                collector.metric("ES-Nodes", res.getNumberOfNodes(), null, asMetricState(res.getStatus()));
+                collector.metric("ES-InitializingShards",
+                                 res.getInitializingShards(),
+                                 null,
+                                 res.getInitializingShards() > 0 ? MetricState.YELLOW : MetricState.GRAY);
+                collector.metric("ES-RelocatingShards",
+                                 res.getRelocatingShards(),
+                                 null,
+                                 res.getRelocatingShards() > 0 ? MetricState.YELLOW : MetricState.GRAY);
+                collector.metric("ES-UnassignedShards",
+                                 res.getUnassignedShards(),
+                                 null,
+                                 res.getUnassignedShards() > 0 ? MetricState.RED : MetricState.GRAY);
+            }
+            collector.metric("index-delay-line", "ES-DelayLine", delayedActions.get(), null);
             collector.differentialMetric("index-blocks", "index-blocks", "ES-DelayBlocks", blocks.getCount(), "/min");
             collector.differentialMetric("index-delays", "index-delays", "ES-Delays", delays.getCount(), "/min");
             collector.differentialMetric("index-locking-errors",
@@ -375,7 +359,7 @@ public class Index {
                                          "ES-OptimisticLock-Errors",
                                          optimisticLockErrors.getCount(),
                                          "/min");
-            collector.metric("index-queryDuration", "ES-QueryDuration", queryDuration.getAndClearAverage(), "ms");
+            collector.histogram("index-queryDuration", "ES-QueryDuration", queryDuration, "ms");
             collector.differentialMetric("index-queries",
                                          "index-queries",
                                          "ES-Queries",
@@ -394,32 +378,6 @@ public class Index {
         }
     }
 
-    /**
-     * Implementation of the timer which handles delayed actions.
-     */
-    protected static class DelayLineHandler extends TimerTask {
-
-        @Override
-        public void run() {
-            try {
-                synchronized (oneSecondDelayLine) {
-                    Iterator<WaitingBlock> iter = oneSecondDelayLine.iterator();
-                    while (iter.hasNext()) {
-                        WaitingBlock next = iter.next();
-                        if (next.isRunnable()) {
-                            next.execute();
-                            iter.remove();
-                        } else {
-                            return;
-                        }
-                    }
-                }
-            } catch (Throwable e) {
-                Exceptions.handle(LOG, e);
-            }
-        }
-    }
-
     /**
      * Manually blocks the current thread for one second, to make a write visible in ES.
      * <p>
@@ -490,16 +448,11 @@ public class Index {
             }
             ready = true;
             readyPromise.success(true);
-
-            delayLineTimer = new Timer("index-delay");
-            delayLineTimer.schedule(new DelayLineHandler(), 1000, 1000);
         }
 
         @Override
         public void stopped() {
-            if (delayLineTimer != null) {
-                delayLineTimer.cancel();
-            }
+            // Delayed actions are discarded along with the timer of Async
         }
 
         @Override
@@ -832,7 +785,9 @@ public class Index {
             entity.version = indexResponse.getVersion();
             entity.afterSave();
             queryDuration.addValue(w.elapsedMillis());
-            w.submitMicroTiming("ES", "UPDATE " + entity.getClass().getName());
+            if (Microtiming.isEnabled()) {
+                w.submitMicroTiming("ES", "UPDATE " + entity.getClass().getName());
+            }
             return entity;
         } catch (VersionConflictEngineException e) {
             if (LOG.isFINE()) {
@@ -970,7 +925,9 @@ public class Index {
                 }
             } finally {
                 queryDuration.addValue(w.elapsedMillis());
-                w.submitMicroTiming("ES", "UPDATE " + clazz.getName());
+                if (Microtiming.isEnabled()) {
+                    w.submitMicroTiming("ES", "UPDATE " + clazz.getName());
+                }
             }
         } catch (Throwable t) {
             throw Exceptions.handle()
@@ -1181,7 +1138,9 @@ public class Index {
             drb.execute().actionGet();
             entity.deleted = true;
             queryDuration.addValue(w.elapsedMillis());
-            w.submitMicroTiming("ES", "DELETE " + entity.getClass().getName());
+            if (Microtiming.isEnabled()) {
+                w.submitMicroTiming("ES", "DELETE " + entity.getClass().getName());
+            }
             entity.afterDelete();
             if (LOG.isFINE()) {
                 LOG.FINE("DELETE: %s.%s: %s SUCCESS",
@@ -21,12 +21,14 @@ import sirius.kernel.health.Log;
 import sirius.web.http.InputStreamHandler;
 import sirius.web.http.WebContext;
 import sirius.web.http.WebDispatcher;
+import sirius.web.http.WebServer;
 import sirius.web.security.UserContext;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Dispatches incoming requests to the appropriate {@link Controller}.
@@ -137,6 +139,7 @@ public class ControllerDispatcher implements WebDispatcher {
                                                   .error(HttpResponseStatus.INTERNAL_SERVER_ERROR,
                                                          "Request dropped - System overload!")
                          )
+                         .deadline(WebServer.getIdleTimeoutMillis(), TimeUnit.MILLISECONDS)
                          .execute();
                     return true;
                 }
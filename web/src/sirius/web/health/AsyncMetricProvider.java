@@ -0,0 +1,58 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.web.health;
+
+import sirius.kernel.async.Async;
+import sirius.kernel.async.AsyncExecutor;
+import sirius.kernel.di.std.Register;
+
+/**
+ * Provides metrics for each executor managed by {@link Async}.
+ * <p>
+ * For each category, the distribution of the queue wait and execution time of recently executed tasks, the
+ * throughput, the number of active threads and the number of rejected tasks are reported. This makes it easy to
+ * spot an executor which is saturated.
+ * </p>
+ *
+ * @author Andreas Haufler (aha@scireum.de)
+ * @since 2014/11
+ */
+@Register
+public class AsyncMetricProvider implements MetricProvider {
+
+    @Override
+    public void gather(MetricsCollector collector) {
+        for (AsyncExecutor exec : Async.getExecutors()) {
+            String category = exec.getCategory();
+            MetricsCollector executorCollector = collector.withLabel("executor", category);
+            executorCollector.histogram("async-queue-wait", "Queue Wait: " + category, exec.getQueueWaits(), "ms");
+            executorCollector.histogram("async-execution-time",
+                                        "Execution Time: " + category,
+                                        exec.getExecutionTimes(),
+                                        "ms");
+            executorCollector.differentialMetric("async-executed-" + category,
+                                                 "async-executed",
+                                                 "Executed Tasks: " + category,
+                                                 exec.getCompletedTaskCount(),
+                                                 "/min");
+            executorCollector.withLabel("threads", "active")
+                             .metric("async-active", "Active Threads: " + category, exec.getActiveCount(), null);
+            if (exec.isAdaptive()) {
+                executorCollector.withLabel("threads", "pool")
+                                 .metric("async-active", "Pool Size: " + category, exec.getCorePoolSize(), null);
+            }
+            // Tasks which were blocked or dropped as the executor was full or overloaded, or which expired in the queue
+            executorCollector.differentialMetric("async-rejected-" + category,
+                                                 "async-rejected",
+                                                 "Rejected Tasks: " + category,
+                                                 exec.getBlocked() + exec.getDropped() + exec.getExpired(),
+                                                 "/min");
+        }
+    }
+}
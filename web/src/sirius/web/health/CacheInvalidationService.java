@@ -0,0 +1,122 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.web.health;
+
+import com.alibaba.fastjson.JSON;
+import com.google.common.collect.Lists;
+import sirius.kernel.async.CallContext;
+import sirius.kernel.cache.CacheManager;
+import sirius.kernel.commons.Strings;
+import sirius.kernel.commons.Value;
+import sirius.kernel.di.std.ConfigValue;
+import sirius.kernel.di.std.Register;
+import sirius.kernel.health.Exceptions;
+import sirius.kernel.xml.StructuredOutput;
+import sirius.web.services.ServiceCall;
+import sirius.web.services.StructuredService;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies cache invalidations sent by another node.
+ * <p>
+ * This service will be called by the {@link ClusterCacheCoherence} running on the other members. It expects a JSON
+ * object like <tt>{"node": "sender", "timestamp": 1416300000000, "signature": "...", "invalidations": "..."}</tt> as
+ * body. The invalidations are given as JSON string like <tt>{"clear": ["cache"], "remove": {"cache": ["key1",
+ * "key2"]}}</tt>.
+ * </p>
+ * <p>
+ * Messages are only accepted if <tt>health.cluster.cacheCoherence</tt> is enabled and if node, timestamp and
+ * invalidations are signed using the shared secret given in <tt>health.cluster.cacheCoherence.secret</tt> (see
+ * {@link ClusterCacheCoherence#computeSignature(String, String...)}). Messages which are older than five minutes
+ * are rejected, so that a recorded message cannot be replayed later.
+ * </p>
+ *
+ * @author Andreas Haufler (aha@scireum.de)
+ * @since 2014/11
+ */
+@Register(name = "system/cache-invalidate")
+public class CacheInvalidationService implements StructuredService {
+
+    /*
+     * Contains the max difference between the timestamp of a message and the local clock
+     */
+    private static final long MAX_MESSAGE_AGE = TimeUnit.MINUTES.toMillis(5);
+
+    @ConfigValue("health.cluster.cacheCoherence.enabled")
+    private boolean enabled;
+
+    @ConfigValue("health.cluster.cacheCoherence.secret")
+    private String secret;
+
+    @Override
+    public void call(ServiceCall call, StructuredOutput out) throws Exception {
+        Map<String, Object> message = call.getContext().getJSONContent();
+        String payload = verifySignature(message);
+        int numRemoved = 0;
+        int numCleared = 0;
+        // Ignore messages sent to ourself (the node list of the cluster might contain the local node)
+        if (!Strings.areEqual(CallContext.getNodeName(), message.get("node"))) {
+            Map<String, Object> invalidations = JSON.parseObject(payload);
+            Object clear = invalidations.get("clear");
+            if (clear instanceof Collection) {
+                for (Object cacheName : (Collection<?>) clear) {
+                    CacheManager.clearLocally(String.valueOf(cacheName));
+                    numCleared++;
+                }
+            }
+            Object remove = invalidations.get("remove");
+            if (remove instanceof Map) {
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) remove).entrySet()) {
+                    if (entry.getValue() instanceof Collection) {
+                        List<String> keys = Lists.newArrayList();
+                        for (Object key : (Collection<?>) entry.getValue()) {
+                            keys.add(String.valueOf(key));
+                        }
+                        CacheManager.removeLocally(String.valueOf(entry.getKey()), keys);
+                        numRemoved += keys.size();
+                    }
+                }
+            }
+        }
+        out.beginResult();
+        out.property("cleared", numCleared);
+        out.property("removed", numRemoved);
+        out.endResult();
+    }
+
+    /*
+     * Ensures that the message was sent recently by a node which knows the shared secret and returns the signed
+     * invalidations
+     */
+    private String verifySignature(Map<String, Object> message) {
+        if (!enabled || Strings.isEmpty(secret)) {
+            throw Exceptions.createHandled()
+                            .withSystemErrorMessage("Cache invalidations are not accepted by this node.")
+                            .handle();
+        }
+        String node = Value.of(message.get("node")).asString();
+        long timestamp = Value.of(message.get("timestamp")).asLong(0);
+        String payload = Value.of(message.get("invalidations")).asString();
+        if (Math.abs(System.currentTimeMillis() - timestamp) > MAX_MESSAGE_AGE
+            || !ClusterCacheCoherence.verifySignature(Value.of(message.get("signature")).asString(),
+                                                      secret,
+                                                      node,
+                                                      String.valueOf(timestamp),
+                                                      payload)) {
+            throw Exceptions.createHandled()
+                            .withSystemErrorMessage("Rejected cache invalidations from %s: Invalid signature.", node)
+                            .handle();
+        }
+        return payload;
+    }
+}
@@ -27,6 +27,8 @@ import sirius.kernel.health.Log;
 import sirius.kernel.timer.EveryMinute;
 import sirius.web.mails.MailService;
 
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -51,6 +53,11 @@ import java.util.List;
  * (<tt>health.cluster.priority</tt>). The node with the lowest number (which is still functional) is in charge
  * of triggering an alert in case of faulting or unreachable members.
  * </p>
+ * <p>
+ * Additionally the {@link MetricHistory} of each member can be fetched via
+ * {@link #fetchHistory(NodeInfo, String, long, long)}, if all members share the same
+ * <tt>health.history.secret</tt>.
+ * </p>
  *
  * @author Andreas Haufler (aha@scireum.de)
  * @since 2014/01
@@ -89,6 +96,9 @@ public class Cluster implements EveryMinute {
     @ConfigValue("health.cluster.alerts.mail")
     private List<String> alertReceivers;
 
+    @ConfigValue("health.history.secret")
+    private String historySecret;
+
     @Part
     private Metrics metrics;
 
@@ -192,40 +202,32 @@ public class Cluster implements EveryMinute {
         for (NodeInfo info : getNodeInfos()) {
             try {
                 LOG.FINE("Testing node: %s", info.getEndpoint());
-                URLConnection c = new URL(info.getEndpoint() + "/service/json/system/node-info").openConnection();
-                c.setConnectTimeout(10000);
-                c.setReadTimeout(10000);
-                c.setDoInput(true);
-                c.setDoOutput(false);
-                try (InputStream in = c.getInputStream()) {
-                    JSONObject response = JSON.parseObject(CharStreams.toString(new InputStreamReader(in,
-                                                                                                      Charsets.UTF_8)));
-                    info.setName(response.getString("name"));
-                    info.setNodeState(MetricState.valueOf(response.getString("nodeState")));
-                    if (info.getNodeState().ordinal() > newClusterState.ordinal()) {
-                        newClusterState = info.getNodeState();
-                    }
-                    info.setClusterState(MetricState.valueOf(response.getString("clusterState")));
-                    info.setPriority(response.getInteger("priority"));
-                    info.setUptime(response.getString("uptime"));
-                    info.getMetrics().clear();
-                    JSONArray metrics = response.getJSONArray("metrics");
-                    for (int i = 0; i < metrics.size(); i++) {
-                        try {
-                            JSONObject metric = (JSONObject) metrics.get(i);
-                            Metric m = new Metric(metric.getString("name"),
-                                                  metric.getDoubleValue("value"),
-                                                  MetricState.valueOf(metric.getString("state")),
-                                                  metric.getString("unit"));
-                            info.getMetrics().add(m);
-                        } catch (Throwable e) {
-                            // Ignore non-well-formed metrics...
-                            LOG.FINE(e);
-                        }
+                JSONObject response = readJSON(info.getEndpoint() + "/service/json/system/node-info");
+                info.setName(response.getString("name"));
+                info.setNodeState(MetricState.valueOf(response.getString("nodeState")));
+                if (info.getNodeState().ordinal() > newClusterState.ordinal()) {
+                    newClusterState = info.getNodeState();
+                }
+                info.setClusterState(MetricState.valueOf(response.getString("clusterState")));
+                info.setPriority(response.getInteger("priority"));
+                info.setUptime(response.getString("uptime"));
+                info.getMetrics().clear();
+                JSONArray metrics = response.getJSONArray("metrics");
+                for (int i = 0; i < metrics.size(); i++) {
+                    try {
+                        JSONObject metric = (JSONObject) metrics.get(i);
+                        Metric m = new Metric(metric.getString("name"),
+                                              metric.getDoubleValue("value"),
+                                              MetricState.valueOf(metric.getString("state")),
+                                              metric.getString("unit"));
+                        info.getMetrics().add(m);
+                    } catch (Throwable e) {
+                        // Ignore non-well-formed metrics...
+                        LOG.FINE(e);
                     }
-                    info.pingSucceeded();
-                    LOG.FINE("Node: %s is %s (%s)", info.getName(), info.getNodeState(), info.getClusterState());
                 }
+                info.pingSucceeded();
+                LOG.FINE("Node: %s is %s (%s)", info.getName(), info.getNodeState(), info.getClusterState());
             } catch (Throwable t) {
                 if (t instanceof IOException) {
                     LOG.WARN("Cannot reach node %s: %s (%s)",
@@ -272,6 +274,82 @@ public class Cluster implements EveryMinute {
         clusterState = newClusterState;
     }
 
+    /*
+     * Performs a GET request against the given URL and parses the response as JSON
+     */
+    private JSONObject readJSON(String url) throws IOException {
+        URLConnection c = new URL(url).openConnection();
+        c.setConnectTimeout(10000);
+        c.setReadTimeout(10000);
+        c.setDoInput(true);
+        c.setDoOutput(false);
+        try (InputStream in = c.getInputStream()) {
+            return JSON.parseObject(CharStreams.toString(new InputStreamReader(in, Charsets.UTF_8)));
+        }
+    }
+
+    /**
+     * Fetches the history of the given metric from the given cluster member.
+     * <p>
+     * The values are reported just like {@link MetricHistory#query(String, long, long)} would on the given node. The
+     * request is signed using <tt>health.history.secret</tt>, which has to be the same on both nodes.
+     * </p>
+     *
+     * @param node   the cluster member to query (as returned by {@link #getNodeInfos()})
+     * @param metric the key of the metric (see {@link Metric#getKey()})
+     * @param from   the start of the range in milliseconds since the epoch
+     * @param to     the end of the range in milliseconds since the epoch
+     * @return the recorded values or <tt>null</tt> if the node has no history for the given metric or if it cannot
+     * be reached
+     */
+    @Nullable
+    public MetricHistory.Range fetchHistory(@Nonnull NodeInfo node, @Nonnull String metric, long from, long to) {
+        try {
+            String sender = CallContext.getNodeName();
+            long timestamp = System.currentTimeMillis();
+            String signature = ClusterCacheCoherence.computeSignature(historySecret,
+                                                                      sender,
+                                                                      String.valueOf(timestamp),
+                                                                      metric,
+                                                                      String.valueOf(from),
+                                                                      String.valueOf(to));
+            String url = Strings.apply("%s/service/json/system/metric-history?metric=%s&from=%d&to=%d&sender=%s"
+                                       + "&timestamp=%d&signature=%s",
+                                       node.getEndpoint(),
+                                       Strings.urlEncode(metric),
+                                       from,
+                                       to,
+                                       Strings.urlEncode(sender),
+                                       timestamp,
+                                       signature);
+            JSONObject response = readJSON(url);
+            if (!response.containsKey("values")) {
+                return null;
+            }
+            JSONArray values = response.getJSONArray("values");
+            double[] result = new double[values.size()];
+            for (int i = 0; i < result.length; i++) {
+                Double value = values.getDouble(i);
+                result[i] = value == null ? Double.NaN : value;
+            }
+            return new MetricHistory.Range(response.getString("name"),
+                                           response.getString("unit"),
+                                           response.getLongValue("start"),
+                                           response.getLongValue("resolution"),
+                                           result);
+        } catch (IOException e) {
+            LOG.WARN("Cannot fetch the history of %s from node %s: %s (%s)",
+                     metric,
+                     node.getEndpoint(),
+                     e.getMessage(),
+                     e.getClass().getSimpleName());
+            return null;
+        } catch (Exception e) {
+            Exceptions.handle(LOG, e);
+            return null;
+        }
+    }
+
     /*
      * Determines if this node is in charge of sending alerts
      */
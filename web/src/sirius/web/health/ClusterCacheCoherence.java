@@ -0,0 +1,292 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.web.health;
+
+import com.alibaba.fastjson.JSONObject;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.CharStreams;
+import com.google.common.primitives.Ints;
+import sirius.kernel.async.Async;
+import sirius.kernel.async.Batcher;
+import sirius.kernel.async.CallContext;
+import sirius.kernel.cache.CacheCoherence;
+import sirius.kernel.commons.Strings;
+import sirius.kernel.commons.Tuple;
+import sirius.kernel.di.Lifecycle;
+import sirius.kernel.di.std.ConfigValue;
+import sirius.kernel.di.std.Part;
+import sirius.kernel.di.std.Register;
+import sirius.kernel.health.Exceptions;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Broadcasts invalidations of managed caches to all other members of the {@link Cluster}.
+ * <p>
+ * Removed keys and cleared caches are collected by a {@link Batcher} and sent to all nodes listed in
+ * <tt>health.cluster.nodes</tt> at most <tt>health.cluster.cacheCoherence.flushInterval</tt> after they occurred, or
+ * as soon as <tt>health.cluster.cacheCoherence.maxBatchSize</tt> invalidations are pending. Within a batch, multiple
+ * removals of the same key are only sent once and clearing a cache supersedes all removals for it.
+ * </p>
+ * <p>
+ * As invalidations are mostly caused by request threads, these are never blocked if the other nodes cannot keep up.
+ * Once too many invalidations are pending, a removed key is instead sent as clear of the whole cache, which is
+ * coalesced with all other invalidations of this cache.
+ * </p>
+ * <p>
+ * The invalidations are received by the {@link CacheInvalidationService} of each node which applies them locally.
+ * Note that invalidations which cannot be delivered (e.g. as a node is down) are discarded. Therefore the TTL of a
+ * cache still limits how long an outdated entry can be served.
+ * </p>
+ * <p>
+ * This is disabled by default and has to be enabled via <tt>health.cluster.cacheCoherence.enabled</tt>. All nodes
+ * have to share the same <tt>health.cluster.cacheCoherence.secret</tt> which is used to sign the invalidations.
+ * </p>
+ *
+ * @author Andreas Haufler (aha@scireum.de)
+ * @since 2014/11
+ */
+@Register(classes = {CacheCoherence.class, Lifecycle.class})
+public class ClusterCacheCoherence implements CacheCoherence, Lifecycle {
+
+    private static final int CONNECT_TIMEOUT = 2000;
+    private static final int READ_TIMEOUT = 5000;
+    private static final String EXECUTOR_CACHE_COHERENCE = "cache-coherence";
+
+    @ConfigValue("health.cluster.cacheCoherence.enabled")
+    private boolean enabled;
+
+    @ConfigValue("health.cluster.cacheCoherence.flushInterval")
+    private Duration flushInterval;
+
+    @ConfigValue("health.cluster.cacheCoherence.maxBatchSize")
+    private int maxBatchSize;
+
+    @ConfigValue("health.cluster.cacheCoherence.secret")
+    private String secret;
+
+    @Part
+    private Cluster cluster;
+
+    /*
+     * Collects invalidations as tuples of cache name and key. A key of null signals that the cache was cleared.
+     */
+    private volatile Batcher<Tuple<String, String>> invalidations;
+
+    /*
+     * Contains the names of all caches which are to be cleared as an invalidation didn't fit into the batcher
+     */
+    private final Set<String> overflowedCaches = Sets.newConcurrentHashSet();
+
+    @Override
+    public void removeKey(@Nonnull String cacheName, @Nonnull String key) {
+        if (isActive()) {
+            submit(cacheName, key);
+        }
+    }
+
+    @Override
+    public void clear(@Nonnull String cacheName) {
+        if (isActive()) {
+            submit(cacheName, null);
+        }
+    }
+
+    /*
+     * Hands the invalidation to the batcher without blocking the caller. If the batcher is full, the cache will be
+     * cleared by the next batch.
+     */
+    private void submit(String cacheName, @Nullable String key) {
+        Batcher<Tuple<String, String>> batcher = invalidations;
+        if (batcher == null || batcher.offer(Tuple.create(cacheName, key))) {
+            return;
+        }
+        overflowedCaches.add(cacheName);
+        // If the batch which drained the buffer has already read overflowedCaches, this makes sure that another
+        // batch is sent. Otherwise the buffer is still full and the next batch will pick up the cache anyway.
+        batcher.offer(Tuple.create(cacheName, null));
+    }
+
+    /*
+     * Determines if invalidations need to be broadcast at all
+     */
+    private boolean isActive() {
+        return enabled && invalidations != null && !cluster.getNodeInfos().isEmpty();
+    }
+
+    /*
+     * Sends the given invalidations to all other nodes
+     */
+    private void send(List<Tuple<String, String>> batch) {
+        Map<String, Set<String>> removals = Maps.newHashMap();
+        Set<String> clears = Sets.newHashSet();
+        for (String cacheName : overflowedCaches) {
+            overflowedCaches.remove(cacheName);
+            clears.add(cacheName);
+        }
+        for (Tuple<String, String> invalidation : batch) {
+            String cacheName = invalidation.getFirst();
+            if (invalidation.getSecond() == null) {
+                removals.remove(cacheName);
+                clears.add(cacheName);
+            } else if (!clears.contains(cacheName)) {
+                Set<String> keys = removals.get(cacheName);
+                if (keys == null) {
+                    keys = Sets.newHashSet();
+                    removals.put(cacheName, keys);
+                }
+                keys.add(invalidation.getSecond());
+            }
+        }
+        JSONObject content = new JSONObject();
+        content.put("clear", clears);
+        content.put("remove", removals);
+        String payload = content.toJSONString();
+        JSONObject message = new JSONObject();
+        long timestamp = System.currentTimeMillis();
+        message.put("node", CallContext.getNodeName());
+        message.put("timestamp", timestamp);
+        message.put("invalidations", payload);
+        message.put("signature",
+                    computeSignature(secret, CallContext.getNodeName(), String.valueOf(timestamp), payload));
+        byte[] data = message.toJSONString().getBytes(Charsets.UTF_8);
+        for (NodeInfo info : cluster.getNodeInfos()) {
+            if (Strings.areEqual(CallContext.getNodeName(), info.getName())) {
+                continue;
+            }
+            try {
+                send(info.getEndpoint(), data);
+            } catch (IOException e) {
+                Cluster.LOG.WARN("Cannot send cache invalidations to node %s: %s (%s)",
+                                 info.getEndpoint(),
+                                 e.getMessage(),
+                                 e.getClass().getSimpleName());
+            } catch (Throwable t) {
+                Exceptions.handle(Cluster.LOG, t);
+            }
+        }
+    }
+
+    /**
+     * Computes the signature of a message consisting of the given fields.
+     * <p>
+     * The signature is a HMAC-SHA256 of all fields using the shared secret of the cluster. It is used by
+     * {@link CacheInvalidationService} and {@link MetricHistoryService} to verify that a message was sent by a member
+     * of the cluster and that it was not modified. Therefore the fields have to cover the sender, the timestamp and
+     * the whole content of the message.
+     * </p>
+     *
+     * @param secret the shared secret of the cluster
+     * @param fields the fields of the message to sign
+     * @return the signature of the message as hex string
+     */
+    static String computeSignature(String secret, String... fields) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret.getBytes(Charsets.UTF_8), "HmacSHA256"));
+            for (String field : fields) {
+                byte[] data = Strings.isEmpty(field) ? new byte[0] : field.getBytes(Charsets.UTF_8);
+                // Each field is delimited by its length, so that no characters can be moved from one field to another
+                mac.update(Ints.toByteArray(data.length));
+                mac.update(data);
+            }
+            return BaseEncoding.base16().lowerCase().encode(mac.doFinal());
+        } catch (GeneralSecurityException e) {
+            throw Exceptions.handle(Cluster.LOG, e);
+        }
+    }
+
+    /**
+     * Determines if the given signature matches the one computed for the given fields.
+     * <p>
+     * The signatures are compared in constant time, so that a valid signature cannot be guessed by measuring the
+     * response time.
+     * </p>
+     *
+     * @param signature the signature to verify
+     * @param secret    the shared secret of the cluster
+     * @param fields    the fields of the message which was signed
+     * @return <tt>true</tt> if the signature is valid, <tt>false</tt> otherwise
+     * @see #computeSignature(String, String...)
+     */
+    static boolean verifySignature(@Nullable String signature, String secret, String... fields) {
+        if (Strings.isEmpty(signature)) {
+            return false;
+        }
+        return MessageDigest.isEqual(computeSignature(secret, fields).getBytes(Charsets.UTF_8),
+                                     signature.getBytes(Charsets.UTF_8));
+    }
+
+    private void send(String endpoint, byte[] data) throws IOException {
+        HttpURLConnection c = (HttpURLConnection) new URL(endpoint + "/service/json/system/cache-invalidate")
+                .openConnection();
+        c.setConnectTimeout(CONNECT_TIMEOUT);
+        c.setReadTimeout(READ_TIMEOUT);
+        c.setRequestMethod("POST");
+        c.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
+        c.setDoInput(true);
+        c.setDoOutput(true);
+        try (OutputStream out = c.getOutputStream()) {
+            out.write(data);
+        }
+        try (InputStream in = c.getInputStream()) {
+            CharStreams.toString(new InputStreamReader(in, Charsets.UTF_8));
+        }
+    }
+
+    @Override
+    public void started() {
+        if (!enabled) {
+            return;
+        }
+        if (Strings.isEmpty(secret)) {
+            Cluster.LOG.WARN("health.cluster.cacheCoherence is enabled but no secret is given. Invalidations are not"
+                             + " sent to other nodes!");
+            return;
+        }
+        invalidations = Async.batcher(EXECUTOR_CACHE_COHERENCE, maxBatchSize, flushInterval, this::send);
+    }
+
+    @Override
+    public void stopped() {
+        Batcher<Tuple<String, String>> batcher = invalidations;
+        invalidations = null;
+        if (batcher != null) {
+            batcher.flush();
+        }
+    }
+
+    @Override
+    public void awaitTermination() {
+        // Nothing to wait for - pending invalidations are already sent by stopped()
+    }
+
+    @Override
+    public String getName() {
+        return "cache-coherence";
+    }
+}
@@ -24,6 +24,7 @@ import sirius.kernel.commons.NumberFormat;
 public class Metric implements Comparable<Metric> {
 
     private final String unit;
+    private final String key;
     private String name;
     private double value;
     private MetricState state;
@@ -37,12 +38,34 @@ public class Metric implements Comparable<Metric> {
      * @param unit  the unit in which the value is measured or <tt>null</tt> if there is no unit
      */
     public Metric(String name, double value, MetricState state, String unit) {
+        this(name, name, value, state, unit);
+    }
+
+    /*
+     * Creates a new metric with a key which differs from its name (its limit type along with its labels)
+     */
+    Metric(String key, String name, double value, MetricState state, String unit) {
         this.unit = unit;
+        this.key = key;
         this.name = name;
         this.value = value;
         this.state = state;
     }
 
+    /**
+     * Returns the key which identifies the metric.
+     * <p>
+     * For metrics provided with a limit type, this is the limit type followed by the labels of the metric, like
+     * <tt>async-queue-wait-p95{executor=default}</tt>. Otherwise this is the name of the metric. The key is used to
+     * record the history of a metric (see {@link MetricHistory}).
+     * </p>
+     *
+     * @return the key of the metric
+     */
+    public String getKey() {
+        return key;
+    }
+
     /**
      * Returns the name of the metric.
      *
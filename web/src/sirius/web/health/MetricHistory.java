@@ -0,0 +1,229 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.web.health;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import sirius.kernel.di.std.ConfigValue;
+import sirius.kernel.di.std.Register;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the history of all metrics collected by {@link Metrics}.
+ * <p>
+ * For each metric, one value per minute is kept for 24 hours and the average of each ten minutes is kept for 14
+ * days. This permits to correlate a problem (e.g. a latency spike) with other metrics like the GC activity or the
+ * utilization of an executor after it happened.
+ * </p>
+ * <p>
+ * The history is recorded per {@link Metric#getKey()}, which consists of the limit type and the labels of a metric
+ * (e.g. <tt>async-queue-wait-p95{executor=default}</tt>), as its name might change along with a label value. Note
+ * that each histogram results in four metrics (avg, 95%, 99% and max).
+ * </p>
+ * <p>
+ * Each metric occupies a fixed amount of about 14 KB. The number of metrics being recorded is limited by
+ * <tt>health.history.maxSeries</tt>, therefore the memory used by the history is bounded. Metrics which have not been
+ * reported for 14 days are discarded.
+ * </p>
+ * <p>
+ * The history of this node is available via the service <tt>system/metric-history</tt>. The history of other members
+ * of the cluster can be fetched via {@link Cluster#fetchHistory(NodeInfo, String, long, long)}.
+ * </p>
+ *
+ * @author Andreas Haufler (aha@scireum.de)
+ * @since 2014/11
+ */
+@Register(classes = MetricHistory.class)
+public class MetricHistory {
+
+    private static final long RETENTION_MILLIS = TimeUnit.DAYS.toMillis(14);
+
+    @ConfigValue("health.history.maxSeries")
+    private int maxSeries;
+
+    private final Map<String, TimeSeries> series = Maps.newConcurrentMap();
+
+    /*
+     * Used to only log once that maxSeries was reached
+     */
+    private boolean limitReported;
+
+    /**
+     * Represents the recorded values of a metric within a range of time.
+     */
+    public static class Range {
+
+        private final String name;
+        private final String unit;
+        private final long start;
+        private final long resolution;
+        private final double[] values;
+
+        /**
+         * Creates a new range.
+         *
+         * @param name       the name of the metric
+         * @param unit       the unit of the metric or <tt>null</tt> if there is no unit
+         * @param start      the timestamp (in milliseconds since the epoch) of the first value
+         * @param resolution the time (in milliseconds) between two values
+         * @param values     the values, where <tt>NaN</tt> marks a missing value
+         */
+        public Range(String name, String unit, long start, long resolution, double[] values) {
+            this.name = name;
+            this.unit = unit;
+            this.start = start;
+            this.resolution = resolution;
+            this.values = values;
+        }
+
+        /**
+         * Returns the name of the metric.
+         *
+         * @return the name of the metric
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the unit of the metric.
+         *
+         * @return the unit of the metric or <tt>null</tt> if there is no unit
+         */
+        @Nullable
+        public String getUnit() {
+            return unit;
+        }
+
+        /**
+         * Returns the timestamp of the first value.
+         *
+         * @return the timestamp of the first value in milliseconds since the epoch
+         */
+        public long getStart() {
+            return start;
+        }
+
+        /**
+         * Returns the time between two values.
+         * <p>
+         * This is one minute for ranges which start within the last 24 hours and ten minutes otherwise.
+         * </p>
+         *
+         * @return the time between two values in milliseconds
+         */
+        public long getResolution() {
+            return resolution;
+        }
+
+        /**
+         * Returns the number of values in this range.
+         *
+         * @return the number of values
+         */
+        public int size() {
+            return values.length;
+        }
+
+        /**
+         * Returns the timestamp of the value with the given index.
+         *
+         * @param index the index of the value
+         * @return the timestamp of the value in milliseconds since the epoch
+         */
+        public long getTimestamp(int index) {
+            return start + index * resolution;
+        }
+
+        /**
+         * Returns the value with the given index.
+         *
+         * @param index the index of the value
+         * @return the value or <tt>NaN</tt> if no value was recorded for this point in time
+         */
+        public double getValue(int index) {
+            return values[index];
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + values.length + " values every " + resolution + "ms starting at " + start;
+        }
+    }
+
+    /*
+     * Invoked by Metrics once all metrics have been collected
+     */
+    void record(List<Metric> metrics, long timestamp) {
+        for (Metric metric : metrics) {
+            TimeSeries timeSeries = series.get(metric.getKey());
+            if (timeSeries == null) {
+                if (series.size() >= maxSeries) {
+                    if (!limitReported) {
+                        Cluster.LOG.WARN("Cannot record the history of %s, as health.history.maxSeries (%d) is reached",
+                                         metric.getKey(),
+                                         maxSeries);
+                        limitReported = true;
+                    }
+                    continue;
+                }
+                timeSeries = new TimeSeries(metric.getName());
+                series.put(metric.getKey(), timeSeries);
+            }
+            timeSeries.record(timestamp, metric.getValue(), metric.getUnit());
+        }
+        Iterator<TimeSeries> iter = series.values().iterator();
+        while (iter.hasNext()) {
+            if (iter.next().getLastRecorded() < timestamp - RETENTION_MILLIS) {
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the keys of all metrics for which a history is available.
+     *
+     * @return a sorted list of the keys of all metrics with a history
+     * @see Metric#getKey()
+     */
+    @Nonnull
+    public List<String> getKeys() {
+        List<String> result = Lists.newArrayList(series.keySet());
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Returns the values of the given metric recorded within the given range of time.
+     * <p>
+     * If the range starts within the last 24 hours, one value per minute is returned. Otherwise the average of
+     * each ten minutes is returned. Parts of the range for which no history is available are omitted.
+     * </p>
+     *
+     * @param key  the key of the metric as returned by {@link Metric#getKey()}
+     * @param from the start of the range in milliseconds since the epoch
+     * @param to   the end of the range in milliseconds since the epoch
+     * @return the recorded values or <tt>null</tt> if there is no history for the given metric
+     */
+    @Nullable
+    public Range query(@Nonnull String key, long from, long to) {
+        TimeSeries timeSeries = series.get(key);
+        if (timeSeries == null) {
+            return null;
+        }
+        return timeSeries.query(from, to);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.web.health;
+
+import sirius.kernel.async.CallContext;
+import sirius.kernel.commons.Strings;
+import sirius.kernel.di.std.ConfigValue;
+import sirius.kernel.di.std.Part;
+import sirius.kernel.di.std.Register;
+import sirius.kernel.health.Exceptions;
+import sirius.kernel.xml.StructuredOutput;
+import sirius.web.security.UserContext;
+import sirius.web.services.ServiceCall;
+import sirius.web.services.StructuredService;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Provides the history of a metric recorded by this node.
+ * <p>
+ * Expects the key of the metric (see {@link Metric#getKey()}) as <tt>metric</tt> and the range to report as
+ * <tt>from</tt> and <tt>to</tt> (in milliseconds since the epoch). If the range is omitted, the last hour is
+ * reported. If no metric is given, the keys of all metrics with a history are reported.
+ * </p>
+ * <p>
+ * This service will be called by the {@link Cluster} manager running on the other members. Therefore requests are
+ * accepted if the current user has the permission to view the system state or if they are signed using the shared
+ * secret given in <tt>health.history.secret</tt>. The signature (given as <tt>signature</tt>) has to cover the
+ * parameters <tt>sender</tt>, <tt>timestamp</tt>, <tt>metric</tt>, <tt>from</tt> and <tt>to</tt> in this order (see
+ * {@link ClusterCacheCoherence#computeSignature(String, String...)}). Signatures which are older than five minutes
+ * are rejected.
+ * </p>
+ *
+ * @author Andreas Haufler (aha@scireum.de)
+ * @since 2014/11
+ */
+@Register(name = "system/metric-history")
+public class MetricHistoryService implements StructuredService {
+
+    /*
+     * Contains the max difference between the timestamp of a request and the local clock
+     */
+    private static final long MAX_REQUEST_AGE = TimeUnit.MINUTES.toMillis(5);
+
+    @Part
+    private MetricHistory history;
+
+    @ConfigValue("health.history.secret")
+    private String secret;
+
+    @Override
+    public void call(ServiceCall call, StructuredOutput out) throws Exception {
+        verifyAccess(call);
+        out.beginResult();
+        out.property("node", CallContext.getNodeName());
+        String metric = call.get("metric").asString();
+        if (Strings.isEmpty(metric)) {
+            out.array("metrics", "metric", history.getKeys());
+            out.endResult();
+            return;
+        }
+        long to = call.get("to").asLong(System.currentTimeMillis());
+        long from = call.get("from").asLong(to - TimeUnit.HOURS.toMillis(1));
+        MetricHistory.Range range = history.query(metric, from, to);
+        if (range != null) {
+            out.property("name", range.getName());
+            out.property("unit", range.getUnit());
+            out.property("start", range.getStart());
+            out.property("resolution", range.getResolution());
+            out.beginArray("values");
+            for (int i = 0; i < range.size(); i++) {
+                double value = range.getValue(i);
+                out.property("value", Double.isNaN(value) || Double.isInfinite(value) ? null : value);
+            }
+            out.endArray();
+        }
+        out.endResult();
+    }
+
+    /*
+     * Ensures that the request was either sent recently by a node which knows the shared secret or by a user who is
+     * permitted to view the system state
+     */
+    private void verifyAccess(ServiceCall call) {
+        if (UserContext.getCurrentUser().hasPermission(SystemController.PERMISSION_SYSTEM_STATE)) {
+            return;
+        }
+        String sender = call.get("sender").asString();
+        long timestamp = call.get("timestamp").asLong(0);
+        if (Strings.isEmpty(secret)
+            || Math.abs(System.currentTimeMillis() - timestamp) > MAX_REQUEST_AGE
+            || !ClusterCacheCoherence.verifySignature(call.get("signature").asString(),
+                                                      secret,
+                                                      sender,
+                                                      String.valueOf(timestamp),
+                                                      call.get("metric").asString(),
+                                                      call.get("from").asString(),
+                                                      call.get("to").asString())) {
+            throw Exceptions.createHandled()
+                            .withSystemErrorMessage("Rejected history request from %s: Invalid signature.", sender)
+                            .handle();
+        }
+    }
+}
@@ -22,6 +22,11 @@ public interface MetricProvider {
 
     /**
      * Invoked roughly every minute to collect all available metrics.
+     * <p>
+     * This is also invoked each time the metrics are scraped via <tt>/metrics</tt>, therefore gathering metrics
+     * should be cheap. As gauges are only taken from the regular collection, expensive gauges can be skipped if
+     * {@link MetricsCollector#isCollectingGauges()} is <tt>false</tt>.
+     * </p>
      *
      * @param collector the interface used to provide metrics
      */
@@ -12,11 +12,15 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import sirius.kernel.Sirius;
 import sirius.kernel.commons.DataCollector;
+import sirius.kernel.di.std.Part;
 import sirius.kernel.di.std.Parts;
 import sirius.kernel.di.std.Register;
 import sirius.kernel.health.Exceptions;
+import sirius.kernel.health.Histogram;
 import sirius.kernel.timer.EveryMinute;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -29,7 +33,12 @@ import java.util.Map;
  * {@link Register} annotation.
  * </p>
  * <p>
- * The collected metrics are updated once every minute.
+ * The collected metrics are updated once every minute. Additionally all metrics can be rendered in the OpenMetrics
+ * format via {@link #writeOpenMetrics(java.io.Writer)}, which is available as <tt>/metrics</tt> (if a token is
+ * configured in <tt>health.openMetrics.token</tt>).
+ * </p>
+ * <p>
+ * The history of the collected metrics is kept by {@link MetricHistory}.
  * </p>
  *
  * @author Andreas Haufler (aha@scireum.de)
@@ -41,6 +50,9 @@ public class Metrics implements EveryMinute {
     @Parts(MetricProvider.class)
     private Collection<MetricProvider> providers;
 
+    @Part
+    private MetricHistory history;
+
     /*
      * Contains all collected metrics
      */
@@ -70,45 +82,82 @@ public class Metrics implements EveryMinute {
      */
     private Map<String, Double> differentials = Maps.newHashMap();
 
+    /*
+     * Renders the metrics for /metrics. Guarded by this, just like the collection of the metrics by runTimer
+     */
+    private final OpenMetricsWriter openMetricsWriter = new OpenMetricsWriter();
+
+    /*
+     * Collects the metrics of the minutely collection. As the labels are already part of the title, they are only
+     * used to compute the key of each metric, which is used to record its history.
+     */
+    private class LabeledCollector implements MetricsCollector {
+
+        private final DataCollector<Metric> collector;
+        private final String labels;
+
+        private LabeledCollector(DataCollector<Metric> collector, String labels) {
+            this.collector = collector;
+            this.labels = labels;
+        }
+
+        private String key(String name) {
+            return labels.isEmpty() ? name : name + "{" + labels + "}";
+        }
+
+        @Override
+        public void metric(String title, double value, String unit, MetricState state) {
+            collector.add(new Metric(key(title), title, value, state, unit));
+        }
+
+        @Override
+        public void metric(String limitType, String title, double value, String unit) {
+            collector.add(new Metric(key(limitType), title, value, computeState(limitType, value), unit));
+        }
+
+        @Override
+        public void differentialMetric(String id, String limitType, String title, double currentValue, String unit) {
+            Double lastValue = differentials.get(id);
+            if (lastValue != null) {
+                metric(limitType, title, currentValue - lastValue, unit);
+            }
+            differentials.put(id, currentValue);
+        }
+
+        @Override
+        public void histogram(String limitType, String title, Histogram histogram, String unit) {
+            Histogram.Snapshot snapshot = histogram.getAndReset();
+            metric(limitType, title + " (avg)", snapshot.getMean(), unit);
+            metric(limitType + "-p95", title + " (95%)", snapshot.getP95(), unit);
+            metric(limitType + "-p99", title + " (99%)", snapshot.getP99(), unit);
+            metric(limitType + "-max", title + " (max)", snapshot.getMax(), unit);
+        }
+
+        @Override
+        public MetricsCollector withLabel(String name, String value) {
+            String label = name + "=" + value;
+            return new LabeledCollector(collector, labels.isEmpty() ? label : labels + "," + label);
+        }
+    }
 
     @Override
     public void runTimer() throws Exception {
         synchronized (this) {
             final DataCollector<Metric> collector = DataCollector.create();
+            // The gauges are recorded, so that they can be served by /metrics until the next collection
+            MetricsCollector metricsCollector = openMetricsWriter.recordGauges(new LabeledCollector(collector, ""));
             for (MetricProvider provider : providers) {
                 try {
-                    provider.gather(new MetricsCollector() {
-
-                        @Override
-                        public void metric(String title, double value, String unit, MetricState state) {
-                            collector.add(new Metric(title, value, state, unit));
-                        }
-
-                        @Override
-                        public void metric(String limitType, String title, double value, String unit) {
-                            collector.add(new Metric(title, value, computeState(limitType, value), unit));
-                        }
-
-                        @Override
-                        public void differentialMetric(String id,
-                                                       String limitType,
-                                                       String title,
-                                                       double currentValue,
-                                                       String unit) {
-                            Double lastValue = differentials.get(id);
-                            if (lastValue != null) {
-                                metric(limitType, title, currentValue - lastValue, unit);
-                            }
-                            differentials.put(id, currentValue);
-                        }
-                    });
+                    provider.gather(metricsCollector);
                 } catch (Exception e) {
                     Exceptions.handle(e);
                 }
             }
+            openMetricsWriter.publishGauges();
             List<Metric> metricsList = collector.getData();
             Collections.sort(metricsList);
             metrics = metricsList;
+            history.record(metricsList, System.currentTimeMillis());
         }
     }
 
@@ -151,5 +200,24 @@ public class Metrics implements EveryMinute {
         return Collections.unmodifiableList(metrics);
     }
 
+    /**
+     * Writes all metrics in the OpenMetrics text format.
+     * <p>
+     * Counters (differential metrics) and histograms are queried from all providers, so that they are up to date. In
+     * contrast to {@link #getMetrics()}, counters are reported using their raw (monotonic) value and histograms are
+     * not reset. Gauges are served from the last collection (which happens every minute), as some of them (like the
+     * CPU usage) are computed as delta since the last measurement or are expensive to determine. Therefore the
+     * metrics can be scraped at any interval without interfering with the metrics collected every minute.
+     * </p>
+     *
+     * @param out the writer to render the metrics to. It is neither flushed nor closed.
+     * @throws IOException in case of an error when writing to <tt>out</tt>
+     */
+    public void writeOpenMetrics(Writer out) throws IOException {
+        synchronized (this) {
+            openMetricsWriter.write(providers, out);
+        }
+    }
+
 
 }
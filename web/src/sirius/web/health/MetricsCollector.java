@@ -8,6 +8,8 @@
 
 package sirius.web.health;
 
+import sirius.kernel.health.Histogram;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
@@ -59,4 +61,56 @@ public interface MetricsCollector {
      * @param unit         the unit used to measure the difference between the last and the current value
      */
     void differentialMetric(String id, String limitType, String title, double currentValue, String unit);
+
+    /**
+     * Provides the distribution of values recorded by a {@link Histogram} as a set of metrics.
+     * <p>
+     * Reports the mean, the 95th and 99th percentile and the maximum value of the values recorded since the last
+     * collection. The state of the mean is determined by the limits of <tt>limitType</tt>. The percentiles and the
+     * maximum use the limits of <tt>limitType-p95</tt>, <tt>limitType-p99</tt> and <tt>limitType-max</tt>, so that
+     * alerts can be defined for the tail latency.
+     * </p>
+     * <p>
+     * The histogram is reset by the collector if required, therefore a provider must not reset it itself.
+     * </p>
+     *
+     * @param limitType the name used to retrieve the limits from the system config
+     * @param title     the name of the metric
+     * @param histogram the histogram containing the recorded values
+     * @param unit      the unit of the recorded values. Can be <tt>null</tt> if there is no unit
+     */
+    void histogram(@Nonnull String limitType,
+                   @Nonnull String title,
+                   @Nonnull Histogram histogram,
+                   @Nullable String unit);
+
+    /**
+     * Determines if plain metrics (gauges) are collected at all.
+     * <p>
+     * This is <tt>false</tt> if only counters (differential metrics) and histograms are queried, like for a scrape
+     * of <tt>/metrics</tt>, which serves the gauges of the last regular collection. Providers can use this to skip
+     * gauges which are expensive to determine or which are computed as delta since the last measurement.
+     * </p>
+     *
+     * @return <tt>true</tt> if gauges are collected, <tt>false</tt> if they are ignored
+     */
+    default boolean isCollectingGauges() {
+        return true;
+    }
+
+    /**
+     * Returns a collector which attaches the given label to all metrics provided via it.
+     * <p>
+     * Labels are used to distinguish several metrics of the same type (e.g. the queue length of each executor) by
+     * exports like the OpenMetrics endpoint (<tt>/metrics</tt>). As the metrics shown to the user only consist of
+     * the title, it still has to contain the label value.
+     * </p>
+     *
+     * @param name  the name of the label
+     * @param value the value of the label
+     * @return a collector which provides all metrics with the given label (in addition to the labels of this
+     * collector)
+     */
+    @Nonnull
+    MetricsCollector withLabel(@Nonnull String name, @Nonnull String value);
 }
@@ -0,0 +1,411 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.web.health;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import sirius.kernel.async.CallContext;
+import sirius.kernel.health.Exceptions;
+import sirius.kernel.health.Histogram;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Renders the metrics of all {@link MetricProvider}s in the OpenMetrics text format.
+ * <p>
+ * Each limit type becomes a metric family named <tt>sirius_</tt> followed by the limit type (e.g.
+ * <tt>sirius_http_requests</tt>). Plain metrics are exported as gauges, differential metrics as counters carrying
+ * the raw (monotonic) value and histograms as summaries (plus a gauge for the maximal value). All samples carry the
+ * name of the node as label along with the labels supplied via {@link MetricsCollector#withLabel(String, String)}.
+ * </p>
+ * <p>
+ * Only counters and histograms are queried from the providers for each scrape. Gauges are recorded by the regular
+ * collection of {@link Metrics} (see {@link #recordGauges(MetricsCollector)}) and served until the next one, as
+ * some of them are computed as delta since the last measurement (like the CPU usage) or are expensive to determine.
+ * </p>
+ * <p>
+ * As a family must be rendered as one block, samples are collected per family first. The buffers used for this are
+ * kept and re-used by the next scrape. Therefore an instance is not thread-safe and must be guarded by the caller.
+ * </p>
+ *
+ * @author Andreas Haufler (aha@scireum.de)
+ * @since 2014/11
+ */
+class OpenMetricsWriter {
+
+    /**
+     * Contains the content type to use when rendering metrics via HTTP.
+     */
+    static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+    private static final String PREFIX = "sirius_";
+    private static final String TYPE_GAUGE = "gauge";
+    private static final String TYPE_COUNTER = "counter";
+    private static final String TYPE_SUMMARY = "summary";
+
+    /*
+     * Caches the family name for each limit type
+     */
+    private final Map<String, String> names = Maps.newHashMap();
+
+    /*
+     * Contains all families known so far, in the order of their first appearance
+     */
+    private final Map<String, Family> families = Maps.newLinkedHashMap();
+
+    private final char[] buffer = new char[4096];
+    private int scrape;
+
+    /*
+     * Contains the gauges of the last regular collection and the ones of the collection in progress
+     */
+    private List<Gauge> gauges = Collections.emptyList();
+    private List<Gauge> recordedGauges = Lists.newArrayList();
+
+    /*
+     * Represents a gauge recorded by the regular collection
+     */
+    private static class Gauge {
+        private final String limitType;
+        private final String title;
+        private final Label labels;
+        private final double value;
+
+        private Gauge(String limitType, String title, Label labels, double value) {
+            this.limitType = limitType;
+            this.title = title;
+            this.labels = labels;
+            this.value = value;
+        }
+    }
+
+    /*
+     * Collects the samples of one metric family
+     */
+    private static class Family {
+        private final String name;
+        private final String type;
+        private final StringBuilder samples = new StringBuilder();
+        private String help;
+        private int lastScrape;
+
+        private Family(String name, String type) {
+            this.name = name;
+            this.type = type;
+        }
+    }
+
+    /*
+     * Represents a label as a linked list, so that deriving a collector with an additional label is cheap
+     */
+    private static class Label {
+        private final String name;
+        private final String value;
+        private final Label parent;
+
+        private Label(String name, String value, Label parent) {
+            this.name = name;
+            this.value = value;
+            this.parent = parent;
+        }
+    }
+
+    /*
+     * Forwards all metrics to the collector of the regular collection, while recording the gauges along with their
+     * labels
+     */
+    private class GaugeRecorder implements MetricsCollector {
+
+        private final MetricsCollector delegate;
+        private final Label labels;
+
+        private GaugeRecorder(MetricsCollector delegate, Label labels) {
+            this.delegate = delegate;
+            this.labels = labels;
+        }
+
+        @Override
+        public void metric(String title, double value, String unit, MetricState state) {
+            delegate.metric(title, value, unit, state);
+            recordedGauges.add(new Gauge(title, title, labels, value));
+        }
+
+        @Override
+        public void metric(String limitType, String title, double value, String unit) {
+            delegate.metric(limitType, title, value, unit);
+            recordedGauges.add(new Gauge(limitType, title, labels, value));
+        }
+
+        @Override
+        public void differentialMetric(String id, String limitType, String title, double currentValue, String unit) {
+            delegate.differentialMetric(id, limitType, title, currentValue, unit);
+        }
+
+        @Override
+        public void histogram(String limitType, String title, Histogram histogram, String unit) {
+            delegate.histogram(limitType, title, histogram, unit);
+        }
+
+        @Override
+        public boolean isCollectingGauges() {
+            return delegate.isCollectingGauges();
+        }
+
+        @Override
+        public MetricsCollector withLabel(String name, String value) {
+            return new GaugeRecorder(delegate.withLabel(name, value), new Label(name, value, labels));
+        }
+    }
+
+    /*
+     * Adds all provided counters and histograms as samples with the given labels. Gauges are ignored, as the ones
+     * of the last regular collection are used.
+     */
+    private class LabeledCollector implements MetricsCollector {
+
+        private final Label labels;
+
+        private LabeledCollector(Label labels) {
+            this.labels = labels;
+        }
+
+        @Override
+        public void metric(String title, double value, String unit, MetricState state) {
+            // Gauges are served from the last regular collection
+        }
+
+        @Override
+        public void metric(String limitType, String title, double value, String unit) {
+            // Gauges are served from the last regular collection
+        }
+
+        @Override
+        public boolean isCollectingGauges() {
+            return false;
+        }
+
+        @Override
+        public void differentialMetric(String id, String limitType, String title, double currentValue, String unit) {
+            Family family = family(limitType, TYPE_COUNTER, title, labels);
+            if (family != null) {
+                sample(family, "_total", labels, null, currentValue);
+            }
+        }
+
+        @Override
+        public void histogram(String limitType, String title, Histogram histogram, String unit) {
+            Histogram.Snapshot snapshot = histogram.getSnapshot();
+            Family family = family(limitType, TYPE_SUMMARY, title, labels);
+            if (family != null) {
+                quantile(family, "0.5", snapshot, snapshot.getP50());
+                quantile(family, "0.95", snapshot, snapshot.getP95());
+                quantile(family, "0.99", snapshot, snapshot.getP99());
+                sample(family, "_count", labels, null, histogram.getCount());
+                sample(family, "_sum", labels, null, histogram.getSum());
+            }
+            Family maxFamily = family(limitType + "-max", TYPE_GAUGE, title, labels);
+            if (maxFamily != null) {
+                sample(maxFamily, null, labels, null, snapshot.getMax());
+            }
+        }
+
+        private void quantile(Family family, String quantile, Histogram.Snapshot snapshot, long value) {
+            sample(family, null, labels, quantile, snapshot.getCount() == 0 ? Double.NaN : value);
+        }
+
+        @Override
+        public MetricsCollector withLabel(String name, String value) {
+            return new LabeledCollector(new Label(name, value, labels));
+        }
+    }
+
+    /**
+     * Wraps the collector used by the regular collection of {@link Metrics}, so that all gauges provided to it are
+     * recorded.
+     * <p>
+     * Once the collection is completed, {@link #publishGauges()} has to be invoked to serve the recorded gauges.
+     * </p>
+     *
+     * @param collector the collector to forward all metrics to
+     * @return a collector which forwards all metrics to the given one and records all gauges
+     */
+    MetricsCollector recordGauges(MetricsCollector collector) {
+        recordedGauges = Lists.newArrayList();
+        return new GaugeRecorder(collector, new Label("node", CallContext.getNodeName(), null));
+    }
+
+    /**
+     * Serves the gauges recorded since the last call of {@link #recordGauges(MetricsCollector)} until the next
+     * collection is completed.
+     */
+    void publishGauges() {
+        gauges = recordedGauges;
+    }
+
+    /**
+     * Collects the counters and histograms of all given providers and writes them along with the gauges of the last
+     * regular collection to the given writer.
+     * <p>
+     * The writer is neither flushed nor closed.
+     * </p>
+     *
+     * @param providers the providers to query
+     * @param out       the writer to render the metrics to
+     * @throws IOException in case of an error when writing to <tt>out</tt>
+     */
+    void write(Collection<MetricProvider> providers, Writer out) throws IOException {
+        LabeledCollector root = new LabeledCollector(new Label("node", CallContext.getNodeName(), null));
+        scrape++;
+        for (MetricProvider provider : providers) {
+            try {
+                provider.gather(root);
+            } catch (Exception e) {
+                Exceptions.handle(e);
+            }
+        }
+        for (Gauge gauge : gauges) {
+            Family family = family(gauge.limitType, TYPE_GAUGE, gauge.title, gauge.labels);
+            if (family != null) {
+                sample(family, null, gauge.labels, null, gauge.value);
+            }
+        }
+        for (Family family : families.values()) {
+            if (family.lastScrape == scrape) {
+                writeFamily(family, out);
+            }
+        }
+        out.write("# EOF\n");
+    }
+
+    /*
+     * Returns the family for the given limit type, which is reset if it is used for the first time in this scrape.
+     * Returns null if the family was already used with another type.
+     */
+    private Family family(String limitType, String type, String title, Label labels) {
+        String name = names.get(limitType);
+        if (name == null) {
+            name = toName(limitType);
+            names.put(limitType, name);
+        }
+        Family family = families.get(name);
+        if (family == null) {
+            family = new Family(name, type);
+            families.put(name, family);
+        }
+        if (!type.equals(family.type)) {
+            return null;
+        }
+        if (family.lastScrape != scrape) {
+            family.lastScrape = scrape;
+            family.samples.setLength(0);
+            family.help = null;
+        }
+        // Titles of labeled metrics contain the label values and therefore cannot describe the family
+        if (labels.parent == null) {
+            family.help = title;
+        }
+        return family;
+    }
+
+    private static String toName(String limitType) {
+        StringBuilder sb = new StringBuilder(PREFIX.length() + limitType.length());
+        sb.append(PREFIX);
+        for (int i = 0; i < limitType.length(); i++) {
+            char ch = Character.toLowerCase(limitType.charAt(i));
+            sb.append((ch >= 'a' && ch <= 'z') || (ch >= '0' && ch <= '9') ? ch : '_');
+        }
+        return sb.toString();
+    }
+
+    private void sample(Family family, String suffix, Label labels, String quantile, double value) {
+        StringBuilder sb = family.samples;
+        sb.append(family.name);
+        if (suffix != null) {
+            sb.append(suffix);
+        }
+        sb.append('{');
+        appendLabels(sb, labels);
+        if (quantile != null) {
+            sb.append(",quantile=\"").append(quantile).append('"');
+        }
+        sb.append("} ");
+        appendValue(sb, value);
+        sb.append('\n');
+    }
+
+    /*
+     * Appends the labels starting with the outermost one, so that the node always comes first
+     */
+    private void appendLabels(StringBuilder sb, Label label) {
+        if (label.parent != null) {
+            appendLabels(sb, label.parent);
+            sb.append(',');
+        }
+        sb.append(label.name).append("=\"");
+        appendEscaped(sb, label.value, true);
+        sb.append('"');
+    }
+
+    private void appendEscaped(StringBuilder sb, String value, boolean escapeQuotes) {
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            if (ch == '\\') {
+                sb.append("\\\\");
+            } else if (ch == '\n') {
+                sb.append("\\n");
+            } else if (ch == '"' && escapeQuotes) {
+                sb.append("\\\"");
+            } else {
+                sb.append(ch);
+            }
+        }
+    }
+
+    private void appendValue(StringBuilder sb, double value) {
+        if (Double.isNaN(value)) {
+            sb.append("NaN");
+        } else if (Double.isInfinite(value)) {
+            sb.append(value > 0 ? "+Inf" : "-Inf");
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            sb.append((long) value);
+        } else {
+            sb.append(value);
+        }
+    }
+
+    private void writeFamily(Family family, Writer out) throws IOException {
+        StringBuilder sb = family.samples;
+        int samplesLength = sb.length();
+        sb.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+        if (family.help != null) {
+            sb.append("# HELP ").append(family.name).append(' ');
+            appendEscaped(sb, family.help, false);
+            sb.append('\n');
+        }
+        // The header is appended behind the samples to re-use the buffer, but written first
+        write(sb, samplesLength, sb.length(), out);
+        write(sb, 0, samplesLength, out);
+        sb.setLength(samplesLength);
+    }
+
+    private void write(StringBuilder sb, int from, int to, Writer out) throws IOException {
+        int pos = from;
+        while (pos < to) {
+            int length = Math.min(buffer.length, to - pos);
+            sb.getChars(pos, pos + length, buffer, 0);
+            out.write(buffer, 0, length);
+            pos += length;
+        }
+    }
+}
@@ -8,11 +8,16 @@
 
 package sirius.web.health;
 
+import com.google.common.base.Charsets;
+import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpResponseStatus;
+import sirius.kernel.commons.Strings;
 import sirius.kernel.di.GlobalContext;
+import sirius.kernel.di.std.ConfigValue;
 import sirius.kernel.di.std.Context;
 import sirius.kernel.di.std.Part;
 import sirius.kernel.di.std.Register;
+import sirius.kernel.health.Exceptions;
 import sirius.kernel.health.HandledException;
 import sirius.kernel.health.MemoryBasedHealthMonitor;
 import sirius.kernel.nls.NLS;
@@ -23,6 +28,10 @@ import sirius.web.controller.Routed;
 import sirius.web.http.WebContext;
 import sirius.web.security.Permission;
 
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
 import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -101,6 +110,47 @@ public class SystemController implements Controller {
         ctx.respondWith().status(HttpResponseStatus.OK);
     }
 
+    @ConfigValue("health.openMetrics.token")
+    private String openMetricsToken;
+
+    /**
+     * Provides all metrics in the OpenMetrics text format, so that they can be scraped by a monitoring system.
+     * <p>
+     * As monitoring systems usually do not log in, the token given in <tt>health.openMetrics.token</tt> has to be
+     * supplied as bearer token (<tt>Authorization: Bearer [token]</tt>) or as parameter <tt>token</tt>. If no token
+     * is configured, this is disabled.
+     * </p>
+     */
+    @Routed("/metrics")
+    public void openMetrics(WebContext ctx) {
+        if (Strings.isEmpty(openMetricsToken)) {
+            ctx.respondWith().error(HttpResponseStatus.NOT_FOUND, "Please configure health.openMetrics.token");
+            return;
+        }
+        if (!isValidOpenMetricsToken(ctx)) {
+            ctx.respondWith().error(HttpResponseStatus.UNAUTHORIZED, "Please provide a valid token");
+            return;
+        }
+        try (Writer out = new OutputStreamWriter(ctx.respondWith()
+                                                    .notCached()
+                                                    .outputStream(HttpResponseStatus.OK,
+                                                                  OpenMetricsWriter.CONTENT_TYPE), Charsets.UTF_8)) {
+            metrics.writeOpenMetrics(out);
+        } catch (IOException e) {
+            throw Exceptions.handle(e);
+        }
+    }
+
+    private boolean isValidOpenMetricsToken(WebContext ctx) {
+        String token = ctx.get("token").asString();
+        String authorization = ctx.getHeader(HttpHeaders.Names.AUTHORIZATION);
+        if (authorization != null && authorization.startsWith("Bearer ")) {
+            token = authorization.substring("Bearer ".length()).trim();
+        }
+        // Compare in constant time, so that the token cannot be guessed by measuring the response time
+        return MessageDigest.isEqual(openMetricsToken.getBytes(Charsets.UTF_8), token.getBytes(Charsets.UTF_8));
+    }
+
     /**
      * Can be used to forcefully create an error. (A NullPointerException in this case.)
      */
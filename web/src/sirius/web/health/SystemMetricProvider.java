@@ -10,6 +10,8 @@ package sirius.web.health;
 
 import org.hyperic.sigar.*;
 import sirius.kernel.async.CallContext;
+import sirius.kernel.cache.Cache;
+import sirius.kernel.cache.CacheManager;
 import sirius.kernel.di.std.Part;
 import sirius.kernel.di.std.Register;
 import sirius.kernel.health.Exceptions;
@@ -40,7 +42,8 @@ public class SystemMetricProvider implements MetricProvider {
     @Override
     public void gather(MetricsCollector collector) {
         for (GarbageCollectorMXBean gc : gcs) {
-            collector.differentialMetric("jvm-gc-" + gc.getName(),
+            collector.withLabel("gc", gc.getName())
+                     .differentialMetric("jvm-gc-" + gc.getName(),
                                          "jvm-gc",
                                          "GC - " + gc.getName(),
                                          gc.getCollectionCount(),
@@ -58,12 +61,17 @@ public class SystemMetricProvider implements MetricProvider {
                                      "Unique Incidents",
                                      monitor.getNumUniqueIncidents(),
                                      "/min");
+        gatherCaches(collector);
 
         try {
             if (sigarEnabled) {
-                gatherCPUandMem(collector);
+                // The CPU usage is computed as delta since the last call, therefore it is only measured by the
+                // regular collection and not by a scrape of /metrics
+                if (collector.isCollectingGauges()) {
+                    gatherCPUandMem(collector);
+                    gatherFS(collector);
+                }
                 gatherNetworkStats(collector);
-                gatherFS(collector);
             }
         } catch (SigarException e) {
             Exceptions.handle(LOG, e);
@@ -73,6 +81,42 @@ public class SystemMetricProvider implements MetricProvider {
         }
     }
 
+    private void gatherCaches(MetricsCollector collector) {
+        collector.differentialMetric("inline-cache-hits",
+                                     "inline-cache-hits",
+                                     "Inline Cache Hits",
+                                     CacheManager.getInlineCacheHits(),
+                                     "/min");
+        collector.differentialMetric("inline-cache-refreshes",
+                                     "inline-cache-refreshes",
+                                     "Inline Cache Refreshes",
+                                     CacheManager.getInlineCacheRefreshes(),
+                                     "/min");
+        for (Cache<?, ?> cache : CacheManager.getCaches()) {
+            MetricsCollector cacheCollector = collector.withLabel("cache", cache.getName());
+            if (cache.getMaxWeight() > 0) {
+                cacheCollector.metric("cache-weight",
+                                      "Cache Weight: " + cache.getName(),
+                                      cache.getWeight() / 1024d / 1024d,
+                                      "MB");
+            }
+            if (cache.getMaxOffHeapUsage() > 0) {
+                cacheCollector.metric("cache-heap-hit-rate",
+                                      "Cache Heap Hit Rate: " + cache.getName(),
+                                      cache.getHeapHitRate(),
+                                      "%");
+                cacheCollector.metric("cache-off-heap-hit-rate",
+                                      "Cache Off-Heap Hit Rate: " + cache.getName(),
+                                      cache.getOffHeapHitRate(),
+                                      "%");
+                cacheCollector.metric("cache-off-heap-usage",
+                                      "Cache Off-Heap Usage: " + cache.getName(),
+                                      cache.getOffHeapUsage() / 1024d / 1024d,
+                                      "MB");
+            }
+        }
+    }
+
     private void gatherNetworkStats(MetricsCollector collector) throws SigarException {
         long rxSum = 0;
         long txSum = 0;
@@ -104,7 +148,8 @@ public class SystemMetricProvider implements MetricProvider {
         for (FileSystem fs : sigar.getFileSystemList()) {
             if (fs.getType() == FileSystem.TYPE_LOCAL_DISK) {
                 FileSystemUsage fsu = sigar.getMountedFileSystemUsage(fs.getDirName());
-                collector.metric("sys-fs", "FS: Usage of " + fs.getDirName(), fsu.getUsePercent() * 100d, "%");
+                collector.withLabel("mount", fs.getDirName())
+                         .metric("sys-fs", "FS: Usage of " + fs.getDirName(), fsu.getUsePercent() * 100d, "%");
             }
         }
     }
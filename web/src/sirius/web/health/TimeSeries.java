@@ -0,0 +1,154 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.web.health;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stores the history of a single metric in two fixed size ring buffers.
+ * <p>
+ * The fine tier keeps one value per minute for the last 24 hours. The coarse tier keeps the average of each ten
+ * minutes for the last 14 days. Values are stored as <tt>float</tt>, so that a series always occupies about 14 KB,
+ * no matter how long it has been recorded. Missing values (e.g. while the node was down) are stored as <tt>NaN</tt>.
+ * </p>
+ * <p>
+ * Slots are addressed by the minute since the epoch, therefore the buffers never have to be shifted.
+ * </p>
+ *
+ * @author Andreas Haufler (aha@scireum.de)
+ * @since 2014/11
+ */
+class TimeSeries {
+
+    /*
+     * Number of minutes aggregated into one value of the coarse tier
+     */
+    private static final int COARSE_MINUTES = 10;
+
+    /*
+     * Number of values kept by the fine tier (24h)
+     */
+    static final int FINE_SLOTS = 24 * 60;
+
+    /*
+     * Number of values kept by the coarse tier (14d)
+     */
+    static final int COARSE_SLOTS = 14 * 24 * 60 / COARSE_MINUTES;
+
+    private static final long MINUTE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final String name;
+    private final float[] fine = new float[FINE_SLOTS];
+    private final float[] coarse = new float[COARSE_SLOTS];
+    private String unit;
+
+    /*
+     * Contains the minute (since the epoch) of the last recorded value or -1 if nothing was recorded yet
+     */
+    private long lastMinute = -1;
+
+    /*
+     * Aggregates the values of the current (incomplete) coarse slot
+     */
+    private double coarseSum;
+    private int coarseCount;
+
+    TimeSeries(String name) {
+        this.name = name;
+        Arrays.fill(fine, Float.NaN);
+        Arrays.fill(coarse, Float.NaN);
+    }
+
+    /*
+     * Records the value for the minute containing the given timestamp. Values for a minute which is not after the
+     * last recorded one are ignored.
+     */
+    synchronized void record(long timestamp, double value, String unit) {
+        long minute = timestamp / MINUTE_MILLIS;
+        if (minute <= lastMinute) {
+            return;
+        }
+        this.unit = unit;
+        if (lastMinute >= 0) {
+            clear(fine, lastMinute + 1, minute);
+            long lastSlot = lastMinute / COARSE_MINUTES;
+            long slot = minute / COARSE_MINUTES;
+            if (slot != lastSlot) {
+                coarse[(int) (lastSlot % COARSE_SLOTS)] = (float) getCoarseAverage();
+                clear(coarse, lastSlot + 1, slot);
+                coarseSum = 0;
+                coarseCount = 0;
+            }
+        }
+        fine[(int) (minute % FINE_SLOTS)] = (float) value;
+        if (!Double.isNaN(value)) {
+            coarseSum += value;
+            coarseCount++;
+        }
+        lastMinute = minute;
+    }
+
+    private double getCoarseAverage() {
+        return coarseCount == 0 ? Double.NaN : coarseSum / coarseCount;
+    }
+
+    /*
+     * Marks the slots from (inclusive) to (exclusive) as missing
+     */
+    private void clear(float[] buffer, long from, long to) {
+        for (long slot = from; slot < to && slot < from + buffer.length; slot++) {
+            buffer[(int) (slot % buffer.length)] = Float.NaN;
+        }
+    }
+
+    /*
+     * Returns the timestamp of the last recorded value or -1 if nothing was recorded yet
+     */
+    synchronized long getLastRecorded() {
+        return lastMinute < 0 ? -1 : lastMinute * MINUTE_MILLIS;
+    }
+
+    /*
+     * Returns the values between the given timestamps. If the range starts within the last 24 hours, values are
+     * reported per minute, otherwise per ten minutes.
+     */
+    synchronized MetricHistory.Range query(long from, long to) {
+        if (lastMinute < 0) {
+            return new MetricHistory.Range(name, unit, from, MINUTE_MILLIS, new double[0]);
+        }
+        long fromMinute = Math.max(0, from / MINUTE_MILLIS);
+        long toMinute = Math.min(lastMinute, to / MINUTE_MILLIS);
+        if (fromMinute > lastMinute - FINE_SLOTS) {
+            return extract(fine, fromMinute, toMinute, 1, lastMinute);
+        }
+        long currentSlot = lastMinute / COARSE_MINUTES;
+        return extract(coarse, fromMinute / COARSE_MINUTES, toMinute / COARSE_MINUTES, COARSE_MINUTES, currentSlot);
+    }
+
+    /*
+     * Reads the given slots of the given buffer. The slot given as current is not yet complete and therefore
+     * computed from the running aggregation (for the coarse tier).
+     */
+    private MetricHistory.Range extract(float[] buffer, long fromSlot, long toSlot, int minutesPerSlot, long current) {
+        long firstSlot = Math.max(fromSlot, current - buffer.length + 1);
+        int length = (int) Math.max(0, toSlot - firstSlot + 1);
+        double[] values = new double[length];
+        for (int i = 0; i < length; i++) {
+            long slot = firstSlot + i;
+            if (slot == current && buffer == coarse) {
+                values[i] = getCoarseAverage();
+            } else {
+                values[i] = buffer[(int) (slot % buffer.length)];
+            }
+        }
+        long resolution = minutesPerSlot * MINUTE_MILLIS;
+        return new MetricHistory.Range(name, unit, firstSlot * resolution, resolution, values);
+    }
+}
@@ -23,16 +23,28 @@ public class AsyncInfoCommand implements Command {
 
     @Override
     public void execute(Output output, String... params) throws Exception {
-        output.apply("%-20s %8s %8s %16s %8s %8s", "POOL", "ACTIVE", "QUEUED", "TOTAL", "BLOCKED", "DROPPED");
+        output.apply("%-20s %8s %8s %16s %8s %8s %8s %8s %10s",
+                     "POOL",
+                     "ACTIVE",
+                     "QUEUED",
+                     "TOTAL",
+                     "BLOCKED",
+                     "DROPPED",
+                     "SHED",
+                     "EXPIRED",
+                     "WAIT(95%)");
         output.separator();
         for (AsyncExecutor exec : Async.getExecutors()) {
-            output.apply("%-20s %8d %8d %16d %8d %8d",
-                         exec.getCategory(),
+            output.apply("%-20s %8d %8d %16d %8d %8d %8d %8d %7.1f ms",
+                         exec.isVirtual() ? exec.getCategory() + " (v)" : exec.getCategory(),
                          exec.getActiveCount(),
                          exec.getQueue().size(),
                          exec.getCompletedTaskCount(),
                          exec.getBlocked(),
-                         exec.getDropped());
+                         exec.getDropped(),
+                         exec.getShed(),
+                         exec.getExpired(),
+                         exec.getQueueWait(95));
         }
         output.separator();
     }
@@ -12,6 +12,7 @@ import sirius.kernel.cache.Cache;
 import sirius.kernel.cache.CacheManager;
 import sirius.kernel.commons.Value;
 import sirius.kernel.di.std.Register;
+import sirius.kernel.nls.NLS;
 
 /**
  * Console command which reports statistics for all caches.
@@ -35,12 +36,41 @@ public class CacheCommand implements Command {
             output.line("Use cache <name> to flush the given cache...");
         }
         output.blankLine();
-        output.apply("%-53s %8s %8s %8s", "NAME", "SIZE", "MAX-SIZE", "HIT-RATE");
+        output.apply("%-33s %8s %8s %8s %8s %10s", "NAME", "SIZE", "MAX-SIZE", "HIT-RATE", "SHARED", "WEIGHT");
         output.separator();
         for (Cache<?, ?> c : CacheManager.getCaches()) {
-            output.apply("%-53s %8d %8d %8d", c.getName(), c.getSize(), c.getMaxSize(), c.getHitRate());
+            output.apply("%-33s %8d %8d %8d %8d %10s",
+                         c.getName(),
+                         c.getSize(),
+                         c.getMaxSize(),
+                         c.getHitRate(),
+                         c.getCoalescedComputations(),
+                         c.getMaxWeight() > 0 ? NLS.formatSize(c.getWeight()) : "-");
         }
         output.separator();
+        if (CacheManager.getCaches().stream().anyMatch(c -> c.getMaxOffHeapUsage() > 0)) {
+            output.blankLine();
+            output.apply("%-33s %8s %10s %10s %8s %8s",
+                         "OFF-HEAP",
+                         "SIZE",
+                         "USAGE",
+                         "MAX-USAGE",
+                         "HEAP-HIT",
+                         "OFF-HIT");
+            output.separator();
+            for (Cache<?, ?> c : CacheManager.getCaches()) {
+                if (c.getMaxOffHeapUsage() > 0) {
+                    output.apply("%-33s %8d %10s %10s %8d %8d",
+                                 c.getName(),
+                                 c.getOffHeapSize(),
+                                 NLS.formatSize(c.getOffHeapUsage()),
+                                 NLS.formatSize(c.getMaxOffHeapUsage()),
+                                 c.getHeapHitRate(),
+                                 c.getOffHeapHitRate());
+                }
+            }
+            output.separator();
+        }
     }
 
     @Override
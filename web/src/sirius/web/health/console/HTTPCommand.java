@@ -77,6 +77,7 @@ public class HTTPCommand implements Command {
             output.apply("%-20s %10d", "Client Errors", WebServer.getClientErrors());
             output.apply("%-20s %10d", "Server Errors", WebServer.getServerErrors());
             output.apply("%-20s %10s", "Avg. Response Time", NLS.toUserString(WebServer.getAvgResponseTime()) + " ms");
+            output.apply("%-20s %10s", "Response Time (99%)", WebServer.getResponseTimes().getP99() + " ms");
             output.separator();
         }
     }
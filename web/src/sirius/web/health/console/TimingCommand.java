@@ -10,14 +10,18 @@ package sirius.web.health.console;
 
 import sirius.kernel.commons.MultiMap;
 import sirius.kernel.commons.Strings;
+import sirius.kernel.commons.Value;
 import sirius.kernel.di.std.Register;
-import sirius.kernel.health.Average;
+import sirius.kernel.health.Histogram;
 import sirius.kernel.health.Microtiming;
+import sirius.kernel.nls.NLS;
+
+import java.time.Instant;
 
 /**
  * Console command which enables/disables the all mighty Micro-Timing framework.
  * <p>
- * It also reports timings recorded for the last period of time.
+ * It also reports timings recorded for the last period of time, along with their percentiles.
  * </p>
  *
  * @author Andreas Haufler (aha@scireum.de)
@@ -28,7 +32,10 @@ public class TimingCommand implements Command {
 
     @Override
     public void execute(Output output, String... params) throws Exception {
-        if (params.length == 1 && Strings.isFilled(params[0])) {
+        if (params.length == 2 && "sample".equalsIgnoreCase(params[0])) {
+            Microtiming.setSamplingRate(Value.of(params[1]).asInt(1));
+            output.apply("Recording every %d. timing...", Microtiming.getSamplingRate());
+        } else if (params.length == 1 && Strings.isFilled(params[0])) {
             if ("enable".equalsIgnoreCase(params[0]) || "+".equalsIgnoreCase(params[0])) {
                 if (Microtiming.isEnabled()) {
                     generateOutput(output);
@@ -44,7 +51,7 @@ public class TimingCommand implements Command {
                 output.line("Disabling Microtiming...");
             } else {
                 output.line("Usage: timing enable|disable (You can use + and - for enable/disable).");
-                output.line("To enable tracing: timing trace <filter-expression>");
+                output.line("To only record every n-th timing: timing sample <n>");
             }
         } else {
             if (Microtiming.isEnabled()) {
@@ -57,11 +64,20 @@ public class TimingCommand implements Command {
 
     /**
      * Generates the output for all recorded micro timings.
+     * <p>
+     * As only every n-th timing is recorded if a sampling rate is set, the count and total time are extrapolated.
+     * </p>
      *
      * @param output the output interface to send the output to
      */
     protected void generateOutput(Output output) {
         long delta = System.currentTimeMillis() - Microtiming.getLastReset();
+        int samplingRate = Microtiming.getSamplingRate();
+        output.apply("Recorded since: %s (Last reset: %s), Sampling: every %d. timing",
+                     NLS.convertDuration(delta),
+                     NLS.toUserString(Instant.ofEpochMilli(Microtiming.getLastReset())),
+                     samplingRate);
+        output.blankLine();
         Microtiming.getTimings()
                    .stream()
                    .collect(MultiMap.groupingBy(MultiMap::create, t -> t.getCategory()))
@@ -69,17 +85,29 @@ public class TimingCommand implements Command {
                    .forEach(c -> {
                        output.line(c.getKey());
                        output.separator();
-                       output.apply("%8s %9s %5s %5s %s", "AVG[ms]", "TOTAL[ms]", "RATIO", "COUNT", "NAME");
+                       output.apply("%8s %8s %8s %8s %9s %6s %7s %s",
+                                    "AVG[ms]",
+                                    "50%[ms]",
+                                    "95%[ms]",
+                                    "99%[ms]",
+                                    "TOTAL[ms]",
+                                    "RATIO",
+                                    "COUNT",
+                                    "NAME");
                        output.separator();
                        c.getValue().forEach(v -> {
-                           Average avg = v.getAvg();
-                           double totalTime = avg.getAvg() / 1000d * avg.getCount();
+                           Histogram.Snapshot snapshot = v.getHistogram().getSnapshot();
+                           long count = snapshot.getCount() * samplingRate;
+                           double totalTime = snapshot.getMean() / 1000d * count;
                            double percentTime = (totalTime * 100d) / delta;
-                           output.apply("%8.2f %9d %4.2f%% %5d %s",
-                                        avg.getAvg() / 1000d,
+                           output.apply("%8.2f %8.2f %8.2f %8.2f %9d %5.2f%% %7d %s",
+                                        snapshot.getMean() / 1000d,
+                                        snapshot.getP50() / 1000d,
+                                        snapshot.getP95() / 1000d,
+                                        snapshot.getP99() / 1000d,
                                         Math.round(totalTime),
                                         percentTime,
-                                        avg.getCount(),
+                                        count,
                                         v.getKey());
                        });
                        output.separator();
@@ -35,17 +35,11 @@ class LowLevelHandler extends ChannelDuplexHandler {
                         SocketAddress remoteAddress,
                         SocketAddress localAddress,
                         ChannelPromise future) throws Exception {
-        WebServer.connections++;
-        if (WebServer.connections < 0) {
-            WebServer.connections = 0;
-        }
+        WebServer.connections.inc();
         IPRange.RangeSet filter = WebServer.getIPFilter();
         if (!filter.isEmpty()) {
             if (!filter.accepts(((InetSocketAddress) remoteAddress).getAddress())) {
-                WebServer.blocks++;
-                if (WebServer.blocks < 0) {
-                    WebServer.blocks = 0;
-                }
+                WebServer.blocks.inc();
                 ctx.channel().close();
                 future.setSuccess();
                 return;
@@ -57,14 +51,8 @@ class LowLevelHandler extends ChannelDuplexHandler {
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
         if (msg instanceof ByteBuf) {
-            WebServer.bytesIn += ((ByteBuf) msg).readableBytes();
-            if (WebServer.bytesIn < 0) {
-                WebServer.bytesIn = 0;
-            }
-            WebServer.messagesIn++;
-            if (WebServer.messagesIn < 0) {
-                WebServer.messagesIn = 0;
-            }
+            WebServer.bytesIn.add(((ByteBuf) msg).readableBytes());
+            WebServer.messagesIn.inc();
             ctx.pipeline().get(WebServerHandler.class).inbound(((ByteBuf) msg).readableBytes());
         }
         super.channelRead(ctx, msg);
@@ -73,14 +61,8 @@ class LowLevelHandler extends ChannelDuplexHandler {
     @Override
     public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
         if (msg instanceof ByteBuf) {
-            WebServer.bytesOut += ((ByteBuf) msg).writableBytes();
-            if (WebServer.bytesOut < 0) {
-                WebServer.bytesOut = 0;
-            }
-            WebServer.messagesOut++;
-            if (WebServer.messagesOut < 0) {
-                WebServer.messagesOut = 0;
-            }
+            WebServer.bytesOut.add(((ByteBuf) msg).writableBytes());
+            WebServer.messagesOut.inc();
             ctx.pipeline().get(WebServerHandler.class).outbound(((ByteBuf) msg).readableBytes());
         }
         super.write(ctx, msg, promise);
@@ -199,15 +199,9 @@ public class Response {
      */
     private void setupResponse(HttpResponseStatus status, boolean keepalive, DefaultHttpResponse response) {
         if (status.code() >= 500) {
-            WebServer.serverErrors++;
-            if (WebServer.serverErrors < 0) {
-                WebServer.serverErrors = 0;
-            }
+            WebServer.serverErrors.inc();
         } else if (status.code() >= 400) {
-            WebServer.clientErrors++;
-            if (WebServer.clientErrors < 0) {
-                WebServer.clientErrors = 0;
-            }
+            WebServer.clientErrors.inc();
         }
 
         //Apply headers
@@ -331,10 +325,7 @@ public class Response {
                     if (WebServer.LOG.isFINE()) {
                         WebServer.LOG.FINE("KEEP-ALIVE: " + wc.getRequestedURI());
                     }
-                    WebServer.keepalives++;
-                    if (WebServer.keepalives < 0) {
-                        WebServer.keepalives = 0;
-                    }
+                    WebServer.keepalives.inc();
                 }
             }
         });
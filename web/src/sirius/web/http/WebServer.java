@@ -28,8 +28,9 @@ import sirius.kernel.di.std.ConfigValue;
 import sirius.kernel.di.std.Context;
 import sirius.kernel.di.std.Part;
 import sirius.kernel.di.std.Register;
-import sirius.kernel.health.Average;
+import sirius.kernel.health.Counter;
 import sirius.kernel.health.Exceptions;
+import sirius.kernel.health.Histogram;
 import sirius.kernel.health.Log;
 import sirius.kernel.timer.EveryTenSeconds;
 import sirius.web.health.MetricProvider;
@@ -37,6 +38,7 @@ import sirius.web.health.MetricsCollector;
 import sirius.web.http.session.SessionManager;
 
 import java.net.InetSocketAddress;
+import java.time.Duration;
 import java.util.Collection;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
@@ -71,6 +73,25 @@ public class WebServer implements Lifecycle, MetricProvider {
         return port;
     }
 
+    /**
+     * Config value of the idle timeout (<tt>http.idleTimeout</tt>). Once a channel was idle for this period, it is
+     * closed - unless the request is marked as long call.
+     */
+    @ConfigValue("http.idleTimeout")
+    private static Duration idleTimeout;
+
+    /**
+     * Returns the idle timeout in milliseconds.
+     * <p>
+     * This is also used as deadline for queued requests, as their channel is closed anyway once the timeout passed.
+     * </p>
+     *
+     * @return the idle timeout in milliseconds or 0 if no timeout is configured
+     */
+    public static long getIdleTimeoutMillis() {
+        return idleTimeout == null ? 0 : idleTimeout.toMillis();
+    }
+
     /**
      * Config value of the HTTP bind address used (<tt>http.bindAddress</tt>). If the value is empty, we bind all
      * addresses. Otherwise this can be used to bind against a single IP address in order to setup multiple servers
@@ -248,20 +269,20 @@ public class WebServer implements Lifecycle, MetricProvider {
     /*
      * Statistics
      */
-    protected static volatile long bytesIn = 0;
-    protected static volatile long bytesOut = 0;
-    protected static volatile long messagesIn = 0;
-    protected static volatile long messagesOut = 0;
-    protected static volatile long connections = 0;
-    protected static volatile long blocks = 0;
-    protected static volatile long requests = 0;
-    protected static volatile long chunks = 0;
-    protected static volatile long keepalives = 0;
-    protected static volatile long idleTimeouts = 0;
-    protected static volatile long clientErrors = 0;
-    protected static volatile long serverErrors = 0;
+    protected static Counter bytesIn = new Counter();
+    protected static Counter bytesOut = new Counter();
+    protected static Counter messagesIn = new Counter();
+    protected static Counter messagesOut = new Counter();
+    protected static Counter connections = new Counter();
+    protected static Counter blocks = new Counter();
+    protected static Counter requests = new Counter();
+    protected static Counter chunks = new Counter();
+    protected static Counter keepalives = new Counter();
+    protected static Counter idleTimeouts = new Counter();
+    protected static Counter clientErrors = new Counter();
+    protected static Counter serverErrors = new Counter();
     protected static Map<WebServerHandler, WebServerHandler> openConnections = Maps.newConcurrentMap();
-    protected static Average responseTime = new Average();
+    protected static Histogram responseTime = new Histogram();
     protected static volatile MicrotimingMode microtimingMode = MicrotimingMode.URI;
 
     /**
@@ -385,7 +406,7 @@ public class WebServer implements Lifecycle, MetricProvider {
      * @return the total bytes received via the http port
      */
     public static long getBytesIn() {
-        return bytesIn;
+        return bytesIn.getCount();
     }
 
     /**
@@ -394,7 +415,7 @@ public class WebServer implements Lifecycle, MetricProvider {
      * @return the total bytes sent via the http port
      */
     public static long getBytesOut() {
-        return bytesOut;
+        return bytesOut.getCount();
     }
 
     /**
@@ -403,7 +424,7 @@ public class WebServer implements Lifecycle, MetricProvider {
      * @return the total messages sent via the http port
      */
     public static long getMessagesIn() {
-        return messagesIn;
+        return messagesIn.getCount();
     }
 
     /**
@@ -412,7 +433,7 @@ public class WebServer implements Lifecycle, MetricProvider {
      * @return the total messages received via the http port
      */
     public static long getMessagesOut() {
-        return messagesOut;
+        return messagesOut.getCount();
     }
 
     /**
@@ -421,7 +442,7 @@ public class WebServer implements Lifecycle, MetricProvider {
      * @return the total number of connections opened on the http port
      */
     public static long getConnections() {
-        return connections;
+        return connections.getCount();
     }
 
     /**
@@ -430,7 +451,7 @@ public class WebServer implements Lifecycle, MetricProvider {
      * @return the total number of connections blocked via a firewall rule on the http port
      */
     public static long getBlockedConnections() {
-        return blocks;
+        return blocks.getCount();
     }
 
     /**
@@ -448,7 +469,7 @@ public class WebServer implements Lifecycle, MetricProvider {
      * @return the total number of requests received
      */
     public static long getRequests() {
-        return requests;
+        return requests.getCount();
     }
 
     /**
@@ -457,7 +478,7 @@ public class WebServer implements Lifecycle, MetricProvider {
      * @return the total number of chunks received
      */
     public static long getChunks() {
-        return chunks;
+        return chunks.getCount();
     }
 
     /**
@@ -466,7 +487,7 @@ public class WebServer implements Lifecycle, MetricProvider {
      * @return the number of connections not closed in order to keep them alive.
      */
     public static long getKeepalives() {
-        return keepalives;
+        return keepalives.getCount();
     }
 
     /**
@@ -475,7 +496,7 @@ public class WebServer implements Lifecycle, MetricProvider {
      * @return the number of connections closed because they were found to be idle.
      */
     public static long getIdleTimeouts() {
-        return idleTimeouts;
+        return idleTimeouts.getCount();
     }
 
     /**
@@ -484,7 +505,7 @@ public class WebServer implements Lifecycle, MetricProvider {
      * @return the number of HTTP responses with an 4xx status code.
      */
     public static long getClientErrors() {
-        return clientErrors;
+        return clientErrors.getCount();
     }
 
     /**
@@ -493,42 +514,67 @@ public class WebServer implements Lifecycle, MetricProvider {
      * @return the number of HTTP responses with an 5xx status code.
      */
     public static long getServerErrors() {
-        return serverErrors;
+        return serverErrors.getCount();
     }
 
     /**
      * Returns the average response time of the last requests.
      *
-     * @return the average response time of the last requests in milliseconds.
+     * @return the average response time of the requests within the current minute in milliseconds.
      */
     public static double getAvgResponseTime() {
-        return responseTime.getAvg();
+        return responseTime.getSnapshot().getMean();
+    }
+
+    /**
+     * Returns the distribution of the response times of the last requests.
+     *
+     * @return the distribution of the response times (in milliseconds) of the requests within the current minute
+     */
+    public static Histogram.Snapshot getResponseTimes() {
+        return responseTime.getSnapshot();
     }
 
     @Override
     public void gather(MetricsCollector collector) {
-        collector.differentialMetric("http-bytes-in", "http-bytes-in", "HTTP Bytes-In", bytesIn / 1024d / 60, "KB/s");
+        collector.differentialMetric("http-bytes-in",
+                                     "http-bytes-in",
+                                     "HTTP Bytes-In",
+                                     bytesIn.getCount() / 1024d / 60,
+                                     "KB/s");
         collector.differentialMetric("http-bytes-out",
                                      "http-bytes-out",
                                      "HTTP Bytes-Out",
-                                     bytesOut / 1024d / 60,
+                                     bytesOut.getCount() / 1024d / 60,
                                      "KB/s");
-        collector.differentialMetric("http-connects", "http-connects", "HTTP Connects", connections, "/min");
-        collector.differentialMetric("http-requests", "http-requests", "HTTP Requests", requests, "/min");
-        collector.differentialMetric("http-blocks", "http-blocks", "HTTP Blocked Requests", blocks, "/min");
-        collector.differentialMetric("http-timeouts", "http-timeouts", "HTTP Idle Timeouts", idleTimeouts, "/min");
+        collector.differentialMetric("http-connects",
+                                     "http-connects",
+                                     "HTTP Connects",
+                                     connections.getCount(),
+                                     "/min");
+        collector.differentialMetric("http-requests", "http-requests", "HTTP Requests", requests.getCount(), "/min");
+        collector.differentialMetric("http-blocks",
+                                     "http-blocks",
+                                     "HTTP Blocked Requests",
+                                     blocks.getCount(),
+                                     "/min");
+        collector.differentialMetric("http-timeouts",
+                                     "http-timeouts",
+                                     "HTTP Idle Timeouts",
+                                     idleTimeouts.getCount(),
+                                     "/min");
         collector.differentialMetric("http-client-errors",
                                      "http-client-errors",
                                      "HTTP Client Errors (4xx)",
-                                     clientErrors,
+                                     clientErrors.getCount(),
                                      "/min");
         collector.differentialMetric("http-server-errors",
-                                     "http-client-errors",
+                                     "http-server-errors",
                                      "HTTP Server Errors (5xx)",
-                                     serverErrors,
+                                     serverErrors.getCount(),
                                      "/min");
         collector.metric("http-open-connections", "HTTP Open Connections", openConnections.size(), null);
-        collector.metric("http-response-time", "HTTP Avg. Reponse Time", responseTime.getAndClearAverage(), "ms");
+        collector.histogram("http-response-time", "HTTP Response Time", responseTime, "ms");
         collector.metric("http-sessions", "HTTP Sessions", sessionManager.getNumberOfSessions(), null);
     }
 
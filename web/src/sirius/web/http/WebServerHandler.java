@@ -150,10 +150,7 @@ class WebServerHandler extends ChannelDuplexHandler implements ActiveHTTPConnect
                 if (WebServer.LOG.isFINE()) {
                     WebServer.LOG.FINE("IDLE: " + wc.getRequestedURI());
                 }
-                WebServer.idleTimeouts++;
-                if (WebServer.idleTimeouts < 0) {
-                    WebServer.idleTimeouts = 0;
-                }
+                WebServer.idleTimeouts.inc();
                 ctx.channel().close();
                 return;
             }
@@ -231,10 +228,7 @@ class WebServerHandler extends ChannelDuplexHandler implements ActiveHTTPConnect
                         currentRequest = null;
                         return;
                     }
-                    WebServer.chunks++;
-                    if (WebServer.chunks < 0) {
-                        WebServer.chunks = 0;
-                    }
+                    WebServer.chunks.inc();
                     if (currentContext.contentHandler != null) {
                         currentContext.contentHandler.handle(((HttpContent) msg).content(), false);
                     } else {
@@ -265,10 +259,7 @@ class WebServerHandler extends ChannelDuplexHandler implements ActiveHTTPConnect
      * Signals that a bad or incomplete request was received
      */
     private void signalBadRequest(ChannelHandlerContext ctx) {
-        WebServer.clientErrors++;
-        if (WebServer.clientErrors < 0) {
-            WebServer.clientErrors = 0;
-        }
+        WebServer.clientErrors.inc();
         ctx.writeAndFlush(new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_REQUEST))
            .addListener(ChannelFutureListener.CLOSE);
         currentRequest = null;
@@ -279,10 +270,7 @@ class WebServerHandler extends ChannelDuplexHandler implements ActiveHTTPConnect
      */
     private void handleRequest(ChannelHandlerContext ctx, HttpRequest req) {
         try {
-            WebServer.requests++;
-            if (WebServer.requests < 0) {
-                WebServer.requests = 0;
-            }
+            WebServer.requests.inc();
             cleanup();
             if (WebServer.LOG.isFINE()) {
                 WebServer.LOG.FINE("OPEN: " + req.getUri());
@@ -300,10 +288,7 @@ class WebServerHandler extends ChannelDuplexHandler implements ActiveHTTPConnect
             try {
                 if (!WebServer.getIPFilter().isEmpty()) {
                     if (!WebServer.getIPFilter().accepts(currentContext.getRemoteIP())) {
-                        WebServer.blocks++;
-                        if (WebServer.blocks < 0) {
-                            WebServer.blocks = 0;
-                        }
+                        WebServer.blocks.inc();
                         if (WebServer.LOG.isFINE()) {
                             WebServer.LOG.FINE("BLOCK: " + req.getUri());
                         }
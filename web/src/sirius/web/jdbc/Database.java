@@ -12,11 +12,12 @@ import com.google.common.collect.Maps;
 import org.apache.commons.dbcp.BasicDataSource;
 import sirius.kernel.commons.Context;
 import sirius.kernel.commons.Strings;
+import sirius.kernel.commons.Watch;
 import sirius.kernel.di.std.Register;
 import sirius.kernel.extensions.Extension;
 import sirius.kernel.extensions.Extensions;
-import sirius.kernel.health.Average;
 import sirius.kernel.health.Counter;
+import sirius.kernel.health.Histogram;
 import sirius.kernel.health.Log;
 import sirius.kernel.nls.Formatter;
 import sirius.web.health.MetricProvider;
@@ -50,7 +51,7 @@ public class Database {
 
     protected static Counter numUses = new Counter();
     protected static Counter numQueries = new Counter();
-    protected static Average queryDuration = new Average();
+    protected static Histogram queryDuration = new Histogram();
 
     private final String name;
     private String driver;
@@ -76,7 +77,7 @@ public class Database {
             if (!datasources.isEmpty()) {
                 collector.differentialMetric("jdbc-use", "db-uses", "JDBC Uses", numUses.getCount(), null);
                 collector.differentialMetric("jdbc-queries", "db-queries", "JDBC Queries", numQueries.getCount(), null);
-                collector.metric("db-query-duration", "JDBC Query Duration", queryDuration.getAndClearAverage(), "ms");
+                collector.histogram("db-query-duration", "JDBC Query Duration", queryDuration, "ms");
             }
         }
     }
@@ -167,9 +168,19 @@ public class Database {
      * @throws SQLException in case of a database error
      */
     public Connection getConnection() throws SQLException {
+        numUses.inc();
         return new WrappedConnection(getDatasource().getConnection(), this);
     }
 
+    /*
+     * Records the execution of a statement for the metrics and the microtiming
+     */
+    protected static void recordQuery(Watch w, String sql) {
+        numQueries.inc();
+        queryDuration.addValue(w.elapsedMillis());
+        w.submitMicroTiming("SQL", sql);
+    }
+
     /**
      * Creates a new query wrapper which permits safe and convenient queries.
      * <p>
@@ -44,7 +44,7 @@ class WrappedPreparedStatement implements PreparedStatement {
         try {
             return delegate.executeQuery(sql);
         } finally {
-            w.submitMicroTiming("SQL", sql);
+            Database.recordQuery(w, sql);
         }
     }
 
@@ -62,7 +62,7 @@ class WrappedPreparedStatement implements PreparedStatement {
         try {
             return delegate.executeQuery();
         } finally {
-            w.submitMicroTiming("SQL", preparedSQL);
+            Database.recordQuery(w, preparedSQL);
         }
     }
 
@@ -75,7 +75,7 @@ class WrappedPreparedStatement implements PreparedStatement {
         try {
             return delegate.executeUpdate(sql);
         } finally {
-            w.submitMicroTiming("SQL", sql);
+            Database.recordQuery(w, sql);
         }
     }
 
@@ -93,7 +93,7 @@ class WrappedPreparedStatement implements PreparedStatement {
         try {
             return delegate.executeUpdate();
         } finally {
-            w.submitMicroTiming("SQL", preparedSQL);
+            Database.recordQuery(w, preparedSQL);
         }
     }
 
@@ -236,7 +236,7 @@ class WrappedPreparedStatement implements PreparedStatement {
         try {
             return delegate.execute(sql);
         } finally {
-            w.submitMicroTiming("SQL", sql);
+            Database.recordQuery(w, sql);
         }
     }
 
@@ -335,7 +335,7 @@ class WrappedPreparedStatement implements PreparedStatement {
         try {
             return delegate.execute();
         } finally {
-            w.submitMicroTiming("SQL", preparedSQL);
+            Database.recordQuery(w, preparedSQL);
         }
     }
 
@@ -408,7 +408,7 @@ class WrappedPreparedStatement implements PreparedStatement {
         try {
             return delegate.executeUpdate(sql, autoGeneratedKeys);
         } finally {
-            w.submitMicroTiming("SQL", sql);
+            Database.recordQuery(w, sql);
         }
     }
 
@@ -426,7 +426,7 @@ class WrappedPreparedStatement implements PreparedStatement {
         try {
             return delegate.executeUpdate(sql, columnIndexes);
         } finally {
-            w.submitMicroTiming("SQL", sql);
+            Database.recordQuery(w, sql);
         }
     }
 
@@ -449,7 +449,7 @@ class WrappedPreparedStatement implements PreparedStatement {
         try {
             return delegate.executeUpdate(sql, columnNames);
         } finally {
-            w.submitMicroTiming("SQL", sql);
+            Database.recordQuery(w, sql);
         }
     }
 
@@ -462,7 +462,7 @@ class WrappedPreparedStatement implements PreparedStatement {
         try {
             return delegate.execute(sql, autoGeneratedKeys);
         } finally {
-            w.submitMicroTiming("SQL", sql);
+            Database.recordQuery(w, sql);
         }
     }
 
@@ -490,7 +490,7 @@ class WrappedPreparedStatement implements PreparedStatement {
         try {
             return delegate.execute(sql, columnIndexes);
         } finally {
-            w.submitMicroTiming("SQL", sql);
+            Database.recordQuery(w, sql);
         }
     }
 
@@ -513,7 +513,7 @@ class WrappedPreparedStatement implements PreparedStatement {
         try {
             return delegate.execute(sql, columnNames);
         } finally {
-            w.submitMicroTiming("SQL", sql);
+            Database.recordQuery(w, sql);
         }
     }
 
@@ -38,7 +38,7 @@ class WrappedStatement implements Statement {
         try {
             return stmt.executeQuery(sql);
         } finally {
-            w.submitMicroTiming("SQL", sql);
+            Database.recordQuery(w, sql);
         }
     }
 
@@ -56,7 +56,7 @@ class WrappedStatement implements Statement {
         try {
             return stmt.executeUpdate(sql);
         } finally {
-            w.submitMicroTiming("SQL", sql);
+            Database.recordQuery(w, sql);
         }
     }
 
@@ -134,7 +134,7 @@ class WrappedStatement implements Statement {
         try {
             return stmt.execute(sql);
         } finally {
-            w.submitMicroTiming("SQL", sql);
+            Database.recordQuery(w, sql);
         }
     }
 
@@ -222,7 +222,7 @@ class WrappedStatement implements Statement {
         try {
             return stmt.executeUpdate(sql, autoGeneratedKeys);
         } finally {
-            w.submitMicroTiming("SQL", sql);
+            Database.recordQuery(w, sql);
         }
     }
 
@@ -235,7 +235,7 @@ class WrappedStatement implements Statement {
         try {
             return stmt.executeUpdate(sql, columnIndexes);
         } finally {
-            w.submitMicroTiming("SQL", sql);
+            Database.recordQuery(w, sql);
         }
     }
 
@@ -248,7 +248,7 @@ class WrappedStatement implements Statement {
         try {
             return stmt.executeUpdate(sql, columnNames);
         } finally {
-            w.submitMicroTiming("SQL", sql);
+            Database.recordQuery(w, sql);
         }
     }
 
@@ -261,7 +261,7 @@ class WrappedStatement implements Statement {
         try {
             return stmt.execute(sql, autoGeneratedKeys);
         } finally {
-            w.submitMicroTiming("SQL", sql);
+            Database.recordQuery(w, sql);
         }
     }
 
@@ -274,7 +274,7 @@ class WrappedStatement implements Statement {
         try {
             return stmt.execute(sql, columnIndexes);
         } finally {
-            w.submitMicroTiming("SQL", sql);
+            Database.recordQuery(w, sql);
         }
     }
 
@@ -287,7 +287,7 @@ class WrappedStatement implements Statement {
         try {
             return stmt.execute(sql, columnNames);
         } finally {
-            w.submitMicroTiming("SQL", sql);
+            Database.recordQuery(w, sql);
         }
     }
 
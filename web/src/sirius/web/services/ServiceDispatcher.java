@@ -17,11 +17,13 @@ import sirius.kernel.di.std.Register;
 import sirius.kernel.health.Exceptions;
 import sirius.web.http.WebContext;
 import sirius.web.http.WebDispatcher;
+import sirius.web.http.WebServer;
 import sirius.web.security.Permissions;
 import sirius.web.security.UserContext;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Dispatches calls to the JSON / XML Service-Framework (/service).
@@ -80,6 +82,7 @@ public class ServiceDispatcher implements WebDispatcher {
              .dropOnOverload(() -> ctx.respondWith()
                                       .error(HttpResponseStatus.INTERNAL_SERVER_ERROR,
                                              "Request dropped - System overload!"))
+             .deadline(WebServer.getIdleTimeoutMillis(), TimeUnit.MILLISECONDS)
              .execute();
         return true;
     }
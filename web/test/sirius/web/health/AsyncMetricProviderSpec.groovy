@@ -0,0 +1,98 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.web.health
+
+import sirius.kernel.async.Async
+import sirius.kernel.health.Histogram
+import sirius.testtools.SiriusBaseSpecification
+
+import java.util.concurrent.TimeUnit
+
+class AsyncMetricProviderSpec extends SiriusBaseSpecification {
+
+    /**
+     * Records all provided metrics along with their labels.
+     */
+    static class RecordingCollector implements MetricsCollector {
+
+        List<Map<String, Object>> metrics
+        Map<String, String> labels
+
+        RecordingCollector(List<Map<String, Object>> metrics, Map<String, String> labels) {
+            this.metrics = metrics
+            this.labels = labels
+        }
+
+        void metric(String limitType, String title, double value, String unit) {
+            metrics.add([type: "metric", limitType: limitType, title: title, value: value, labels: labels])
+        }
+
+        void metric(String title, double value, String unit, MetricState state) {
+            metrics.add([type: "metric", title: title, value: value, labels: labels])
+        }
+
+        void differentialMetric(String id, String limitType, String title, double currentValue, String unit) {
+            metrics.add([type     : "differential",
+                         id       : id,
+                         limitType: limitType,
+                         title    : title,
+                         value    : currentValue,
+                         labels   : labels])
+        }
+
+        void histogram(String limitType, String title, Histogram histogram, String unit) {
+            metrics.add([type     : "histogram",
+                         limitType: limitType,
+                         title    : title,
+                         value    : histogram.getCount(),
+                         labels   : labels])
+        }
+
+        MetricsCollector withLabel(String name, String value) {
+            return new RecordingCollector(metrics, labels + [(name): value])
+        }
+    }
+
+    def "metrics are provided per executor and labeled with its category"() {
+        given:
+        Async.executor("metric-test-a").fork({}).execute().await(5, TimeUnit.SECONDS)
+        Async.executor("metric-test-b").fork({}).execute().await(5, TimeUnit.SECONDS)
+        def metrics = []
+        when:
+        new AsyncMetricProvider().gather(new RecordingCollector(metrics, [:]))
+        def executorA = metrics.findAll { it.labels.executor == "metric-test-a" }
+        def executorB = metrics.findAll { it.labels.executor == "metric-test-b" }
+        then:
+        executorA*.limitType.containsAll(["async-queue-wait",
+                                          "async-execution-time",
+                                          "async-executed",
+                                          "async-active",
+                                          "async-rejected"])
+        executorA.every { it.title.endsWith("metric-test-a") }
+        executorA.find { it.limitType == "async-queue-wait" }.type == "histogram"
+        executorA.find { it.limitType == "async-queue-wait" }.value >= 1
+        executorA.find { it.limitType == "async-active" }.labels.threads == "active"
+        executorB.size() == executorA.size()
+    }
+
+    def "differential metrics use a distinct id per executor"() {
+        given:
+        Async.executor("metric-test-a").fork({}).execute().await(5, TimeUnit.SECONDS)
+        Async.executor("metric-test-b").fork({}).execute().await(5, TimeUnit.SECONDS)
+        def metrics = []
+        when:
+        new AsyncMetricProvider().gather(new RecordingCollector(metrics, [:]))
+        def ids = metrics.findAll { it.type == "differential" }*.id
+        then:
+        ids.contains("async-executed-metric-test-a")
+        ids.contains("async-executed-metric-test-b")
+        ids.contains("async-rejected-metric-test-a")
+        ids.size() == ids.toSet().size()
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.web.health
+
+import com.alibaba.fastjson.JSONObject
+import io.netty.handler.codec.http.HttpResponseStatus
+import sirius.kernel.async.CallContext
+import sirius.kernel.cache.CacheManager
+import sirius.kernel.di.Injector
+import sirius.testtools.SiriusBaseSpecification
+import sirius.web.http.TestRequest
+import sirius.web.services.StructuredService
+
+class CacheInvalidationServiceSpec extends SiriusBaseSpecification {
+
+    def setupSpec() {
+        def service = Injector.context().getPart("system/cache-invalidate", StructuredService.class)
+        service.enabled = true
+        service.secret = "test-secret"
+    }
+
+    def "/service/json/system/cache-invalidate removes the given keys"() {
+        given:
+        def cache = CacheManager.createCache("test-invalidation")
+        cache.put("a", "A")
+        cache.put("b", "B")
+        and:
+        JSONObject data = message("other-node", "test-secret", [remove: ["test-invalidation": ["a"]]])
+        when:
+        def result = TestRequest.POST("/service/json/system/cache-invalidate", data).executeAndBlock()
+        then:
+        result.getStatus() == HttpResponseStatus.OK
+        and:
+        !cache.contains("a")
+        cache.contains("b")
+    }
+
+    def "/service/json/system/cache-invalidate ignores messages sent by the local node"() {
+        given:
+        def cache = CacheManager.createCache("test-invalidation-local")
+        cache.put("a", "A")
+        and:
+        JSONObject data = message(CallContext.getNodeName(), "test-secret", [clear: ["test-invalidation-local"]])
+        when:
+        def result = TestRequest.POST("/service/json/system/cache-invalidate", data).executeAndBlock()
+        then:
+        result.getStatus() == HttpResponseStatus.OK
+        and:
+        cache.contains("a")
+    }
+
+    def "/service/json/system/cache-invalidate rejects messages without a valid signature"() {
+        given:
+        def cache = CacheManager.createCache("test-invalidation-unsigned")
+        cache.put("a", "A")
+        and:
+        JSONObject data = message("other-node", "wrong-secret", [clear: ["test-invalidation-unsigned"]])
+        when:
+        def result = TestRequest.POST("/service/json/system/cache-invalidate", data).executeAndBlock()
+        then:
+        result.getContentAsJson().getBoolean("success") == false
+        and:
+        cache.contains("a")
+    }
+
+    def "/service/json/system/cache-invalidate rejects messages whose invalidations were changed"() {
+        given:
+        def cache = CacheManager.createCache("test-invalidation-tampered")
+        cache.put("a", "A")
+        and:
+        JSONObject data = message("other-node", "test-secret", [clear: []])
+        data.put("invalidations", new JSONObject([clear: ["test-invalidation-tampered"]]).toJSONString())
+        when:
+        def result = TestRequest.POST("/service/json/system/cache-invalidate", data).executeAndBlock()
+        then:
+        result.getContentAsJson().getBoolean("success") == false
+        and:
+        cache.contains("a")
+    }
+
+    private static JSONObject message(String node, String secret, Map<String, Object> invalidations) {
+        JSONObject data = new JSONObject()
+        long timestamp = System.currentTimeMillis()
+        String payload = new JSONObject(invalidations).toJSONString()
+        data.put("node", node)
+        data.put("timestamp", timestamp)
+        data.put("invalidations", payload)
+        data.put("signature", ClusterCacheCoherence.computeSignature(secret, node, String.valueOf(timestamp), payload))
+        return data
+    }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.web.health
+
+import io.netty.handler.codec.http.HttpResponseStatus
+import sirius.kernel.di.Injector
+import sirius.testtools.SiriusBaseSpecification
+import sirius.web.http.TestRequest
+import sirius.web.security.UserContext
+import sirius.web.security.UserInfo
+import sirius.web.services.StructuredService
+
+class MetricHistoryServiceSpec extends SiriusBaseSpecification {
+
+    def "/service/json/system/metric-history reports the recorded values"() {
+        given:
+        UserContext.get().setCurrentUser(UserInfo.GOD_LIKE)
+        def history = Injector.context().getPart(MetricHistory.class)
+        def now = System.currentTimeMillis()
+        history.record([new Metric("test-history", 1, MetricState.GREEN, "ms")], now - 120000)
+        history.record([new Metric("test-history", 3, MetricState.GREEN, "ms")], now)
+        when:
+        def result = TestRequest.GET("/service/json/system/metric-history?metric=test-history&from=" +
+                                             (now - 120000) + "&to=" + now).executeAndBlock()
+        def json = result.getContentAsJson()
+        then:
+        result.getStatus() == HttpResponseStatus.OK
+        json.getString("unit") == "ms"
+        json.getLongValue("resolution") == 60000
+        json.getJSONArray("values").size() == 3
+        json.getJSONArray("values").getDouble(0) == 1
+        json.getJSONArray("values").getDouble(1) == null
+        json.getJSONArray("values").getDouble(2) == 3
+    }
+
+    def "/service/json/system/metric-history lists all metrics without a name"() {
+        given:
+        UserContext.get().setCurrentUser(UserInfo.GOD_LIKE)
+        when:
+        def result = TestRequest.GET("/service/json/system/metric-history").executeAndBlock()
+        then:
+        result.getStatus() == HttpResponseStatus.OK
+        result.getContentAsJson().getJSONArray("metrics") != null
+    }
+
+    def "/service/json/system/metric-history rejects requests without permission or signature"() {
+        given:
+        UserContext.get().setCurrentUser(UserInfo.NOBODY)
+        when:
+        def result = TestRequest.GET("/service/json/system/metric-history").executeAndBlock()
+        then:
+        result.getContentAsJson().getBoolean("success") == false
+        result.getContentAsJson().getJSONArray("metrics") == null
+    }
+
+    def "/service/json/system/metric-history accepts requests signed with the shared secret"() {
+        given:
+        UserContext.get().setCurrentUser(UserInfo.NOBODY)
+        Injector.context().getPart("system/metric-history", StructuredService.class).secret = "test-secret"
+        def timestamp = System.currentTimeMillis()
+        def signature = ClusterCacheCoherence.computeSignature("test-secret",
+                                                               "test-node",
+                                                               String.valueOf(timestamp),
+                                                               "",
+                                                               "",
+                                                               "")
+        when:
+        def result = TestRequest.GET("/service/json/system/metric-history?sender=test-node&timestamp=" + timestamp +
+                                             "&signature=" + signature).executeAndBlock()
+        then:
+        result.getStatus() == HttpResponseStatus.OK
+        result.getContentAsJson().getJSONArray("metrics") != null
+    }
+
+    def "/service/json/system/metric-history rejects signed requests whose parameters were changed"() {
+        given:
+        UserContext.get().setCurrentUser(UserInfo.NOBODY)
+        Injector.context().getPart("system/metric-history", StructuredService.class).secret = "test-secret"
+        def timestamp = System.currentTimeMillis()
+        def signature = ClusterCacheCoherence.computeSignature("test-secret",
+                                                               "test-node",
+                                                               String.valueOf(timestamp),
+                                                               "",
+                                                               "",
+                                                               "")
+        when:
+        def result = TestRequest.GET("/service/json/system/metric-history?sender=test-node&timestamp=" + timestamp +
+                                             "&metric=test-history&signature=" + signature).executeAndBlock()
+        then:
+        result.getContentAsJson().getBoolean("success") == false
+        result.getContentAsJson().getJSONArray("values") == null
+    }
+
+    def "the history is recorded per limit type and labels"() {
+        given:
+        def history = Injector.context().getPart(MetricHistory.class)
+        def now = System.currentTimeMillis()
+        when:
+        history.record([new Metric("test-key{executor=a}", "Test: a", 1, MetricState.GREEN, null),
+                        new Metric("test-key{executor=b}", "Test: a", 2, MetricState.GREEN, null)], now)
+        then:
+        history.getKeys().containsAll(["test-key{executor=a}", "test-key{executor=b}"])
+        history.query("test-key{executor=b}", now, now).getValue(0) == 2
+        history.query("test-key{executor=b}", now, now).getName() == "Test: a"
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.web.health
+
+import sirius.kernel.health.Histogram
+import sirius.testtools.SiriusBaseSpecification
+
+class OpenMetricsWriterSpec extends SiriusBaseSpecification {
+
+    /**
+     * Provides a gauge and a counter, both labeled with an executor.
+     */
+    static class TestProvider implements MetricProvider {
+
+        double value
+
+        void gather(MetricsCollector collector) {
+            MetricsCollector labeled = collector.withLabel("executor", "test")
+            labeled.metric("test-gauge", "Test Gauge", value, null)
+            labeled.differentialMetric("test-counter", "test-counter", "Test Counter", value, null)
+        }
+    }
+
+    /**
+     * Discards all metrics, just like the regular collection would after computing its state.
+     */
+    static class DiscardingCollector implements MetricsCollector {
+
+        void metric(String limitType, String title, double value, String unit) {
+        }
+
+        void metric(String title, double value, String unit, MetricState state) {
+        }
+
+        void differentialMetric(String id, String limitType, String title, double currentValue, String unit) {
+        }
+
+        void histogram(String limitType, String title, Histogram histogram, String unit) {
+        }
+
+        MetricsCollector withLabel(String name, String value) {
+            return this
+        }
+    }
+
+    def "gauges are served from the last collection while counters are queried for each scrape"() {
+        given:
+        def writer = new OpenMetricsWriter()
+        def provider = new TestProvider(value: 5)
+        def out = new StringWriter()
+        when:
+        provider.gather(writer.recordGauges(new DiscardingCollector()))
+        writer.publishGauges()
+        provider.value = 7
+        writer.write([provider], out)
+        def result = out.toString()
+        then:
+        result.contains("# TYPE sirius_test_gauge gauge")
+        result.contains("executor=\"test\"} 5\n")
+        result.contains("# TYPE sirius_test_counter counter")
+        result.contains("executor=\"test\"} 7\n")
+        result.endsWith("# EOF\n")
+    }
+
+    def "no gauges are served before the first collection is completed"() {
+        given:
+        def writer = new OpenMetricsWriter()
+        def provider = new TestProvider(value: 5)
+        def out = new StringWriter()
+        when:
+        provider.gather(writer.recordGauges(new DiscardingCollector()))
+        writer.write([provider], out)
+        def result = out.toString()
+        then:
+        !result.contains("sirius_test_gauge")
+        result.contains("sirius_test_counter")
+    }
+}
@@ -13,6 +13,7 @@ import sirius.kernel.async.CallContext
 import sirius.kernel.commons.Value
 import sirius.kernel.di.Injector
 import sirius.testtools.SiriusBaseSpecification
+import sirius.web.controller.Controller
 import sirius.web.http.TestRequest
 import sirius.web.http.TestResponse
 import sirius.web.security.UserContext
@@ -21,6 +22,10 @@ import spock.lang.Specification
 
 class SystemControllerSpec extends SiriusBaseSpecification {
 
+    private static SystemController systemController() {
+        Injector.context().getParts(Controller.class).find { it instanceof SystemController }
+    }
+
     def "/system/ok returns 200 OK"() {
         when:
         def result = TestRequest.GET("/system/ok").executeAndBlock();
@@ -28,6 +33,27 @@ class SystemControllerSpec extends SiriusBaseSpecification {
         result.getStatus() == HttpResponseStatus.OK;
     }
 
+    def "/metrics provides all metrics in the OpenMetrics format"() {
+        given:
+        systemController().openMetricsToken = "test-token"
+        when:
+        def result = TestRequest.GET("/metrics?token=test-token").executeAndBlock();
+        then:
+        result.getStatus() == HttpResponseStatus.OK;
+        result.getType() == TestResponse.ResponseType.STREAM
+        result.getContentAsString().contains("# TYPE sirius_sys_interactions counter")
+        result.getContentAsString().endsWith("# EOF\n")
+    }
+
+    def "/metrics requires the configured token"() {
+        given:
+        systemController().openMetricsToken = "test-token"
+        when:
+        def result = TestRequest.GET("/metrics?token=wrong-token").executeAndBlock();
+        then:
+        result.getStatus() == HttpResponseStatus.UNAUTHORIZED
+    }
+
     def "/system/console renders its template"() {
         given:
         UserContext.get().setCurrentUser(UserInfo.GOD_LIKE);